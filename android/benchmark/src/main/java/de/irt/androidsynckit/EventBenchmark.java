@@ -0,0 +1,52 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of building the events {@link AndroidSyncKit} sends to the web app, including the encoding done by {@link PluginResult}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBenchmark {
+
+	@Benchmark
+	public PluginResult wallclockUpdated(SynchronisedSession session) throws JSONException {
+		PluginResult result = new PluginResult(PluginResult.Status.OK, AndroidSyncKit.createWallclockUpdatedEvent(session.synchroniser));
+		result.setKeepCallback(true);
+		return result;
+	}
+
+	@Benchmark
+	public PluginResult propertiesChanged(SynchronisedSession session) throws JSONException {
+		PluginResult result = new PluginResult(PluginResult.Status.OK, AndroidSyncKit.createPropertiesChangedEvent(session.synchroniser, true, 1.0f, 1000000000L, 90000L));
+		result.setKeepCallback(true);
+		return result;
+	}
+}
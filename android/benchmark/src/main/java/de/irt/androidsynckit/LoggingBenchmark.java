@@ -0,0 +1,66 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a {@link SyncLog} call on the calling thread, with the category disabled and enabled. Enabled records the
+ * writer cannot keep up with are dropped, which costs about as much as enqueueing them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+	private final String mMessage = "{\"contentTime\":\"900000\",\"wallClockTime\":\"1000000000\",\"timelineSpeedMultiplier\":1.0}";
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		SyncLog.setLevel(SyncLog.Category.CII, SyncLog.INFO);
+		SyncLog.setLevel(SyncLog.Category.TS, SyncLog.DEBUG);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SyncLog.setLevel(SyncLog.INFO);
+	}
+
+	@Benchmark
+	public void disabled() {
+		SyncLog.d(SyncLog.Category.CII, "LoggingBenchmark", "TS Websocket onMessage: {} at {}", mMessage, 1000000000L);
+	}
+
+	@Benchmark
+	public void enabled() {
+		SyncLog.d(SyncLog.Category.TS, "LoggingBenchmark", "TS Websocket onMessage: {} at {}", mMessage, 1000000000L);
+	}
+}
@@ -0,0 +1,81 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of handling a received CII message and a received Control Timestamp, from the message string to the updated state,
+ * and of parsing a Control Timestamp alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageHandlingBenchmark {
+
+	private static final String CII_MESSAGE = "{\"protocolVersion\":\"1.1\",\"contentId\":\"dvb://233a.1004.1044;363a~20130218T0915Z--PT00H45M\","
+			+ "\"contentIdStatus\":\"final\",\"presentationStatus\":\"okay\",\"mrsUrl\":null,\"wcUrl\":\"udp://127.0.0.1:6677\","
+			+ "\"tsUrl\":\"ws://127.0.0.1:7681/ts\",\"teUrl\":null,\"timelines\":["
+			+ "{\"timelineSelector\":\"urn:dvb:css:timeline:pts\",\"timelineProperties\":{\"unitsPerTick\":1,\"unitsPerSecond\":90000}},"
+			+ "{\"timelineSelector\":\"urn:dvb:css:timeline:temi:1:1\",\"timelineProperties\":{\"unitsPerTick\":1,\"unitsPerSecond\":1000}}]}";
+
+	private Synchroniser mCiiSynchroniser;
+	private String mControlTimestamp;
+	private final ControlTimestampParser mControlTimestampParser = new ControlTimestampParser();
+
+	@Setup
+	public void setUp(SynchronisedSession session) {
+		mCiiSynchroniser = new Synchroniser("ws://127.0.0.1:7681/cii", "cii");
+
+		//Same correlation as the stand-in announces, so the session stays synchronised
+		long wallclockTime = session.standIn.getWallclock().getTime();
+		long contentTime = session.timeline.getContentTimeAt(wallclockTime);
+		mControlTimestamp = "{\"contentTime\":\"" + contentTime + "\",\"wallClockTime\":\"" + wallclockTime + "\",\"timelineSpeedMultiplier\":1.0}";
+	}
+
+	@Benchmark
+	public Synchroniser ciiMessage() {
+		//Repeated CII messages are merged into the state, the timelines do not grow
+		mCiiSynchroniser.handleCiiMessage(CII_MESSAGE, null);
+		return mCiiSynchroniser;
+	}
+
+	@Benchmark
+	public Synchroniser controlTimestamp(SynchronisedSession session) {
+		//A periodic resend during steady playback, equivalent to the current correlation and therefore not reported
+		session.synchroniser.handleControlTimestamp(mControlTimestamp, SynchronisedSession.NO_OP_CALLBACK);
+		return session.synchroniser;
+	}
+
+	@Benchmark
+	public long controlTimestampParse() throws Exception {
+		mControlTimestampParser.parse(mControlTimestamp);
+		return mControlTimestampParser.getContentTime();
+	}
+}
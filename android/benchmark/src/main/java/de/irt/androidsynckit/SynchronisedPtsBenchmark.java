@@ -0,0 +1,46 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per frame cost of reading the synchronised content time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SynchronisedPtsBenchmark {
+
+	@Benchmark
+	public long synchronisedCurrentPts(SynchronisedSession session) {
+		return session.synchroniser.synchronisedCurrentPts();
+	}
+
+	@Benchmark
+	public long currentRemoteWallclock(SynchronisedSession session) {
+		return session.synchroniser.getWallclock().getCurrentRemoteWallclock();
+	}
+}
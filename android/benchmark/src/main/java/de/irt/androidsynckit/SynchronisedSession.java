@@ -0,0 +1,124 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.irt.androidsynckit.standin.DvbCssStandInServer;
+import de.irt.androidsynckit.standin.ScriptedTimeline;
+
+/**
+ * A {@link Synchroniser} synchronised to a {@link DvbCssStandInServer} on loopback, shared by all benchmark threads.
+ */
+@State(Scope.Benchmark)
+public class SynchronisedSession {
+
+	static final String TIMELINE_SELECTOR = "urn:dvb:css:timeline:pts";
+
+	private static final long SYNC_TIMEOUT_SECONDS = 10;
+
+	static final SynchroniserReconnectionCallback NO_OP_CALLBACK = new SynchroniserReconnectionCallback() {
+		@Override
+		public void wallclockSynced() {
+			//nada
+		}
+
+		@Override
+		public void wallclockUpdated() {
+			//nada
+		}
+
+		@Override
+		public void synchronisedTimelineAvailable() {
+			//nada
+		}
+
+		@Override
+		public void synchronisedTimelineUnavailable() {
+			//nada
+		}
+
+		@Override
+		public void synchronisedTimelineReconnecting() {
+			//nada
+		}
+
+		@Override
+		public void synchronisationPropertiesChanged(boolean available, float speedMultiplier, long remoteWallclock, long remoteContentTime) {
+			//nada
+		}
+	};
+
+	DvbCssStandInServer standIn;
+	ScriptedTimeline timeline;
+	Synchroniser synchroniser;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		standIn = new DvbCssStandInServer();
+		standIn.start();
+		timeline = standIn.addTimeline(TIMELINE_SELECTOR, 1, 90000);
+
+		synchroniser = SynchroniserFactory.createSynchroniser(standIn.getCiiUrl(), "benchmark");
+		final CountDownLatch timelinesAvailable = new CountDownLatch(1);
+		synchroniser.obtainSynchronisationInformation(new SynchroniserContentCallback() {
+			@Override
+			public void onContentIdChanged(String newContentId) {
+				//nada
+			}
+
+			@Override
+			public void onTimelinesAvailable() {
+				timelinesAvailable.countDown();
+			}
+
+			@Override
+			public void onError(String errorDescription) {
+				//nada
+			}
+
+			@Override
+			public void onSyncMessage(JSONObject msg) {
+				//nada
+			}
+		});
+		if(!timelinesAvailable.await(SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("No timelines received from the stand-in");
+		}
+
+		synchroniser.startSynchronisation(synchroniser.getTimelines().get(0), NO_OP_CALLBACK);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SYNC_TIMEOUT_SECONDS);
+		while(!synchroniser.isSynchronisedCurrentPtsValid()) {
+			if(System.nanoTime() > deadline) {
+				throw new IllegalStateException("Synchroniser did not synchronise to the stand-in");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		synchroniser.destroy();
+		standIn.stop();
+	}
+}
@@ -0,0 +1,99 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per packet cost of the Wallclock protocol: request encoding, response decoding and the estimator update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WallclockBenchmark {
+
+	private static final long REMOTE_OFFSET = 123456789000L;
+	private static final long ONE_WAY_DELAY = 500000L;
+
+	private final ByteBuffer mRequest = ByteBuffer.allocateDirect(WallclockCodec.MESSAGE_SIZE);
+	private final ByteBuffer mResponse = ByteBuffer.allocateDirect(WallclockCodec.MESSAGE_SIZE);
+	private final WallclockMessage mMessage = new WallclockMessage();
+
+	private WallclockFilter mFilter;
+	private WallclockClockModel mClockModel;
+	private long mLocalTime;
+
+	@Setup
+	public void setUp() {
+		WallclockMessage response = new WallclockMessage();
+		response.messageType = WallclockMessageType.MSGTYPE_RESPONSE_NO_FOLLOWUP.getMessageTypeValue();
+		response.precision = -20;
+		response.maxFreqError = 50 * 256;
+		response.originateTime = 1000000000L;
+		response.receiveTime = response.originateTime + REMOTE_OFFSET + ONE_WAY_DELAY;
+		response.transmitTime = response.receiveTime + 20000L;
+		WallclockCodec.encode(response, mResponse);
+
+		mFilter = new WallclockFilter();
+		mClockModel = new WallclockClockModel();
+		mLocalTime = 1000000000L;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeRequest() {
+		WallclockCodec.encodeRequest(mLocalTime++, mRequest);
+		return mRequest;
+	}
+
+	@Benchmark
+	public WallclockMessage decodeResponse() {
+		WallclockCodec.decode(mResponse, mMessage);
+		return mMessage;
+	}
+
+	/**
+	 * Filter and clock model update for one response, as done for every received response
+	 */
+	@Benchmark
+	public WallclockState estimatorUpdate() {
+		long originTime = mLocalTime;
+		//Every 4th exchange has a larger delay so that the filter does not always select the latest candidate
+		long delay = (originTime / 1000000L) % 4 == 0 ? 4 * ONE_WAY_DELAY : ONE_WAY_DELAY;
+		long receiveTime = originTime + REMOTE_OFFSET + delay;
+		long transmitTime = receiveTime + 20000L;
+		long replyTime = transmitTime - REMOTE_OFFSET + ONE_WAY_DELAY;
+		mLocalTime += 1000000L;
+
+		if(mFilter.addCandidate(originTime, receiveTime, transmitTime, replyTime, WallclockCandidate.precisionToNanos(-20), 50 * 256)) {
+			mClockModel.update(mFilter.getCurrent());
+		}
+		return mClockModel.getState();
+	}
+}
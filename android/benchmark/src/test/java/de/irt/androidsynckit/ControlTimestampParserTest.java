@@ -0,0 +1,139 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+/**
+ * Edge cases of the single pass {@link ControlTimestampParser} and its fallback to {@link org.json.JSONObject}
+ */
+public class ControlTimestampParserTest {
+
+	private final ControlTimestampParser mParser = new ControlTimestampParser();
+
+	@Test
+	public void parsesTheUsualShapeOnTheFastPath() throws Exception {
+		mParser.parse("{\"contentTime\":\"900000\",\"wallClockTime\":\"123456789\",\"timelineSpeedMultiplier\":1.0}");
+		assertTrue(mParser.wasFastPath());
+		assertEquals(900000, mParser.getContentTime());
+		assertFalse(mParser.isContentTimeNull());
+		assertEquals(123456789, mParser.getWallclockTime());
+		assertEquals(1.0f, mParser.getSpeedMultiplier(), 0);
+		assertFalse(mParser.isSpeedMultiplierNull());
+	}
+
+	@Test
+	public void acceptsAnyMemberOrderWhitespaceAndUnquotedNumbers() throws Exception {
+		mParser.parse(" {\r\n\t\"timelineSpeedMultiplier\" : \"0.5\" ,\n \"wallClockTime\" : 42 , \"contentTime\" : 7 } ");
+		assertTrue(mParser.wasFastPath());
+		assertEquals(7, mParser.getContentTime());
+		assertEquals(42, mParser.getWallclockTime());
+		assertEquals(0.5f, mParser.getSpeedMultiplier(), 0);
+	}
+
+	@Test
+	public void parsesNineteenDigitTimesOnTheFastPath() throws Exception {
+		mParser.parse("{\"contentTime\":\"9223372036854775807\",\"wallClockTime\":\"-9223372036854775808\",\"timelineSpeedMultiplier\":1}");
+		assertTrue(mParser.wasFastPath());
+		assertEquals(Long.MAX_VALUE, mParser.getContentTime());
+		assertEquals(Long.MIN_VALUE, mParser.getWallclockTime());
+
+		mParser.parse("{\"contentTime\":\"1234567890123456789\",\"wallClockTime\":\"-1234567890123456789\",\"timelineSpeedMultiplier\":1}");
+		assertTrue(mParser.wasFastPath());
+		assertEquals(1234567890123456789L, mParser.getContentTime());
+		assertEquals(-1234567890123456789L, mParser.getWallclockTime());
+	}
+
+	@Test
+	public void rejectsTimesBeyondTheLongRange() {
+		assertInvalid("{\"contentTime\":\"9223372036854775808\",\"wallClockTime\":\"0\",\"timelineSpeedMultiplier\":1}");
+		assertInvalid("{\"contentTime\":\"0\",\"wallClockTime\":\"-9223372036854775809\",\"timelineSpeedMultiplier\":1}");
+		assertInvalid("{\"contentTime\":\"99999999999999999999\",\"wallClockTime\":\"0\",\"timelineSpeedMultiplier\":1}");
+	}
+
+	@Test
+	public void parsesSigns() throws Exception {
+		mParser.parse("{\"contentTime\":\"-90000\",\"wallClockTime\":\"-1\",\"timelineSpeedMultiplier\":-2.5}");
+		assertTrue(mParser.wasFastPath());
+		assertEquals(-90000, mParser.getContentTime());
+		assertEquals(-1, mParser.getWallclockTime());
+		assertEquals(-2.5f, mParser.getSpeedMultiplier(), 0);
+	}
+
+	@Test
+	public void parsesNullContentTimeAndSpeed() throws Exception {
+		mParser.parse("{\"contentTime\":null,\"wallClockTime\":\"5\",\"timelineSpeedMultiplier\":null}");
+		assertTrue(mParser.wasFastPath());
+		assertTrue(mParser.isContentTimeNull());
+		assertEquals(0, mParser.getContentTime());
+		assertTrue(mParser.isSpeedMultiplierNull());
+		assertEquals(0, mParser.getSpeedMultiplier(), 0);
+		assertEquals(5, mParser.getWallclockTime());
+	}
+
+	@Test
+	public void fallsBackForExponentsEscapesAndAdditionalMembers() throws Exception {
+		mParser.parse("{\"contentTime\":\"10\",\"wallClockTime\":\"20\",\"timelineSpeedMultiplier\":1e0}");
+		assertFalse(mParser.wasFastPath());
+		assertEquals(1.0f, mParser.getSpeedMultiplier(), 0);
+
+		mParser.parse("{\"\\u0063ontentTime\":\"10\",\"wallClockTime\":\"20\",\"timelineSpeedMultiplier\":1}");
+		assertFalse(mParser.wasFastPath());
+		assertEquals(10, mParser.getContentTime());
+
+		mParser.parse("{\"contentTime\":\"10\",\"wallClockTime\":\"20\",\"timelineSpeedMultiplier\":1,\"extra\":true}");
+		assertFalse(mParser.wasFastPath());
+		assertEquals(20, mParser.getWallclockTime());
+	}
+
+	@Test
+	public void resultOfTheFallbackMatchesTheFastPath() throws Exception {
+		mParser.parse("{\"contentTime\":\"-77\",\"wallClockTime\":\"88\",\"timelineSpeedMultiplier\":0.25}");
+		assertTrue(mParser.wasFastPath());
+		long contentTime = mParser.getContentTime();
+		long wallclockTime = mParser.getWallclockTime();
+		float speed = mParser.getSpeedMultiplier();
+
+		mParser.parse("{\"contentTime\":\"-77\",\"wallClockTime\":\"88\",\"timelineSpeedMultiplier\":0.25,\"extra\":1}");
+		assertFalse(mParser.wasFastPath());
+		assertEquals(contentTime, mParser.getContentTime());
+		assertEquals(wallclockTime, mParser.getWallclockTime());
+		assertEquals(speed, mParser.getSpeedMultiplier(), 0);
+	}
+
+	@Test
+	public void rejectsInvalidMessages() {
+		assertInvalid("");
+		assertInvalid("{\"contentTime\":\"10\",");
+		assertInvalid("{\"contentTime\":\"1.5\",\"wallClockTime\":\"20\",\"timelineSpeedMultiplier\":1}");
+		assertInvalid("{\"contentTime\":\"-\",\"wallClockTime\":\"20\",\"timelineSpeedMultiplier\":1}");
+		assertInvalid("{\"contentTime\":\"abc\",\"wallClockTime\":\"20\",\"timelineSpeedMultiplier\":1}");
+	}
+
+	private void assertInvalid(String message) {
+		try {
+			mParser.parse(message);
+			fail("Parsed " + message);
+		} catch(JSONException e) {
+			//nada
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.SystemClock;
+
+/**
+ * Drives a {@link Synchroniser} through CII, Wallclock and TS over the {@link InMemoryTransport}, with minimal
+ * servers written against the transport instead of the stand-in.
+ */
+public class InMemoryTransportTest {
+
+	private static final String CII_URL = "ws://tv.invalid/cii";
+	private static final String TS_URL = "ws://tv.invalid/ts";
+	private static final InetSocketAddress WC_ADDRESS = new InetSocketAddress("127.0.0.1", 6677);
+
+	/** Offset of the TV's Wallclock from the local clock */
+	private static final long WALLCLOCK_OFFSET_NANOS = 5000000000000L;
+
+	/** Content time of the Control Timestamp, 10 s in ticks of the 90 kHz PTS timeline */
+	private static final long CONTENT_TIME_TICKS = 900000;
+	private static final long CONTENT_TIME_NANOS = 10000000000L;
+
+	private static final long TIMEOUT_SECONDS = 5;
+
+	/** Accuracy expected without network delay, far below the step threshold of the clock model */
+	private static final long MAX_ERROR_NANOS = 5000000L;
+
+	private InMemoryTransport mTransport;
+	private Synchroniser mSynchroniser;
+	private final List<String> mSetupData = new CopyOnWriteArrayList<String>();
+	private volatile long mCorrelationWallclockTime;
+
+	@Before
+	public void setUp() throws Exception {
+		mTransport = new InMemoryTransport();
+		SynchroniserFactory.setMessageChannelFactory(mTransport);
+		SynchroniserFactory.setPacketChannelFactory(mTransport);
+
+		mTransport.bindMessageServer(new URI(CII_URL), new InMemoryTransport.MessageServer() {
+			@Override
+			public void onOpen(MessageChannel connection) {
+				send(connection, "{\"protocolVersion\":\"1.1\",\"contentId\":\"dvb://233a.1004.1044\",\"contentIdStatus\":\"final\","
+						+ "\"presentationStatus\":\"okay\",\"wcUrl\":\"udp://127.0.0.1:6677\",\"tsUrl\":\"" + TS_URL + "\","
+						+ "\"timelines\":[{\"timelineSelector\":\"urn:dvb:css:timeline:pts\",\"timelineProperties\":{\"unitsPerTick\":1,\"unitsPerSecond\":90000}}]}");
+			}
+
+			@Override
+			public void onMessage(MessageChannel connection, String message) {
+				//nada
+			}
+
+			@Override
+			public void onClose(MessageChannel connection) {
+				//nada
+			}
+		});
+
+		mCorrelationWallclockTime = SystemClock.elapsedRealtimeNanos() + WALLCLOCK_OFFSET_NANOS;
+		mTransport.bindMessageServer(new URI(TS_URL), new InMemoryTransport.MessageServer() {
+			@Override
+			public void onOpen(MessageChannel connection) {
+				//nada
+			}
+
+			@Override
+			public void onMessage(MessageChannel connection, String message) {
+				if(!message.contains("timelineSelector")) {
+					//An AptEptLpt message
+					return;
+				}
+				mSetupData.add(message);
+				send(connection, "{\"contentTime\":\"" + CONTENT_TIME_TICKS + "\",\"wallClockTime\":\"" + mCorrelationWallclockTime
+						+ "\",\"timelineSpeedMultiplier\":1.0}");
+			}
+
+			@Override
+			public void onClose(MessageChannel connection) {
+				//nada
+			}
+		});
+
+		mTransport.bindPacketServer(WC_ADDRESS, new PacketChannel.Receiver() {
+			private final WallclockMessage mMessage = new WallclockMessage();
+			private final ByteBuffer mResponse = ByteBuffer.allocate(WallclockCodec.MESSAGE_SIZE);
+
+			@Override
+			public synchronized void onReceive(PacketChannel peer, ByteBuffer packet, long receiveTime) {
+				if(!WallclockCodec.decode(packet, mMessage)) return;
+
+				mMessage.messageType = 1;
+				mMessage.precision = -20;
+				mMessage.maxFreqError = 256 * 50;
+				mMessage.receiveTime = receiveTime + WALLCLOCK_OFFSET_NANOS;
+				mMessage.transmitTime = SystemClock.elapsedRealtimeNanos() + WALLCLOCK_OFFSET_NANOS;
+				WallclockCodec.encode(mMessage, mResponse);
+				try {
+					peer.send(mResponse);
+				} catch(IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		if(mSynchroniser != null) {
+			mSynchroniser.destroy();
+		}
+		mTransport.unbindPacketServer(WC_ADDRESS);
+		SynchroniserFactory.setMessageChannelFactory(null);
+		SynchroniserFactory.setPacketChannelFactory(null);
+	}
+
+	@Test
+	public void synchronisesOverCiiTsAndWallclock() throws Exception {
+		mSynchroniser = SynchroniserFactory.createSynchroniser(CII_URL, "in-memory");
+
+		final CountDownLatch timelinesAvailable = new CountDownLatch(1);
+		mSynchroniser.obtainSynchronisationInformation(new SynchroniserContentCallback() {
+			@Override
+			public void onContentIdChanged(String contentId) {
+				//nada
+			}
+
+			@Override
+			public void onTimelinesAvailable() {
+				timelinesAvailable.countDown();
+			}
+
+			@Override
+			public void onError(String error) {
+				//nada
+			}
+
+			@Override
+			public void onSyncMessage(JSONObject message) {
+				//nada
+			}
+		});
+		assertTrue("CII timelines not received", timelinesAvailable.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		assertEquals(1, mSynchroniser.getTimelines().size());
+		assertEquals(TS_URL, mSynchroniser.getTimelineSyncUrl());
+
+		mSynchroniser.startSynchronisation(mSynchroniser.getTimelines().get(0), SynchronisedSession.NO_OP_CALLBACK);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while(!mSynchroniser.isSynchronisedCurrentPtsValid()) {
+			assertTrue("Not synchronised", System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+
+		assertEquals(1, mSetupData.size());
+		assertTrue(mSetupData.get(0).contains("urn:dvb:css:timeline:pts"));
+
+		TimeWithError pts = mSynchroniser.synchronisedCurrentPtsWithError();
+		long expected = CONTENT_TIME_NANOS + (SystemClock.elapsedRealtimeNanos() + WALLCLOCK_OFFSET_NANOS - mCorrelationWallclockTime);
+		assertFalse(pts.isProvisional());
+		assertTrue("Content time off by " + (pts.getTime() - expected) + " ns", Math.abs(pts.getTime() - expected) < MAX_ERROR_NANOS);
+		assertTrue("Error bound " + pts.getError() + " ns", pts.getError() < MAX_ERROR_NANOS);
+	}
+
+	private static void send(MessageChannel connection, String message) {
+		try {
+			connection.send(message);
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Coalescing and dropping of events in the {@link SynchroniserEventLoop}
+ */
+public class SynchroniserEventLoopTest {
+
+	private static final Object CONNECTION = new Object();
+	private static final Object OTHER_CONNECTION = new Object();
+
+	private final List<String> mEvents = new ArrayList<String>();
+	private final CountDownLatch mBlocked = new CountDownLatch(1);
+	private final CountDownLatch mRelease = new CountDownLatch(1);
+	private SynchroniserEventLoop mLoop;
+
+	@Before
+	public void setUp() throws InterruptedException {
+		mLoop = new SynchroniserEventLoop("EventLoopTest", new SynchroniserEventLoop.Handler() {
+			@Override
+			public void onCiiMessage(JSONObject message, String rawMessage) {
+				mEvents.add(message != null ? "cii " + message.toString() : "raw " + rawMessage);
+			}
+
+			@Override
+			public void onTsOpen(Object connection) {
+				mEvents.add("open " + name(connection));
+			}
+
+			@Override
+			public void onTsMessage(Object connection, String message) {
+				mEvents.add("ts " + name(connection) + " " + message);
+			}
+
+			@Override
+			public void onTsDisconnected(Object connection) {
+				mEvents.add("closed " + name(connection));
+			}
+
+			@Override
+			public void onWallclockUpdated() {
+				mEvents.add("wallclock");
+			}
+		});
+
+		//Keeps the loop busy so the events of a test are pending together
+		mLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				mBlocked.countDown();
+				try {
+					mRelease.await();
+				} catch (InterruptedException e) {
+					//nada
+				}
+			}
+		});
+		assertTrue(mBlocked.await(5, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void tearDown() {
+		mRelease.countDown();
+		mLoop.quit();
+	}
+
+	private static String name(Object connection) {
+		return connection == CONNECTION ? "a" : "b";
+	}
+
+	/**
+	 * Releases the loop and returns the events it handled
+	 */
+	private List<String> drain() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		mLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		mRelease.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		return mEvents;
+	}
+
+	@Test
+	public void mergesCiiMessagesAndMovesThemToTheEnd() throws InterruptedException {
+		mLoop.postCiiMessage("{\"contentId\":\"a\",\"presentationStatus\":\"okay\"}");
+		mLoop.postTsOpen(CONNECTION);
+		mLoop.postCiiMessage("{\"contentId\":\"b\"}");
+
+		assertEquals(Arrays.asList("open a", "cii {\"contentId\":\"b\",\"presentationStatus\":\"okay\"}"), drain());
+		assertEquals(1, mLoop.getCoalescedCount());
+	}
+
+	@Test
+	public void doesNotMergeInvalidCiiMessages() throws InterruptedException {
+		mLoop.postCiiMessage("{\"contentId\":\"a\"}");
+		mLoop.postCiiMessage("{no json");
+		mLoop.postCiiMessage("{no json either");
+
+		assertEquals(Arrays.asList("cii {\"contentId\":\"a\"}", "raw {no json", "raw {no json either"), drain());
+		assertEquals(0, mLoop.getCoalescedCount());
+	}
+
+	@Test
+	public void replacesAControlTimestampDirectlyBeforeOfTheSameConnection() throws InterruptedException {
+		mLoop.postTsMessage(CONNECTION, "1");
+		mLoop.postTsMessage(CONNECTION, "2");
+		mLoop.postTsMessage(OTHER_CONNECTION, "3");
+		mLoop.postTsMessage(CONNECTION, "4");
+		mLoop.postTsDisconnected(CONNECTION);
+		mLoop.postTsMessage(CONNECTION, "5");
+
+		assertEquals(Arrays.asList("ts a 2", "ts b 3", "ts a 4", "closed a", "ts a 5"), drain());
+		assertEquals(1, mLoop.getCoalescedCount());
+	}
+
+	@Test
+	public void queuesAtMostOneWallclockUpdate() throws InterruptedException {
+		mLoop.postWallclockUpdated();
+		mLoop.postTsOpen(CONNECTION);
+		mLoop.postWallclockUpdated();
+
+		assertEquals(Arrays.asList("wallclock", "open a"), drain());
+		assertEquals(1, mLoop.getCoalescedCount());
+
+		//Pending again once handled
+		mLoop.postWallclockUpdated();
+		final CountDownLatch done = new CountDownLatch(1);
+		mLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("wallclock", "open a", "wallclock"), mEvents);
+	}
+
+	@Test
+	public void dropsTheOldestControlTimestampWhenFull() throws InterruptedException {
+		for(int i = 0; i < SynchroniserEventLoop.MAX_PENDING_EVENTS; i++) {
+			//Alternating connections so nothing is coalesced
+			mLoop.postTsMessage(i % 2 == 0 ? CONNECTION : OTHER_CONNECTION, Integer.toString(i));
+		}
+		mLoop.postTsMessage(CONNECTION, "new");
+
+		List<String> events = drain();
+		assertEquals(1, mLoop.getDroppedCount());
+		assertEquals(SynchroniserEventLoop.MAX_PENDING_EVENTS, events.size());
+		assertEquals("ts b 1", events.get(0));
+		assertEquals("ts a new", events.get(events.size() - 1));
+	}
+
+	@Test
+	public void dropsNewDroppableEventsWithoutControlTimestampToDrop() throws InterruptedException {
+		for(int i = 0; i < SynchroniserEventLoop.MAX_PENDING_EVENTS; i++) {
+			mLoop.postTsOpen(CONNECTION);
+		}
+		mLoop.postTsMessage(CONNECTION, "dropped");
+		mLoop.postCiiMessage("{dropped");
+		//Neither commands nor other events are ever dropped
+		mLoop.postTsDisconnected(CONNECTION);
+
+		List<String> events = drain();
+		assertEquals(2, mLoop.getDroppedCount());
+		assertEquals(SynchroniserEventLoop.MAX_PENDING_EVENTS + 1, events.size());
+		assertEquals("closed a", events.get(events.size() - 1));
+	}
+}
@@ -0,0 +1,150 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * The exact tick conversion and the 32.32 fixed point speed arithmetic of {@link TimelineCorrelation}
+ */
+public class TimelineCorrelationTest {
+
+	private static final long WALLCLOCK_TIME = 5000000000000L;
+	private static final long TEN_SECONDS = 10000000000L;
+
+	private static Timeline timeline(int unitsPerTick, int unitsPerSecond) throws Exception {
+		return new Timeline(0, new JSONObject("{\"timelineSelector\":\"urn:dvb:css:timeline:pts\",\"timelineProperties\":{\"unitsPerTick\":"
+				+ unitsPerTick + ",\"unitsPerSecond\":" + unitsPerSecond + "}}"));
+	}
+
+	private static TimelineCorrelation correlation(float speed) throws Exception {
+		return TimelineCorrelation.create(WALLCLOCK_TIME, 900000, speed, timeline(1, 90000), false);
+	}
+
+	@Test
+	public void convertsTicksExactly() throws Exception {
+		assertEquals(TEN_SECONDS, correlation(1.0f).contentTimeAt(WALLCLOCK_TIME));
+		//1001 units per tick at 30000 units per second, one tick is 33366666.6 ns
+		TimelineCorrelation ntsc = TimelineCorrelation.create(WALLCLOCK_TIME, 3, 1.0f, timeline(1001, 30000), false);
+		assertEquals(100100000, ntsc.contentTimeAt(WALLCLOCK_TIME));
+	}
+
+	@Test
+	public void returnsNullWithoutTickRate() throws Exception {
+		assertNull(TimelineCorrelation.create(WALLCLOCK_TIME, 900000, 1.0f, timeline(1, 0), false));
+	}
+
+	@Test
+	public void followsTheWallclockAtNormalSpeed() throws Exception {
+		TimelineCorrelation correlation = correlation(1.0f);
+		assertEquals(TEN_SECONDS + 1, correlation.contentTimeAt(WALLCLOCK_TIME + 1));
+		assertEquals(TEN_SECONDS - 1, correlation.contentTimeAt(WALLCLOCK_TIME - 1));
+		//About eleven days, beyond 2^32 ns, so every partial product contributes
+		assertEquals(TEN_SECONDS + 1000000000000000L, correlation.contentTimeAt(WALLCLOCK_TIME + 1000000000000000L));
+	}
+
+	@Test
+	public void multipliesLargeDistancesWithoutOverflow() throws Exception {
+		//The product of distance and fixed point speed needs 95 bits, the result still fits in a long
+		long distance = 4000000000000000000L;
+		TimelineCorrelation correlation = TimelineCorrelation.create(0, 900000, 2.0f, timeline(1, 90000), false);
+		assertEquals(TEN_SECONDS + 2 * distance, correlation.contentTimeAt(distance));
+	}
+
+	@Test
+	public void handlesFractionalSpeedsWithTruncationTowardsZero() throws Exception {
+		TimelineCorrelation half = correlation(0.5f);
+		assertEquals(TEN_SECONDS + 1, half.contentTimeAt(WALLCLOCK_TIME + 3));
+		assertEquals(TEN_SECONDS - 1, half.contentTimeAt(WALLCLOCK_TIME - 3));
+
+		//2^-9, the smallest speed held exactly
+		TimelineCorrelation slowest = correlation(1.0f / 512);
+		assertEquals(TEN_SECONDS + 1000000, slowest.contentTimeAt(WALLCLOCK_TIME + 512000000));
+	}
+
+	@Test
+	public void runsBackwardsAtNegativeSpeed() throws Exception {
+		TimelineCorrelation rewind = correlation(-2.0f);
+		assertEquals(TEN_SECONDS - 2000000000L, rewind.contentTimeAt(WALLCLOCK_TIME + 1000000000L));
+		assertEquals(TEN_SECONDS + 2000000000L, rewind.contentTimeAt(WALLCLOCK_TIME - 1000000000L));
+		assertEquals(2000, rewind.errorAt(WALLCLOCK_TIME, 1000));
+	}
+
+	@Test
+	public void standsStillAtSpeedZero() throws Exception {
+		TimelineCorrelation paused = correlation(0.0f);
+		assertEquals(TEN_SECONDS, paused.contentTimeAt(WALLCLOCK_TIME + 1000000000000L));
+		assertEquals(TEN_SECONDS, paused.contentTimeAt(WALLCLOCK_TIME - 1000000000000L));
+		assertEquals(0, paused.errorAt(WALLCLOCK_TIME, 1000000));
+	}
+
+	@Test
+	public void rejectsContentTimesBeyondTheLongRange() throws Exception {
+		//Long.MAX_VALUE seconds do not fit in nanoseconds
+		try {
+			TimelineCorrelation.create(WALLCLOCK_TIME, Long.MAX_VALUE, 1.0f, timeline(1, 1), false);
+			fail("Created a correlation beyond the long range");
+		} catch(ArithmeticException e) {
+			//nada
+		}
+		try {
+			TimelineCorrelation.toTicks(Long.MAX_VALUE, timeline(1, Integer.MAX_VALUE));
+			fail("Converted ticks beyond the long range");
+		} catch(ArithmeticException e) {
+			//nada
+		}
+	}
+
+	@Test
+	public void convertsBackToTicks() throws Exception {
+		Timeline pts = timeline(1, 90000);
+		assertEquals(900000, TimelineCorrelation.toTicks(TEN_SECONDS, pts));
+		//Truncated towards zero, one tick is 11111.1 ns
+		assertEquals(0, TimelineCorrelation.toTicks(11111, pts));
+		assertEquals(1, TimelineCorrelation.toTicks(11112, pts));
+		assertEquals(-1, TimelineCorrelation.toTicks(-11112, pts));
+	}
+
+	@Test
+	public void growsTheErrorWhileDisconnected() throws Exception {
+		TimelineCorrelation connected = correlation(1.0f);
+		assertEquals(1000, connected.errorAt(WALLCLOCK_TIME + TEN_SECONDS, 1000));
+
+		TimelineCorrelation disconnected = connected.disconnected(WALLCLOCK_TIME);
+		assertTrue(disconnected.isProvisional());
+		assertTrue(disconnected.isDisconnected());
+		assertEquals(1000 + TimelineCorrelation.DISCONNECTED_DRIFT_PPM * 1000, disconnected.errorAt(WALLCLOCK_TIME + 1000000000L, 1000));
+		assertTrue(disconnected == disconnected.disconnected(WALLCLOCK_TIME + 1));
+	}
+
+	@Test
+	public void comparesCorrelationsOnTheSameLine() throws Exception {
+		TimelineCorrelation correlation = correlation(1.0f);
+		//One second later on the same line
+		TimelineCorrelation later = TimelineCorrelation.create(WALLCLOCK_TIME + 1000000000L, 990000, 1.0f, timeline(1, 90000), false);
+		assertTrue(correlation.isEquivalentTo(later, 0));
+		assertFalse(correlation.isEquivalentTo(correlation(0.5f), 0));
+		assertFalse(correlation.isEquivalentTo(TimelineCorrelation.create(WALLCLOCK_TIME, 900001, 1.0f, timeline(1, 90000), false), 1000));
+		assertTrue(correlation.isEquivalentTo(TimelineCorrelation.create(WALLCLOCK_TIME, 900001, 1.0f, timeline(1, 90000), false), 20000));
+		assertFalse(correlation.isEquivalentTo(null, 0));
+	}
+}
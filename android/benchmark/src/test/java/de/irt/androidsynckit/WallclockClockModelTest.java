@@ -0,0 +1,147 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The step and slew decisions of the {@link WallclockClockModel}
+ */
+public class WallclockClockModelTest {
+
+	private static final long SECOND = 1000000000L;
+	private static final long MILLISECOND = 1000000L;
+	private static final long RTT = 200000;
+
+	private final WallclockClockModel mModel = new WallclockClockModel();
+
+	/**
+	 * A symmetric exchange starting at the given local time, measuring the given offset
+	 */
+	private static WallclockCandidate measurement(long localTime, long offset) {
+		long remoteTime = localTime + RTT / 2 + offset;
+		return new WallclockCandidate(localTime, remoteTime, remoteTime, localTime + RTT, 1000, 256 * 50);
+	}
+
+	/**
+	 * Asserts that the reported offset is continuous at the given local time and returns the new state
+	 */
+	private WallclockState updateContinuously(long localTime, long offset) {
+		WallclockState previous = mModel.getState();
+		mModel.update(measurement(localTime, offset));
+		WallclockState state = mModel.getState();
+		long replyTime = localTime + RTT;
+		assertEquals(previous.getOffsetAt(replyTime), state.getOffsetAt(replyTime), 1);
+		return state;
+	}
+
+	@Test
+	public void appliesTheFirstMeasurement() {
+		assertFalse(mModel.getState().isValid());
+		mModel.update(measurement(SECOND, 3 * MILLISECOND));
+
+		WallclockState state = mModel.getState();
+		assertTrue(state.isValid());
+		assertFalse(state.isProvisional());
+		assertEquals(3 * MILLISECOND, state.getOffsetAt(SECOND + RTT));
+		assertEquals(0, state.getRemainingCorrectionAt(SECOND + RTT));
+	}
+
+	@Test
+	public void slewsSmallCorrectionsAtTheMaximumRate() {
+		mModel.update(measurement(SECOND, 0));
+		WallclockState state = updateContinuously(2 * SECOND, 10 * MILLISECOND);
+
+		long now = 2 * SECOND + RTT;
+		long correction = state.getRemainingCorrectionAt(now);
+		assertTrue(correction > 0 && correction <= 10 * MILLISECOND);
+		//500 ppm of one second
+		assertEquals(500000, state.getOffsetAt(now + SECOND) - state.getOffsetAt(now), 1);
+		assertEquals(correction - 500000, state.getRemainingCorrectionAt(now + SECOND), 1);
+		assertTrue(state.getErrorAt(now) >= correction);
+	}
+
+	@Test
+	public void stepsBeyondTheThreshold() {
+		mModel.update(measurement(SECOND, 0));
+		mModel.update(measurement(2 * SECOND, 100 * MILLISECOND));
+
+		WallclockState state = mModel.getState();
+		long now = 2 * SECOND + RTT;
+		assertTrue(state.getOffsetAt(now) > WallclockClockModel.STEP_THRESHOLD_NANOS);
+		assertEquals(0, state.getRemainingCorrectionAt(now));
+	}
+
+	@Test
+	public void stepsFromAProvisionalSeed() {
+		assertTrue(mModel.seed(WallclockState.provisional(0, 0, 0, MILLISECOND, 256 * 50)));
+		assertTrue(mModel.getState().isProvisional());
+
+		//Well within the step threshold, but the cached estimate is not slewed towards
+		mModel.update(measurement(SECOND, 5 * MILLISECOND));
+		WallclockState state = mModel.getState();
+		assertFalse(state.isProvisional());
+		assertEquals(5 * MILLISECOND, state.getOffsetAt(SECOND + RTT));
+		assertEquals(0, state.getRemainingCorrectionAt(SECOND + RTT));
+
+		assertFalse(mModel.seed(WallclockState.provisional(0, 0, 0, MILLISECOND, 256 * 50)));
+	}
+
+	@Test
+	public void slewsAnyDifferenceAfterAServerSwitch() {
+		mModel.update(measurement(SECOND, 0));
+		mModel.update(measurement(2 * SECOND, 0));
+
+		mModel.switchServer();
+		//The history of the previous server is dropped, so the whole difference is the correction
+		WallclockState state = updateContinuously(3 * SECOND, 50 * MILLISECOND);
+		assertEquals(50 * MILLISECOND, state.getRemainingCorrectionAt(3 * SECOND + RTT));
+
+		//Still beyond the step threshold, still slewed
+		state = updateContinuously(4 * SECOND, 50 * MILLISECOND);
+		assertTrue(state.getRemainingCorrectionAt(4 * SECOND + RTT) > WallclockClockModel.STEP_THRESHOLD_NANOS);
+
+		//Until the reported offset is within the threshold, a new jump steps again
+		long time = 4 * SECOND;
+		while(mModel.getState().getRemainingCorrectionAt(time + RTT) > WallclockClockModel.STEP_THRESHOLD_NANOS) {
+			time += 10 * SECOND;
+			updateContinuously(time, 50 * MILLISECOND);
+		}
+		mModel.update(measurement(time + 10 * SECOND, 200 * MILLISECOND));
+		assertEquals(0, mModel.getState().getRemainingCorrectionAt(time + 10 * SECOND + RTT));
+	}
+
+	@Test
+	public void estimatesTheDriftOnceTheHistorySpansEnoughTime() {
+		//10 ppm, 10 us per second
+		for(int i = 0; i <= 4; i++) {
+			mModel.update(measurement(i * SECOND, i * 10000));
+		}
+		assertEquals(10e-6, mModel.getState().getDrift(), 1e-7);
+	}
+
+	@Test
+	public void limitsTheDrift() {
+		//1000 ppm, beyond what the model accepts
+		for(int i = 0; i <= 4; i++) {
+			mModel.update(measurement(i * SECOND, i * MILLISECOND));
+		}
+		assertEquals(WallclockClockModel.MAX_DRIFT, mModel.getState().getDrift(), 0);
+	}
+}
@@ -0,0 +1,91 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Candidate selection of the {@link WallclockFilter}
+ */
+public class WallclockFilterTest {
+
+	private static final long SECOND = 1000000000L;
+
+	private final WallclockFilter mFilter = new WallclockFilter(4);
+
+	/**
+	 * Adds a symmetric exchange with the given round trip time, measuring the given offset
+	 */
+	private boolean add(long localTime, long rtt, long offset) {
+		long remoteTime = localTime + rtt / 2 + offset;
+		return mFilter.addCandidate(localTime, remoteTime, remoteTime, localTime + rtt, 1000, 256 * 50);
+	}
+
+	@Test
+	public void rejectsInconsistentTimestamps() {
+		//The server claims to have spent longer than the whole exchange took
+		assertFalse(mFilter.addCandidate(0, 0, 2000, 1000, 1000, 0));
+		assertNull(mFilter.getCurrent());
+		assertNull(mFilter.getLatest());
+	}
+
+	@Test
+	public void keepsTheEstimateWithTheLowestDispersion() {
+		assertTrue(add(SECOND, 100000, 5));
+		//A slower exchange does not replace the current estimate
+		assertFalse(add(2 * SECOND, 10000000, 7));
+		assertEquals(5, mFilter.getCurrent().getOffset());
+		assertEquals(7, mFilter.getLatest().getOffset());
+
+		//A faster one does
+		assertTrue(add(3 * SECOND, 50000, 9));
+		assertEquals(9, mFilter.getCurrent().getOffset());
+	}
+
+	@Test
+	public void replacesAnEstimateWhoseDispersionGrewWithItsAge() {
+		assertTrue(add(0, 100000, 5));
+		//After 100 s the frequency error of 550 ppm adds 55 ms, more than the half round trip of the new one
+		assertTrue(add(100 * SECOND, 20000000, 7));
+		assertEquals(7, mFilter.getCurrent().getOffset());
+	}
+
+	@Test
+	public void dropsTheEstimateWhenItLeavesTheWindow() {
+		assertTrue(add(0, 10000, 1));
+		for(int i = 1; i < 4; i++) {
+			assertFalse(add(i * 1000000L, 1000000, 2));
+		}
+		assertEquals(1, mFilter.getCurrent().getOffset());
+
+		//The slot of the current estimate is overwritten, one of the remaining ones takes over
+		assertTrue(add(4 * 1000000L, 2000000, 3));
+		assertEquals(2, mFilter.getCurrent().getOffset());
+	}
+
+	@Test
+	public void startsOverAfterAReset() {
+		add(SECOND, 100000, 5);
+		mFilter.reset();
+		assertNull(mFilter.getCurrent());
+		assertTrue(add(2 * SECOND, 10000000, 7));
+		assertEquals(7, mFilter.getCurrent().getOffset());
+	}
+}
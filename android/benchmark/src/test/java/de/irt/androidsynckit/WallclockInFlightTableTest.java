@@ -0,0 +1,133 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Matching, expiry and eviction of the {@link WallclockInFlightTable}
+ */
+public class WallclockInFlightTableTest {
+
+	private static final long MILLISECOND = 1000000L;
+
+	private final WallclockInFlightTable mTable = new WallclockInFlightTable(4, 1000, 250);
+
+	private static WallclockMessage response(long originTime, long responseTime) {
+		WallclockMessage response = new WallclockMessage();
+		response.originateTime = originTime;
+		response.responseTime = responseTime;
+		return response;
+	}
+
+	@Test
+	public void matchesEachRequestOnce() {
+		mTable.add(100);
+		assertTrue(mTable.match(100, 200));
+		assertFalse(mTable.match(100, 300));
+		assertFalse(mTable.match(42, 300));
+
+		assertEquals(1, mTable.getSentCount());
+		assertEquals(1, mTable.getMatchedCount());
+		assertEquals(2, mTable.getDiscardedCount());
+		assertEquals(0, mTable.getLostCount());
+	}
+
+	@Test
+	public void discardsLateResponses() {
+		mTable.add(0);
+		assertFalse(mTable.match(0, 1001 * MILLISECOND));
+		assertEquals(1, mTable.getLostCount());
+		assertEquals(1, mTable.getDiscardedCount());
+	}
+
+	@Test
+	public void expiresUnansweredRequests() {
+		mTable.add(0);
+		mTable.add(500 * MILLISECOND);
+		assertEquals(1, mTable.expire(1001 * MILLISECOND));
+		assertFalse(mTable.match(0, 1001 * MILLISECOND));
+		assertTrue(mTable.match(500 * MILLISECOND, 1001 * MILLISECOND));
+	}
+
+	@Test
+	public void evictsTheOldestRequestWhenFull() {
+		for(int i = 0; i < 4; i++) {
+			assertEquals(0, mTable.add(i * MILLISECOND));
+		}
+		assertEquals(1, mTable.add(4 * MILLISECOND));
+		assertEquals(1, mTable.getLostCount());
+
+		assertFalse(mTable.match(0, 5 * MILLISECOND));
+		for(int i = 1; i <= 4; i++) {
+			assertTrue(mTable.match(i * MILLISECOND, 5 * MILLISECOND));
+		}
+	}
+
+	@Test
+	public void evictsTheOldestRequestAcrossAClockWraparound() {
+		long start = Long.MAX_VALUE - 2 * MILLISECOND;
+		for(int i = 0; i < 4; i++) {
+			mTable.add(start + i * MILLISECOND);
+		}
+		//The youngest origin times are negative after the wraparound, the oldest one is still evicted
+		assertEquals(1, mTable.add(start + 4 * MILLISECOND));
+		assertFalse(mTable.match(start, start + 5 * MILLISECOND));
+		for(int i = 1; i <= 4; i++) {
+			assertTrue(mTable.match(start + i * MILLISECOND, start + 5 * MILLISECOND));
+		}
+	}
+
+	@Test
+	public void expiresAcrossAClockWraparound() {
+		long start = Long.MAX_VALUE - 100 * MILLISECOND;
+		mTable.add(start);
+		assertEquals(0, mTable.expire(start + 1000 * MILLISECOND));
+		assertEquals(1, mTable.expire(start + 1001 * MILLISECOND));
+	}
+
+	@Test
+	public void holdsResponsesUntilTheirFollowUp() {
+		mTable.add(100);
+		assertTrue(mTable.hold(response(100, 200)));
+		assertTrue(mTable.hasHeld());
+		//A held request is not matched again
+		assertFalse(mTable.match(100, 300));
+
+		WallclockMessage held = new WallclockMessage();
+		assertTrue(mTable.takeHeld(100, held));
+		assertEquals(200, held.responseTime);
+		assertFalse(mTable.hasHeld());
+		assertFalse(mTable.takeHeld(100, held));
+	}
+
+	@Test
+	public void releasesHeldResponsesWithoutFollowUp() {
+		mTable.add(0);
+		assertTrue(mTable.hold(response(0, MILLISECOND)));
+		//Held responses neither expire as requests nor are released before the follow-up timeout
+		assertEquals(0, mTable.expire(2000 * MILLISECOND));
+
+		WallclockMessage held = new WallclockMessage();
+		assertFalse(mTable.takeExpiredHeld(251 * MILLISECOND, held));
+		assertTrue(mTable.takeExpiredHeld(252 * MILLISECOND, held));
+		assertEquals(MILLISECOND, held.responseTime);
+		assertFalse(mTable.hasHeld());
+	}
+}
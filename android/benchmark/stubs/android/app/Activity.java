@@ -0,0 +1,14 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package android.app;
+
+import java.io.File;
+
+public class Activity {
+
+	public File getCacheDir() {
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+}
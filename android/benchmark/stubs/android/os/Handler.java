@@ -0,0 +1,17 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package android.os;
+
+public class Handler {
+
+	public Handler(Looper looper) {
+		//nada
+	}
+
+	public boolean post(Runnable r) {
+		r.run();
+		return true;
+	}
+}
@@ -0,0 +1,8 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package android.os;
+
+public class Looper {
+}
@@ -0,0 +1,16 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package android.os;
+
+public class Process {
+
+	public static final int THREAD_PRIORITY_DEFAULT = 0;
+	public static final int THREAD_PRIORITY_AUDIO = -16;
+	public static final int THREAD_PRIORITY_URGENT_AUDIO = -19;
+
+	public static void setThreadPriority(int priority) {
+		//The JVM has no per thread nice value
+	}
+}
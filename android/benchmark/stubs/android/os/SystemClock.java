@@ -0,0 +1,20 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package android.os;
+
+public final class SystemClock {
+
+	private SystemClock() {
+		//nada
+	}
+
+	public static long elapsedRealtimeNanos() {
+		return System.nanoTime();
+	}
+
+	public static long elapsedRealtime() {
+		return System.nanoTime() / 1000000L;
+	}
+}
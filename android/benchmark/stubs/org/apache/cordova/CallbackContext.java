@@ -0,0 +1,32 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package org.apache.cordova;
+
+import org.json.JSONObject;
+
+public class CallbackContext {
+
+	private PluginResult mLastResult;
+
+	public void sendPluginResult(PluginResult pluginResult) {
+		mLastResult = pluginResult;
+	}
+
+	public void success() {
+		sendPluginResult(new PluginResult(PluginResult.Status.OK));
+	}
+
+	public void success(JSONObject message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void error(String message) {
+		sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+	public PluginResult getLastResult() {
+		return mLastResult;
+	}
+}
@@ -0,0 +1,17 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+public class CordovaPlugin {
+
+	public CordovaInterface cordova;
+
+	public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+		return false;
+	}
+}
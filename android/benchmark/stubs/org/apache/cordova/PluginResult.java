@@ -0,0 +1,49 @@
+/*
+ * Minimal stand-in for the Android/Cordova framework class of the same name, so that the plugin
+ * sources can be built and benchmarked on a plain JVM. Only what the plugin uses is provided.
+ */
+package org.apache.cordova;
+
+import org.json.JSONObject;
+
+public class PluginResult {
+
+	public enum Status {
+		NO_RESULT, OK, ERROR
+	}
+
+	private final Status mStatus;
+	private final String mEncodedMessage;
+	private boolean mKeepCallback = false;
+
+	public PluginResult(Status status) {
+		this(status, (String) null);
+	}
+
+	public PluginResult(Status status, String message) {
+		mStatus = status;
+		mEncodedMessage = message == null ? null : JSONObject.quote(message);
+	}
+
+	public PluginResult(Status status, JSONObject message) {
+		//Like Cordova, the message is encoded when the result is created
+		mStatus = status;
+		mEncodedMessage = message.toString();
+	}
+
+	public void setKeepCallback(boolean keepCallback) {
+		mKeepCallback = keepCallback;
+	}
+
+	public boolean getKeepCallback() {
+		return mKeepCallback;
+	}
+
+	public Status getStatus() {
+		return mStatus;
+	}
+
+	public String getEncodedMessage() {
+		return mEncodedMessage;
+	}
+}
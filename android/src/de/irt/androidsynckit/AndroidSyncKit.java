@@ -21,8 +21,6 @@
 
 package de.irt.androidsynckit;
 
-import android.util.Log;
-
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -33,6 +31,8 @@ import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
 
+import android.os.SystemClock;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -70,12 +70,12 @@ public class AndroidSyncKit extends CordovaPlugin {
 						try {
 							JSONObject obj = new JSONObject();
 							obj.put("type", "contentIdChanged");
-							obj.put("contentId", newContentId);
+							obj.put("contentId", newContentId != null ? newContentId : JSONObject.NULL);
 							PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
 							result.setKeepCallback(true);
 							callbackContext.sendPluginResult(result);
 						} catch (Exception e) {
-							Log.e(TAG, e.getMessage(), e);
+							SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 							callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 						}
 					}
@@ -85,12 +85,12 @@ public class AndroidSyncKit extends CordovaPlugin {
 						try {
 							JSONObject obj = new JSONObject();
 							obj.put("type", "timelinesAvailable");
-							obj.put("timelines", AndroidSyncKit.this.timelinesToJson(s.getTimelines()));
+							obj.put("timelines", timelinesToJson(s.getTimelines()));
 							PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
 							result.setKeepCallback(true);
 							callbackContext.sendPluginResult(result);
 						} catch (Exception e) {
-							Log.e(TAG, e.getMessage(), e);
+							SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 							callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 						}
 					}
@@ -105,7 +105,7 @@ public class AndroidSyncKit extends CordovaPlugin {
 							result.setKeepCallback(true);
 							callbackContext.sendPluginResult(result);
 						} catch (Exception e) {
-							Log.e(TAG, e.getMessage(), e);
+							SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 							callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 						}
 					}
@@ -120,7 +120,7 @@ public class AndroidSyncKit extends CordovaPlugin {
 							result.setKeepCallback(true);
 							callbackContext.sendPluginResult(result);
 						} catch (Exception e) {
-							Log.e(TAG, e.getMessage(), e);
+							SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 							callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 						}
 					}
@@ -138,7 +138,7 @@ public class AndroidSyncKit extends CordovaPlugin {
 			Long id = args.getLong(0);
 			Synchroniser s = mSynchroniserMap.get(id);
 			if (s != null) {
-				s.stopSynchronisation();
+				s.destroy();
 				mSynchroniserMap.remove(id);
 			}
 			callbackContext.success();
@@ -148,18 +148,10 @@ public class AndroidSyncKit extends CordovaPlugin {
 			int timelineId = args.getInt(1);
 			final Synchroniser s = mSynchroniserMap.get(id);
 			if (s != null) {
-				List<Timeline> list = s.getTimelines();
-				Timeline selected = null;
-				if (list != null) {
-					for (Timeline t : list) {
-						if (t.getId() == timelineId) {
-							selected = t;
-							break;
-						}
-					}
-				}
+				Timeline selected = s.getTimeline(timelineId);
 				if (selected != null) {
-					s.startSynchronisation(selected, new SynchroniserSynchronisationCallback() {
+					s.setReportAllControlTimestamps(args.optBoolean(2, false));
+					s.startSynchronisation(selected, new SynchroniserReconnectionCallback() {
 						@Override
 						public void wallclockSynced() {
 							try {
@@ -169,7 +161,7 @@ public class AndroidSyncKit extends CordovaPlugin {
 								result.setKeepCallback(true);
 								callbackContext.sendPluginResult(result);
 							} catch (Exception e) {
-								Log.e(TAG, e.getMessage(), e);
+								SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 								callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 							}
 						}
@@ -177,18 +169,12 @@ public class AndroidSyncKit extends CordovaPlugin {
 						@Override
 						public void wallclockUpdated() {
 							try {
-								JSONObject obj = new JSONObject();
-								obj.put("type", "wallclockUpdated");
-								if (s.isSynchronisedCurrentPtsValid()) {
-									obj.put("timestamp", s.synchronisedCurrentPts() / 1000000000.d);
-								} else {
-									obj.put("timestamp", JSONObject.NULL);
-								}
+								JSONObject obj = createWallclockUpdatedEvent(s);
 								PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
 								result.setKeepCallback(true);
 								callbackContext.sendPluginResult(result);
 							} catch (Exception e) {
-								Log.e(TAG, e.getMessage(), e);
+								SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 								callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 							}
 						}
@@ -202,7 +188,7 @@ public class AndroidSyncKit extends CordovaPlugin {
 								result.setKeepCallback(true);
 								callbackContext.sendPluginResult(result);
 							} catch (Exception e) {
-								Log.e(TAG, e.getMessage(), e);
+								SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 								callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 							}
 						}
@@ -216,32 +202,34 @@ public class AndroidSyncKit extends CordovaPlugin {
 								result.setKeepCallback(true);
 								callbackContext.sendPluginResult(result);
 							} catch (Exception e) {
-								Log.e(TAG, e.getMessage(), e);
+								SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 								callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 							}
 						}
 
 						@Override
-						public void synchronisationPropertiesChanged(boolean available, float speedMultiplier, long remoteWallclock, long remoteContentTime) {
+						public void synchronisedTimelineReconnecting() {
 							try {
 								JSONObject obj = new JSONObject();
-								obj.put("type", "propertiesChanged");
-								JSONObject properties = new JSONObject();
-								properties.put("available", available);
-								if (available && s.isSynchronisedCurrentPtsValid()) {
-									properties.put("speedMultiplier", speedMultiplier);
-									properties.put("remoteWallclock", remoteWallclock);
-									properties.put("remoteContentTime", remoteContentTime);
-									obj.put("timestamp", s.synchronisedCurrentPts() / 1000000000.d);
-								} else {
-									obj.put("timestamp", JSONObject.NULL);
-								}
-								obj.put("properties", properties);
+								obj.put("type", "reconnecting");
+								PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
+								result.setKeepCallback(true);
+								callbackContext.sendPluginResult(result);
+							} catch (Exception e) {
+								SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
+								callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+							}
+						}
+
+						@Override
+						public void synchronisationPropertiesChanged(boolean available, float speedMultiplier, long remoteWallclock, long remoteContentTime) {
+							try {
+								JSONObject obj = createPropertiesChangedEvent(s, available, speedMultiplier, remoteWallclock, remoteContentTime);
 								PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
 								result.setKeepCallback(true);
 								callbackContext.sendPluginResult(result);
 							} catch (Exception e) {
-								Log.e(TAG, e.getMessage(), e);
+								SyncLog.e(SyncLog.Category.PLUGIN, TAG, "{}", e.getMessage(), e);
 								callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
 							}
 						}
@@ -273,16 +261,36 @@ public class AndroidSyncKit extends CordovaPlugin {
 			Synchroniser s = mSynchroniserMap.get(id);
 			if (s != null) {
 				JSONObject obj = new JSONObject();
-				if (s.isSynchronisedCurrentPtsValid()) {
-					obj.put("timestamp", s.synchronisedCurrentPts() / 1000000000.d);
-				} else {
-					obj.put("timestamp", JSONObject.NULL);
-				}
+				putTimestamp(obj, s.synchronisedCurrentPtsWithError());
 				callbackContext.success(obj);
 			} else {
 				callbackContext.error("No such Synchroniser: " + id);
 			}
 			return true;
+		} else if (action.equals("setContentTimeSlewing")) {
+			Long id = args.getLong(0);
+			Synchroniser s = mSynchroniserMap.get(id);
+			if (s != null) {
+				s.setContentTimeSlewing(args.getInt(1), Math.round(args.getDouble(2) * 1000000000.d));
+				callbackContext.success();
+			} else {
+				callbackContext.error("No such Synchroniser: " + id);
+			}
+			return true;
+		} else if (action.equals("reportPresentationTimestamps")) {
+			Long id = args.getLong(0);
+			Synchroniser s = mSynchroniserMap.get(id);
+			if (s != null) {
+				long now = SystemClock.elapsedRealtimeNanos();
+				long contentTime = Math.round(args.getDouble(1) * 1000000000.d);
+				long earliest = args.isNull(2) ? Synchroniser.PRESENTATION_TIME_UNBOUNDED_EARLIEST : now - Math.round(args.getDouble(2) * 1000000000.d);
+				long latest = args.isNull(3) ? Synchroniser.PRESENTATION_TIME_UNBOUNDED_LATEST : now + Math.round(args.getDouble(3) * 1000000000.d);
+				s.reportPresentationTimestamps(contentTime, earliest, now, latest);
+				callbackContext.success();
+			} else {
+				callbackContext.error("No such Synchroniser: " + id);
+			}
+			return true;
 		} else if (action.equals("overrideTimelineSyncUrl")) {
 			Long id = args.getLong(0);
 			Synchroniser s = mSynchroniserMap.get(id);
@@ -291,13 +299,59 @@ public class AndroidSyncKit extends CordovaPlugin {
 					s.setTimelineSyncUrl(args.getString(1));
 					callbackContext.success();
 				} catch (URISyntaxException e) {
-					Log.e(TAG, "URI syntax error: " + e.getMessage(), e);
+					SyncLog.e(SyncLog.Category.PLUGIN, TAG, "URI syntax error: {}", e.getMessage(), e);
 					callbackContext.error("URI syntax error: " + e.getMessage());
 				}
 			} else {
 				callbackContext.error("No such Synchroniser: " + id);
 			}
 			return true;
+		} else if (action.equals("addAlternativeWallclockUrl")) {
+			Long id = args.getLong(0);
+			Synchroniser s = mSynchroniserMap.get(id);
+			if (s != null) {
+				try {
+					s.addAlternativeWallclockUrl(args.getString(1));
+					callbackContext.success();
+				} catch (URISyntaxException e) {
+					SyncLog.e(SyncLog.Category.PLUGIN, TAG, "URI syntax error: {}", e.getMessage(), e);
+					callbackContext.error("URI syntax error: " + e.getMessage());
+				}
+			} else {
+				callbackContext.error("No such Synchroniser: " + id);
+			}
+			return true;
+		} else if (action.equals("setWarmStartCacheEnabled")) {
+			SynchroniserFactory.setWarmStartCacheDirectory(args.getBoolean(0) ? cordova.getActivity().getCacheDir() : null);
+			callbackContext.success();
+			return true;
+		} else if (action.equals("setWallclockOptions")) {
+			JSONObject options = args.getJSONObject(0);
+			try {
+				if (options.has("receiveThreadPriority")) {
+					SynchroniserFactory.setWallclockReceiveThreadPriority(options.getInt("receiveThreadPriority"));
+				}
+				SynchroniserFactory.setWallclockSocketOptions(options.optInt("trafficClass", SynchroniserFactory.getWallclockTrafficClass()),
+						options.optInt("receiveBufferSize", SynchroniserFactory.getWallclockReceiveBufferSize()));
+				callbackContext.success();
+			} catch (IllegalArgumentException e) {
+				callbackContext.error(e.getMessage());
+			}
+			return true;
+		} else if (action.equals("setLogLevel")) {
+			int level = args.getInt(0);
+			String category = args.optString(1, null);
+			try {
+				if (category != null && !category.isEmpty() && !category.equals("null")) {
+					SyncLog.setLevel(SyncLog.Category.valueOf(category.toUpperCase()), level);
+				} else {
+					SyncLog.setLevel(level);
+				}
+				callbackContext.success();
+			} catch (IllegalArgumentException e) {
+				callbackContext.error("No such log category: " + category);
+			}
+			return true;
 		} else if (action.equals("overrideWallclockUrl")) {
 			Long id = args.getLong(0);
 			Synchroniser s = mSynchroniserMap.get(id);
@@ -306,7 +360,7 @@ public class AndroidSyncKit extends CordovaPlugin {
 					s.setWallclockUrl(args.getString(1));
 					callbackContext.success();
 				} catch (URISyntaxException e) {
-					Log.e(TAG, "URI syntax error: " + e.getMessage(), e);
+					SyncLog.e(SyncLog.Category.PLUGIN, TAG, "URI syntax error: {}", e.getMessage(), e);
 					callbackContext.error("URI syntax error: " + e.getMessage());
 				}
 			} else {
@@ -317,7 +371,47 @@ public class AndroidSyncKit extends CordovaPlugin {
 		return false;
 	}
 
-	private JSONArray timelinesToJson(List<Timeline> timelines) throws JSONException {
+	static JSONObject createWallclockUpdatedEvent(Synchroniser s) throws JSONException {
+		JSONObject obj = new JSONObject();
+		obj.put("type", "wallclockUpdated");
+		putTimestamp(obj, s.synchronisedCurrentPtsWithError());
+		return obj;
+	}
+
+	static JSONObject createPropertiesChangedEvent(Synchroniser s, boolean available, float speedMultiplier, long remoteWallclock, long remoteContentTime) throws JSONException {
+		JSONObject obj = new JSONObject();
+		obj.put("type", "propertiesChanged");
+		JSONObject properties = new JSONObject();
+		properties.put("available", available);
+		TimeWithError pts = available ? s.synchronisedCurrentPtsWithError() : null;
+		if (pts != null) {
+			properties.put("speedMultiplier", speedMultiplier);
+			properties.put("remoteWallclock", remoteWallclock);
+			properties.put("remoteContentTime", remoteContentTime);
+		}
+		putTimestamp(obj, pts);
+		obj.put("properties", properties);
+		return obj;
+	}
+
+	/**
+	 * Adds the content time, its maximum error and residual in seconds and whether it is provisional to an event, or {@code null} for all if not available
+	 */
+	private static void putTimestamp(JSONObject obj, TimeWithError pts) throws JSONException {
+		if (pts != null) {
+			obj.put("timestamp", pts.getTime() / 1000000000.d);
+			obj.put("timestampError", pts.getError() / 1000000000.d);
+			obj.put("timestampProvisional", pts.isProvisional());
+			obj.put("timestampResidual", pts.getResidual() / 1000000000.d);
+		} else {
+			obj.put("timestamp", JSONObject.NULL);
+			obj.put("timestampError", JSONObject.NULL);
+			obj.put("timestampProvisional", JSONObject.NULL);
+			obj.put("timestampResidual", JSONObject.NULL);
+		}
+	}
+
+	static JSONArray timelinesToJson(List<Timeline> timelines) throws JSONException {
 		JSONArray array = new JSONArray();
 		if (timelines != null) {
 			for (Timeline t : timelines) {
@@ -0,0 +1,82 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Smooths the synchronised content time like a phase-locked loop: the output advances with the timeline speed and
+ * follows corrections of the correlation or the Wallclock estimate with a limited slew rate instead of jumping.
+ * Only an error above the step threshold, e.g. after a seek on the TV, makes the output jump to the target.
+ * <p>
+ * The output is based on the local clock, so it stays continuous across Wallclock updates. Thread-safe.
+ */
+final class ContentTimeSlew {
+
+	private final long mMaxSlewPpm;
+	private final long mStepThreshold;
+
+	//Guarded by this
+	private boolean mHasOutput = false;
+	private long mLastLocalTime;
+	private long mLastOutput;
+
+	/**
+	 * @param maxSlewPpm the maximum rate the output may deviate from the timeline speed in ppm of the elapsed time
+	 * @param stepThreshold the error in nanoseconds above which the output jumps to the target
+	 */
+	ContentTimeSlew(long maxSlewPpm, long stepThreshold) {
+		mMaxSlewPpm = maxSlewPpm;
+		mStepThreshold = stepThreshold;
+	}
+
+	/**
+	 * Returns the smoothed content time at the given local time. The residual error is the difference of the
+	 * target to the result, which is still to be corrected.
+	 * @param localTime the local time in nanoseconds ({@code SystemClock.elapsedRealtimeNanos()})
+	 * @param target the content time in nanoseconds the current correlation gives for the local time
+	 * @param speedMultiplier the current timeline speed
+	 * @return the smoothed content time in nanoseconds
+	 */
+	synchronized long slew(long localTime, long target, float speedMultiplier) {
+		if(!mHasOutput) {
+			return update(localTime, target);
+		}
+
+		//A caller racing with a later one must not advance the output backwards
+		long elapsed = Math.max(0, localTime - mLastLocalTime);
+		long predicted = mLastOutput + Math.round(elapsed * (double) speedMultiplier);
+		long offset = target - predicted;
+		if(Math.abs(offset) > mStepThreshold) {
+			return update(Math.max(localTime, mLastLocalTime), target);
+		}
+
+		long budget = elapsed >= Long.MAX_VALUE / mMaxSlewPpm ? Long.MAX_VALUE : elapsed * mMaxSlewPpm / 1000000L;
+		long correction = Math.max(-budget, Math.min(budget, offset));
+		return update(Math.max(localTime, mLastLocalTime), predicted + correction);
+	}
+
+	private long update(long localTime, long output) {
+		mHasOutput = true;
+		mLastLocalTime = localTime;
+		mLastOutput = output;
+		return output;
+	}
+
+	/**
+	 * Forgets the output, the next content time is taken as it is
+	 */
+	synchronized void reset() {
+		mHasOutput = false;
+	}
+}
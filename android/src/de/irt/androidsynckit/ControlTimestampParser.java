@@ -0,0 +1,289 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Parser for CSS-TS Control Timestamp messages that writes into primitive fields.
+ * <p>
+ * Control Timestamps are parsed in a single pass without intermediate objects if they have the usual shape: one
+ * object with exactly the members {@code contentTime}, {@code wallClockTime} and {@code timelineSpeedMultiplier}
+ * in any order, the times as integer strings or numbers and the speed as a decimal number or string, each of them
+ * possibly {@code null}. Anything else, e.g. escapes, exponents, additional members or missing members, is parsed
+ * with {@link JSONObject} with the same defaults the TS client always used.
+ * <p>
+ * An instance holds the result of the last successful {@link #parse(String)} and must only be used by one thread.
+ */
+final class ControlTimestampParser {
+
+	private static final String CONTENT_TIME = "contentTime";
+	private static final String WALLCLOCK_TIME = "wallClockTime";
+	private static final String SPEED_MULTIPLIER = "timelineSpeedMultiplier";
+
+	private static final int SEEN_CONTENT_TIME = 1;
+	private static final int SEEN_WALLCLOCK_TIME = 2;
+	private static final int SEEN_SPEED_MULTIPLIER = 4;
+	private static final int SEEN_ALL = SEEN_CONTENT_TIME | SEEN_WALLCLOCK_TIME | SEEN_SPEED_MULTIPLIER;
+
+	/** Digits of the largest long, values of this length are checked for overflow */
+	private static final int MAX_DIGITS = 19;
+
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19};
+
+	private long mContentTime;
+	private boolean mContentTimeNull;
+	private long mWallclockTime;
+	private float mSpeedMultiplier;
+	private boolean mSpeedMultiplierNull;
+	private boolean mFastPath;
+
+	//Scratch state of the fast path
+	private String mInput;
+	private int mPos;
+	private long mNumber;
+	private int mFractionDigits;
+
+	/**
+	 * Parses a Control Timestamp
+	 * @param message the Control Timestamp message
+	 * @throws JSONException if the message is not a valid Control Timestamp
+	 */
+	void parse(String message) throws JSONException {
+		mFastPath = parseFast(message);
+		mInput = null;
+		if(!mFastPath) {
+			parseGeneric(message);
+		}
+	}
+
+	/**
+	 * Returns the content time of the last Control Timestamp
+	 * @return the content time in timeline ticks, {@code 0} if it was {@code null}
+	 */
+	long getContentTime() {
+		return mContentTime;
+	}
+
+	/**
+	 * Returns whether the content time of the last Control Timestamp was {@code null}, i.e. the timeline is unavailable
+	 * @return {@code true} if the content time was {@code null}
+	 */
+	boolean isContentTimeNull() {
+		return mContentTimeNull;
+	}
+
+	/**
+	 * Returns the Wallclock time of the last Control Timestamp
+	 * @return the Wallclock time in nanoseconds
+	 */
+	long getWallclockTime() {
+		return mWallclockTime;
+	}
+
+	/**
+	 * Returns the timeline speed multiplier of the last Control Timestamp
+	 * @return the speed multiplier, {@code 0} if it was {@code null}
+	 */
+	float getSpeedMultiplier() {
+		return mSpeedMultiplier;
+	}
+
+	/**
+	 * Returns whether the timeline speed multiplier of the last Control Timestamp was {@code null}
+	 * @return {@code true} if the speed multiplier was {@code null}
+	 */
+	boolean isSpeedMultiplierNull() {
+		return mSpeedMultiplierNull;
+	}
+
+	/**
+	 * Returns whether the last Control Timestamp was parsed by the single pass parser
+	 * @return {@code true} if the fast path was taken, {@code false} if {@link JSONObject} was used
+	 */
+	boolean wasFastPath() {
+		return mFastPath;
+	}
+
+	private void parseGeneric(String message) throws JSONException {
+		JSONObject controlTimestampObj = new JSONObject(message);
+		try {
+			String speedMultiString = controlTimestampObj.optString(SPEED_MULTIPLIER, "0.0");
+			if(speedMultiString.equalsIgnoreCase("null")) {
+				mSpeedMultiplier = 0;
+				mSpeedMultiplierNull = true;
+			} else {
+				mSpeedMultiplier = Float.parseFloat(speedMultiString);
+				mSpeedMultiplierNull = false;
+			}
+
+			mWallclockTime = Long.parseLong(controlTimestampObj.optString(WALLCLOCK_TIME, "-1"));
+
+			String contTimeString = controlTimestampObj.optString(CONTENT_TIME, "-1");
+			if(contTimeString.equalsIgnoreCase("null")) {
+				mContentTime = 0;
+				mContentTimeNull = true;
+			} else {
+				mContentTime = Long.parseLong(contTimeString);
+				mContentTimeNull = false;
+			}
+		} catch (NumberFormatException e) {
+			throw new JSONException("Invalid number in Control Timestamp: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses the usual Control Timestamp shape
+	 * @return {@code true} if the message was parsed, {@code false} if it has to be parsed with {@link JSONObject}
+	 */
+	private boolean parseFast(String message) {
+		mInput = message;
+		mPos = 0;
+		int seen = 0;
+		long contentTime = 0;
+		boolean contentTimeNull = false;
+		long wallclockTime = 0;
+		float speedMultiplier = 0;
+		boolean speedMultiplierNull = false;
+
+		if(!skipWhitespaceAndExpect('{')) return false;
+		while(true) {
+			if(!skipWhitespaceAndExpect('"')) return false;
+			int member = matchMemberName();
+			if(member == 0 || (seen & member) != 0) return false;
+			seen |= member;
+			if(!skipWhitespaceAndExpect(':')) return false;
+			skipWhitespace();
+
+			if(matchLiteral("null")) {
+				if(member == SEEN_CONTENT_TIME) {
+					contentTimeNull = true;
+				} else if(member == SEEN_SPEED_MULTIPLIER) {
+					speedMultiplierNull = true;
+				} else {
+					return false;
+				}
+			} else {
+				boolean quoted = peek() == '"';
+				if(quoted) mPos++;
+				if(!parseDecimal(member == SEEN_SPEED_MULTIPLIER)) return false;
+				if(quoted && !expect('"')) return false;
+
+				if(member == SEEN_CONTENT_TIME) {
+					contentTime = mNumber;
+				} else if(member == SEEN_WALLCLOCK_TIME) {
+					wallclockTime = mNumber;
+				} else {
+					speedMultiplier = (float) (mNumber / POWERS_OF_TEN[mFractionDigits]);
+				}
+			}
+
+			skipWhitespace();
+			if(peek() == ',') {
+				mPos++;
+				continue;
+			}
+			if(!expect('}')) return false;
+			skipWhitespace();
+			if(mPos != mInput.length() || seen != SEEN_ALL) return false;
+			break;
+		}
+
+		mContentTime = contentTimeNull ? 0 : contentTime;
+		mContentTimeNull = contentTimeNull;
+		mWallclockTime = wallclockTime;
+		mSpeedMultiplier = speedMultiplierNull ? 0 : speedMultiplier;
+		mSpeedMultiplierNull = speedMultiplierNull;
+		return true;
+	}
+
+	/**
+	 * Matches a member name after its opening quote, including the closing quote
+	 * @return the {@code SEEN_} flag of the member or {@code 0} if it is not a Control Timestamp member
+	 */
+	private int matchMemberName() {
+		if(matchLiteral(CONTENT_TIME + '"')) return SEEN_CONTENT_TIME;
+		if(matchLiteral(WALLCLOCK_TIME + '"')) return SEEN_WALLCLOCK_TIME;
+		if(matchLiteral(SPEED_MULTIPLIER + '"')) return SEEN_SPEED_MULTIPLIER;
+		return 0;
+	}
+
+	/**
+	 * Parses an optionally negative decimal number into {@link #mNumber} and {@link #mFractionDigits}
+	 * @param allowFraction whether a fraction is allowed
+	 * @return {@code true} if a number was parsed
+	 */
+	private boolean parseDecimal(boolean allowFraction) {
+		boolean negative = peek() == '-';
+		if(negative) mPos++;
+
+		//Accumulated negated, the negative range of a long is the larger one
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean inFraction = false;
+		while(mPos < mInput.length()) {
+			char c = mInput.charAt(mPos);
+			if(c >= '0' && c <= '9') {
+				if(++digits > MAX_DIGITS || value < limit / 10) return false;
+				value *= 10;
+				if(value < limit + (c - '0')) return false;
+				value -= c - '0';
+				if(inFraction) fractionDigits++;
+			} else if(c == '.' && allowFraction && !inFraction && digits > 0) {
+				inFraction = true;
+			} else {
+				break;
+			}
+			mPos++;
+		}
+		if(digits == 0 || (inFraction && fractionDigits == 0)) return false;
+
+		mNumber = negative ? value : -value;
+		mFractionDigits = fractionDigits;
+		return true;
+	}
+
+	private boolean matchLiteral(String literal) {
+		if(!mInput.startsWith(literal, mPos)) return false;
+		mPos += literal.length();
+		return true;
+	}
+
+	private char peek() {
+		return mPos < mInput.length() ? mInput.charAt(mPos) : 0;
+	}
+
+	private boolean expect(char c) {
+		if(peek() != c) return false;
+		mPos++;
+		return true;
+	}
+
+	private void skipWhitespace() {
+		while(mPos < mInput.length()) {
+			char c = mInput.charAt(mPos);
+			if(c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+			mPos++;
+		}
+	}
+
+	private boolean skipWhitespaceAndExpect(char c) {
+		skipWhitespace();
+		return expect(c);
+	}
+}
@@ -0,0 +1,277 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.SystemClock;
+
+/**
+ * An in-process transport for the CII, TS and Wallclock protocols, to run the full protocol stack in tests and
+ * benchmarks without sockets.
+ * <p>
+ * Servers are bound to the URIs and addresses the {@link Synchroniser} connects to. Everything is delivered
+ * synchronously on the sending thread, so the order of events only depends on the callers. Datagrams are passed to
+ * the receiver without copying. A connection to a URI without a server fails, a datagram to an address without a
+ * server is dropped.
+ * <p>
+ * Install it with {@link SynchroniserFactory#setMessageChannelFactory(MessageChannelFactory)} and
+ * {@link SynchroniserFactory#setPacketChannelFactory(PacketChannelFactory)}.
+ */
+public final class InMemoryTransport implements MessageChannelFactory, PacketChannelFactory {
+
+	/**
+	 * A message server bound to a URI. The channels passed are the server ends of the connections, whose
+	 * {@link MessageChannel#send(String)} delivers to the client.
+	 */
+	public interface MessageServer {
+
+		/**
+		 * A client connected
+		 * @param connection the server end of the connection
+		 */
+		void onOpen(MessageChannel connection);
+
+		/**
+		 * A client sent a message
+		 * @param connection the server end of the connection
+		 * @param message the message
+		 */
+		void onMessage(MessageChannel connection, String message);
+
+		/**
+		 * A connection was closed by either end
+		 * @param connection the server end of the connection
+		 */
+		void onClose(MessageChannel connection);
+	}
+
+	private final Map<URI, MessageServer> mMessageServers = new ConcurrentHashMap<URI, MessageServer>();
+	private final Map<InetSocketAddress, PacketChannel.Receiver> mPacketServers = new ConcurrentHashMap<InetSocketAddress, PacketChannel.Receiver>();
+
+	/**
+	 * Binds a message server to a URI, replacing a previous one for new connections
+	 * @param uri the URI, e.g. the CII or TS URL the {@link Synchroniser} connects to
+	 * @param server the {@link MessageServer}
+	 */
+	public void bindMessageServer(URI uri, MessageServer server) {
+		mMessageServers.put(uri, server);
+	}
+
+	/**
+	 * Removes the message server of a URI, existing connections are kept
+	 * @param uri the URI
+	 */
+	public void unbindMessageServer(URI uri) {
+		mMessageServers.remove(uri);
+	}
+
+	/**
+	 * Binds a datagram server to an address. The server receives the datagrams of the clients together with a
+	 * channel back to the client that sent it.
+	 * @param address the address, e.g. the one of the WC URL the {@link Synchroniser} uses
+	 * @param server the receiver of the server
+	 */
+	public void bindPacketServer(InetSocketAddress address, PacketChannel.Receiver server) {
+		mPacketServers.put(address, server);
+	}
+
+	/**
+	 * Removes the datagram server of an address, datagrams to it are dropped from now on
+	 * @param address the address
+	 */
+	public void unbindPacketServer(InetSocketAddress address) {
+		mPacketServers.remove(address);
+	}
+
+	@Override
+	public MessageChannel create(URI uri, int connectTimeoutMillis, MessageChannel.Listener listener) {
+		return new Connection(uri, listener).mClientEnd;
+	}
+
+	@Override
+	public PacketChannel open(InetSocketAddress remoteAddress, PacketChannel.Receiver receiver) throws IOException {
+		return new ClientPacketChannel(remoteAddress, receiver);
+	}
+
+	/**
+	 * Both ends of a message connection
+	 */
+	private final class Connection {
+
+		private final URI mUri;
+		private final MessageChannel.Listener mListener;
+		private final AtomicBoolean mClosed = new AtomicBoolean(false);
+		private volatile boolean mOpen = false;
+		private volatile MessageServer mServer;
+
+		private final MessageChannel mClientEnd = new MessageChannel() {
+
+			@Override
+			public void connect() {
+				MessageServer server = mMessageServers.get(mUri);
+				if(server == null) {
+					Connection.this.close("Connection refused");
+					return;
+				}
+				mServer = server;
+				mOpen = true;
+				mListener.onOpen(this);
+				server.onOpen(mServerEnd);
+			}
+
+			@Override
+			public boolean isOpen() {
+				return mOpen;
+			}
+
+			@Override
+			public void send(String message) throws IOException {
+				if(!mOpen) throw new IOException("Not connected");
+				mServer.onMessage(mServerEnd, message);
+			}
+
+			@Override
+			public void ping() {
+				if(mOpen) {
+					mListener.onPong(this);
+				}
+			}
+
+			@Override
+			public void close() {
+				Connection.this.close("Closed by client");
+			}
+
+			@Override
+			public void abort() {
+				Connection.this.close("Aborted by client");
+			}
+		};
+
+		private final MessageChannel mServerEnd = new MessageChannel() {
+
+			@Override
+			public void connect() {
+				//nada, connected by the client
+			}
+
+			@Override
+			public boolean isOpen() {
+				return mOpen;
+			}
+
+			@Override
+			public void send(String message) throws IOException {
+				if(!mOpen) throw new IOException("Not connected");
+				mListener.onMessage(mClientEnd, message);
+			}
+
+			@Override
+			public void ping() {
+				//nada
+			}
+
+			@Override
+			public void close() {
+				Connection.this.close("Closed by server");
+			}
+
+			@Override
+			public void abort() {
+				Connection.this.close("Aborted by server");
+			}
+		};
+
+		Connection(URI uri, MessageChannel.Listener listener) {
+			mUri = uri;
+			mListener = listener;
+		}
+
+		private void close(String reason) {
+			if(!mClosed.compareAndSet(false, true)) return;
+			boolean wasOpen = mOpen;
+			mOpen = false;
+			mListener.onClose(mClientEnd, reason);
+			if(wasOpen) {
+				mServer.onClose(mServerEnd);
+			}
+		}
+	}
+
+	/**
+	 * The client end of a datagram link, its server end is the peer passed to the server
+	 */
+	private final class ClientPacketChannel implements PacketChannel {
+
+		private final InetSocketAddress mRemoteAddress;
+		private final PacketChannel.Receiver mReceiver;
+		private volatile boolean mOpen = true;
+
+		private final PacketChannel mServerEnd = new PacketChannel() {
+
+			@Override
+			public void send(ByteBuffer packet) throws IOException {
+				if(mOpen) {
+					deliver(mReceiver, ClientPacketChannel.this, packet);
+				} else {
+					packet.position(packet.limit());
+				}
+			}
+
+			@Override
+			public void close() {
+				//nada, the client end owns the link
+			}
+		};
+
+		ClientPacketChannel(InetSocketAddress remoteAddress, PacketChannel.Receiver receiver) {
+			mRemoteAddress = remoteAddress;
+			mReceiver = receiver;
+		}
+
+		@Override
+		public void send(ByteBuffer packet) throws IOException {
+			if(!mOpen) throw new IOException("Channel closed");
+			PacketChannel.Receiver server = mPacketServers.get(mRemoteAddress);
+			if(server != null) {
+				deliver(server, mServerEnd, packet);
+			} else {
+				packet.position(packet.limit());
+			}
+		}
+
+		@Override
+		public void close() {
+			mOpen = false;
+		}
+	}
+
+	/**
+	 * Passes the datagram itself to the receiver and consumes it like a socket write
+	 */
+	private static void deliver(PacketChannel.Receiver receiver, PacketChannel channel, ByteBuffer packet) {
+		int limit = packet.limit();
+		receiver.onReceive(channel, packet, SystemClock.elapsedRealtimeNanos());
+		packet.limit(limit);
+		packet.position(limit);
+	}
+}
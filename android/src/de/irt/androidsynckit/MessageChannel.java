@@ -0,0 +1,94 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+
+/**
+ * A single connection of a message based transport, such as a WebSocket, carrying the CII and TS protocols.
+ * <p>
+ * A channel is connected once and not reused: after {@link Listener#onClose(MessageChannel, String)} a new channel is
+ * created by the {@link MessageChannelFactory}. The callbacks may be made on any thread and must not block.
+ */
+public interface MessageChannel {
+
+	/**
+	 * Callbacks of a {@link MessageChannel}
+	 */
+	interface Listener {
+
+		/**
+		 * The connection is established, messages may be sent from now on
+		 * @param channel the channel
+		 */
+		void onOpen(MessageChannel channel);
+
+		/**
+		 * A text message was received
+		 * @param channel the channel
+		 * @param message the message
+		 */
+		void onMessage(MessageChannel channel, String message);
+
+		/**
+		 * The answer to a {@link MessageChannel#ping()} was received. It carries no data and only proves that the
+		 * peer is alive.
+		 * @param channel the channel
+		 */
+		void onPong(MessageChannel channel);
+
+		/**
+		 * The connection was closed, lost or could not be established. Called once per channel, also after
+		 * {@link MessageChannel#close()} and {@link MessageChannel#abort()}.
+		 * @param channel the channel
+		 * @param reason a description for the log
+		 */
+		void onClose(MessageChannel channel, String reason);
+	}
+
+	/**
+	 * Starts to establish the connection, the result is reported to the {@link Listener}
+	 */
+	void connect();
+
+	/**
+	 * Returns whether the connection is established and not closed
+	 * @return {@code true} if open
+	 */
+	boolean isOpen();
+
+	/**
+	 * Sends a text message
+	 * @param message the message
+	 * @throws IOException if the channel is not open or sending failed
+	 */
+	void send(String message) throws IOException;
+
+	/**
+	 * Sends a keep-alive request, answered by {@link Listener#onPong(MessageChannel)}. A transport without keep-alive
+	 * requests may do nothing, as long as it reports a lost connection by itself.
+	 */
+	void ping();
+
+	/**
+	 * Closes the connection gracefully
+	 */
+	void close();
+
+	/**
+	 * Drops the connection immediately without a closing handshake, e.g. because the peer stopped answering
+	 */
+	void abort();
+}
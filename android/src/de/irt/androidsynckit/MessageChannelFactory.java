@@ -0,0 +1,33 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.net.URI;
+
+/**
+ * Creates the {@link MessageChannel}s of the CII and TS connections, see
+ * {@link SynchroniserFactory#setMessageChannelFactory(MessageChannelFactory)}
+ */
+public interface MessageChannelFactory {
+
+	/**
+	 * Creates an unconnected channel
+	 * @param uri the URI of the server
+	 * @param connectTimeoutMillis the time after which a connection that is not established fails
+	 * @param listener the {@link MessageChannel.Listener} of the channel
+	 * @return the channel
+	 */
+	MessageChannel create(URI uri, int connectTimeoutMillis, MessageChannel.Listener listener);
+}
@@ -0,0 +1,224 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * The default {@link PacketChannelFactory}, opening non-blocking UDP sockets.
+ * <p>
+ * A single receive thread at an elevated priority multiplexes all sockets with a {@link Selector}. It reads each
+ * datagram and takes its receive timestamp right away, and passes it to the {@link PacketChannel.Receiver}, which
+ * must only hand it off. The receive thread priority and the socket options are taken from
+ * {@link SynchroniserFactory}. Socket options are applied to sockets opened afterwards.
+ */
+final class NioPacketChannelFactory implements PacketChannelFactory {
+
+	private static final String TAG = "NioPacketChannelFactory";
+
+	private static NioPacketChannelFactory sInstance = null;
+
+	private final class NioPacketChannel implements PacketChannel {
+
+		private final DatagramChannel mChannel;
+		private final PacketChannel.Receiver mReceiver;
+
+		private NioPacketChannel(DatagramChannel channel, PacketChannel.Receiver receiver) {
+			mChannel = channel;
+			mReceiver = receiver;
+		}
+
+		@Override
+		public void send(ByteBuffer packet) throws IOException {
+			mChannel.write(packet);
+		}
+
+		@Override
+		public void close() {
+			try {
+				mChannel.close();
+			} catch (IOException e) {
+				SyncLog.w(SyncLog.Category.WALLCLOCK, TAG, "Error closing socket", e);
+			}
+			mSelector.wakeup();
+		}
+	}
+
+	private final Selector mSelector;
+	private final Thread mReceiveThread;
+	private final List<NioPacketChannel> mPendingChannels = new ArrayList<NioPacketChannel>();
+	//Only used on the receive thread
+	private final ByteBuffer mReceiveBuffer = ByteBuffer.allocateDirect(WallclockCodec.MESSAGE_SIZE);
+
+	private volatile int mAppliedReceivePriority;
+
+	/**
+	 * Returns the process wide factory, starting its receive thread if necessary
+	 * @return the factory
+	 * @throws IOException if the selector cannot be opened
+	 */
+	static synchronized NioPacketChannelFactory getInstance() throws IOException {
+		if(sInstance == null) {
+			sInstance = new NioPacketChannelFactory();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Applies a changed receive thread priority to the running receive thread
+	 */
+	static synchronized void onReceivePriorityChanged() {
+		if(sInstance != null) {
+			sInstance.mSelector.wakeup();
+		}
+	}
+
+	private NioPacketChannelFactory() throws IOException {
+		mSelector = Selector.open();
+		mReceiveThread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				receiveLoop();
+			}
+		}, "Wallclock receive thread");
+		mReceiveThread.setDaemon(true);
+		mReceiveThread.start();
+	}
+
+	@Override
+	public PacketChannel open(InetSocketAddress remoteAddress, PacketChannel.Receiver receiver) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			applySocketOptions(channel.socket());
+			channel.configureBlocking(false);
+			channel.connect(remoteAddress);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		NioPacketChannel packetChannel = new NioPacketChannel(channel, receiver);
+		synchronized (mPendingChannels) {
+			mPendingChannels.add(packetChannel);
+		}
+		mSelector.wakeup();
+		return packetChannel;
+	}
+
+	private void registerPendingChannels() {
+		synchronized (mPendingChannels) {
+			for(NioPacketChannel channel : mPendingChannels) {
+				if(channel.mChannel.isOpen()) {
+					try {
+						channel.mChannel.register(mSelector, SelectionKey.OP_READ, channel);
+					} catch (IOException e) {
+						SyncLog.e(SyncLog.Category.WALLCLOCK, TAG, "Cannot register socket", e);
+					}
+				}
+			}
+			mPendingChannels.clear();
+		}
+	}
+
+	private void applyReceivePriority() {
+		int priority = SynchroniserFactory.getWallclockReceiveThreadPriority();
+		try {
+			Process.setThreadPriority(priority);
+		} catch (RuntimeException e) {
+			//IllegalArgumentException or SecurityException
+			SyncLog.w(SyncLog.Category.WALLCLOCK, TAG, "Cannot set Wallclock receive thread priority {}: {}", priority, e.getMessage());
+		}
+		mAppliedReceivePriority = priority;
+	}
+
+	private static void applySocketOptions(DatagramSocket socket) {
+		int trafficClass = SynchroniserFactory.getWallclockTrafficClass();
+		if(trafficClass != 0) {
+			try {
+				socket.setTrafficClass(trafficClass);
+			} catch (IOException e) {
+				SyncLog.w(SyncLog.Category.WALLCLOCK, TAG, "Cannot set traffic class {}: {}", trafficClass, e.getMessage());
+			}
+		}
+		int receiveBufferSize = SynchroniserFactory.getWallclockReceiveBufferSize();
+		if(receiveBufferSize > 0) {
+			try {
+				socket.setReceiveBufferSize(receiveBufferSize);
+			} catch (IOException e) {
+				SyncLog.w(SyncLog.Category.WALLCLOCK, TAG, "Cannot set receive buffer size {}: {}", receiveBufferSize, e.getMessage());
+			}
+		}
+	}
+
+	private void receiveLoop() {
+		applyReceivePriority();
+		while(true) {
+			try {
+				registerPendingChannels();
+				mSelector.select();
+				if(mAppliedReceivePriority != SynchroniserFactory.getWallclockReceiveThreadPriority()) {
+					applyReceivePriority();
+				}
+
+				Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid() || !key.isReadable()) continue;
+
+					readAll((NioPacketChannel) key.attachment());
+				}
+			} catch (Exception e) {
+				SyncLog.e(SyncLog.Category.WALLCLOCK, TAG, "Wallclock receive loop error", e);
+			}
+		}
+	}
+
+	private void readAll(NioPacketChannel channel) {
+		ByteBuffer buffer = mReceiveBuffer;
+		while(true) {
+			buffer.clear();
+			int read;
+			try {
+				read = channel.mChannel.read(buffer);
+			} catch (IOException e) {
+				//e.g. ICMP port unreachable on a connected socket, keep the channel registered
+				return;
+			}
+			long receiveTime = SystemClock.elapsedRealtimeNanos();
+			if(read <= 0) {
+				return;
+			}
+			buffer.flip();
+			try {
+				channel.mReceiver.onReceive(channel, buffer, receiveTime);
+			} catch (RuntimeException e) {
+				SyncLog.e(SyncLog.Category.WALLCLOCK, TAG, "Wallclock receiver failed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A datagram transport connected to a single remote address, such as a UDP socket, carrying the Wallclock protocol
+ */
+public interface PacketChannel {
+
+	/**
+	 * Receives the datagrams of a {@link PacketChannel}
+	 */
+	interface Receiver {
+
+		/**
+		 * Called for every received datagram. May be called on any thread and must not block.
+		 * @param channel the channel that received the datagram
+		 * @param packet the datagram between position and limit, only valid for the duration of the call
+		 * @param receiveTime the local time the datagram was received in nanoseconds ({@code SystemClock.elapsedRealtimeNanos()}),
+		 * taken as close to its arrival as possible
+		 */
+		void onReceive(PacketChannel channel, ByteBuffer packet, long receiveTime);
+	}
+
+	/**
+	 * Sends the datagram between the buffer's position and limit. May be called from any thread.
+	 * @param packet the datagram to send, its position is advanced to its limit
+	 * @throws IOException if sending failed
+	 */
+	void send(ByteBuffer packet) throws IOException;
+
+	/**
+	 * Closes the channel, no datagrams are received afterwards
+	 */
+	void close();
+}
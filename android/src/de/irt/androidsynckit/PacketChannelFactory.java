@@ -0,0 +1,34 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Opens the {@link PacketChannel}s of the Wallclock clients, see
+ * {@link SynchroniserFactory#setPacketChannelFactory(PacketChannelFactory)}
+ */
+public interface PacketChannelFactory {
+
+	/**
+	 * Opens a channel to the given address
+	 * @param remoteAddress the address of the WC server
+	 * @param receiver the receiver for datagrams from the WC server
+	 * @return the open channel
+	 * @throws IOException if the channel cannot be opened
+	 */
+	PacketChannel open(InetSocketAddress remoteAddress, PacketChannel.Receiver receiver) throws IOException;
+}
@@ -0,0 +1,270 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection to a CII or TS server that keeps itself connected, over the {@link MessageChannel}s of the
+ * {@link MessageChannelFactory} set in {@link SynchroniserFactory}.
+ * <p>
+ * While open, a ping is sent every {@link #PING_INTERVAL_MILLIS} and the connection is dropped if nothing, not even
+ * a pong, was received for {@link #DEAD_PEER_TIMEOUT_MILLIS}. A lost or failed connection is retried after a jittered
+ * exponential backoff starting at {@link #INITIAL_BACKOFF_MILLIS}, until {@link #close()} is called. Every new
+ * connection is reported with {@link Listener#onOpen(ReconnectingMessageChannel)}, so the user can replay its setup-data there.
+ */
+final class ReconnectingMessageChannel {
+
+	static final long PING_INTERVAL_MILLIS = 500;
+	static final long DEAD_PEER_TIMEOUT_MILLIS = 2000;
+	static final int CONNECT_TIMEOUT_MILLIS = 2000;
+	static final long INITIAL_BACKOFF_MILLIS = 100;
+	static final long MAX_BACKOFF_MILLIS = 10000;
+
+	/**
+	 * Callbacks of a {@link ReconnectingMessageChannel}, called on the threads of the channels
+	 */
+	interface Listener {
+
+		/**
+		 * A connection was opened, the first one or a reconnect
+		 * @param socket the socket
+		 */
+		void onOpen(ReconnectingMessageChannel socket);
+
+		/**
+		 * A message was received
+		 * @param socket the socket
+		 * @param message the received message
+		 */
+		void onMessage(ReconnectingMessageChannel socket, String message);
+
+		/**
+		 * The connection was lost or the first connection failed, a reconnect is scheduled. Called once until the
+		 * next {@link #onOpen(ReconnectingMessageChannel)}.
+		 * @param socket the socket
+		 */
+		void onDisconnected(ReconnectingMessageChannel socket);
+	}
+
+	private static final ScheduledExecutorService sScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "AndroidSyncKit connection keep-alive");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final String TAG;
+	private final URI mUri;
+	private final SyncLog.Category mCategory;
+	private final Listener mListener;
+	private final MessageChannelFactory mChannelFactory;
+	private final Random mRandom = new Random();
+
+	//Guarded by this
+	private MessageChannel mChannel;
+	private boolean mClosed = false;
+	private boolean mDisconnectReported = false;
+	private long mBackoffMillis = INITIAL_BACKOFF_MILLIS;
+	private ScheduledFuture<?> mKeepAlive;
+	private ScheduledFuture<?> mReconnect;
+
+	private volatile long mLastReceivedNanos;
+
+	/**
+	 * Creates an unconnected socket
+	 * @param uri the URI of the server
+	 * @param category the log category, also used to name the socket in the log
+	 * @param listener the {@link Listener}
+	 */
+	ReconnectingMessageChannel(URI uri, SyncLog.Category category, Listener listener) {
+		TAG = category + " connection";
+		mUri = uri;
+		mCategory = category;
+		mListener = listener;
+		mChannelFactory = SynchroniserFactory.getMessageChannelFactory();
+	}
+
+	/**
+	 * Opens the first connection
+	 */
+	synchronized void connect() {
+		if(mClosed || mChannel != null) return;
+		openConnection();
+	}
+
+	/**
+	 * Sends a text message if the connection is open
+	 * @param message the message
+	 * @return {@code true} if the message was sent
+	 */
+	boolean send(String message) {
+		MessageChannel channel;
+		synchronized(this) {
+			channel = mChannel;
+		}
+		if(channel == null || !channel.isOpen()) return false;
+		try {
+			channel.send(message);
+			return true;
+		} catch (IOException e) {
+			SyncLog.w(mCategory, TAG, "Send failed", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether the connection is currently open
+	 * @return {@code true} if open
+	 */
+	synchronized boolean isOpen() {
+		return mChannel != null && mChannel.isOpen();
+	}
+
+	/**
+	 * Closes the connection and stops reconnecting
+	 */
+	void close() {
+		MessageChannel channel;
+		synchronized(this) {
+			if(mClosed) return;
+			mClosed = true;
+			cancel(mKeepAlive);
+			cancel(mReconnect);
+			mKeepAlive = null;
+			mReconnect = null;
+			channel = mChannel;
+			mChannel = null;
+		}
+		if(channel != null) {
+			channel.close();
+		}
+	}
+
+	//Called with the lock held
+	private void openConnection() {
+		MessageChannel channel = mChannelFactory.create(mUri, CONNECT_TIMEOUT_MILLIS, new MessageChannel.Listener() {
+
+			@Override
+			public void onOpen(MessageChannel channel) {
+				SyncLog.d(mCategory, TAG, "onOpen");
+				if(!onChannelOpen(channel)) return;
+				mListener.onOpen(ReconnectingMessageChannel.this);
+			}
+
+			@Override
+			public void onMessage(MessageChannel channel, String message) {
+				//A replaced channel may still deliver, it must neither be reported nor keep the current one alive
+				if(isCurrent(channel)) {
+					mLastReceivedNanos = System.nanoTime();
+					mListener.onMessage(ReconnectingMessageChannel.this, message);
+				}
+			}
+
+			@Override
+			public void onPong(MessageChannel channel) {
+				if(isCurrent(channel)) {
+					mLastReceivedNanos = System.nanoTime();
+				}
+			}
+
+			@Override
+			public void onClose(MessageChannel channel, String reason) {
+				SyncLog.d(mCategory, TAG, "onClose {}", reason);
+				if(onChannelClosed(channel)) {
+					mListener.onDisconnected(ReconnectingMessageChannel.this);
+				}
+			}
+		});
+		mChannel = channel;
+		channel.connect();
+	}
+
+	private synchronized boolean isCurrent(MessageChannel channel) {
+		return channel == mChannel;
+	}
+
+	private synchronized boolean onChannelOpen(final MessageChannel channel) {
+		if(channel != mChannel) return false;
+		mBackoffMillis = INITIAL_BACKOFF_MILLIS;
+		mDisconnectReported = false;
+		mLastReceivedNanos = System.nanoTime();
+		mKeepAlive = sScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				keepAlive(channel);
+			}
+		}, PING_INTERVAL_MILLIS, PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Schedules the reconnect after a lost or failed connection
+	 * @return {@code true} if the disconnect has to be reported
+	 */
+	private synchronized boolean onChannelClosed(MessageChannel channel) {
+		if(channel != mChannel || mClosed) return false;
+		cancel(mKeepAlive);
+		mKeepAlive = null;
+
+		//Equal jitter: half of the backoff fixed, half random
+		long delay = mBackoffMillis / 2 + (long) (mRandom.nextDouble() * (mBackoffMillis / 2));
+		mBackoffMillis = Math.min(MAX_BACKOFF_MILLIS, mBackoffMillis * 2);
+		SyncLog.d(mCategory, TAG, "Reconnecting in {} ms", delay);
+		mReconnect = sScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized(ReconnectingMessageChannel.this) {
+					mReconnect = null;
+					if(!mClosed) {
+						openConnection();
+					}
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+
+		boolean report = !mDisconnectReported;
+		mDisconnectReported = true;
+		return report;
+	}
+
+	private void keepAlive(MessageChannel channel) {
+		if(!isCurrent(channel)) return;
+
+		long silentMillis = (System.nanoTime() - mLastReceivedNanos) / 1000000L;
+		if(silentMillis > DEAD_PEER_TIMEOUT_MILLIS) {
+			SyncLog.w(mCategory, TAG, "Nothing received for {} ms, dropping connection", silentMillis);
+			channel.abort();
+			return;
+		}
+
+		channel.ping();
+	}
+
+	private static void cancel(ScheduledFuture<?> future) {
+		if(future != null) {
+			future.cancel(false);
+		}
+	}
+}
@@ -0,0 +1,448 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Asynchronous logging of the sync kit with runtime selectable levels per {@link Category}.
+ * <p>
+ * Messages are templates in which each {@code {}} is replaced by the next argument. A disabled call returns after
+ * one volatile array read and allocates nothing, as long as the arguments are existing objects or primitives, which
+ * every level has {@code long} overloads for. Strings, boxed primitives, enums and URIs are formatted on the writer
+ * thread, any other argument is converted with {@code toString()} when the call is made, so a mutable argument is
+ * logged with the value it had at the call. Enabled records
+ * are copied into a preallocated lock-free ring and formatted and written to {@link Log} by a background thread, so
+ * logging does not delay the calling thread, e.g. while it takes timestamps. If the ring is full, records are dropped
+ * and the number of dropped records is logged later. As records are written later, each ends with the
+ * {@code SystemClock.elapsedRealtime()} in milliseconds at which it was logged, e.g. {@code @123456}.
+ * <p>
+ * The levels are those of {@link Log}. All categories log from {@link #INFO} by default.
+ */
+public final class SyncLog {
+
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+	/** Disables logging of a category */
+	public static final int OFF = 8;
+
+	/**
+	 * Subsystems that can be logged at different levels
+	 */
+	public enum Category {
+		/** Cordova plugin bridge */
+		PLUGIN,
+		/** CSS-CII client and timeline parsing */
+		CII,
+		/** CSS-TS client and timeline correlation */
+		TS,
+		/** CSS-WC client, clock model and I/O engine */
+		WALLCLOCK,
+		/** Warm start cache */
+		CACHE
+	}
+
+	/** Number of records the ring can hold, a power of two */
+	static final int RING_SIZE = 1024;
+
+	private static final AtomicIntegerArray sLevels = new AtomicIntegerArray(Category.values().length);
+
+	static {
+		setLevel(INFO);
+	}
+
+	private static final class Record {
+		int level;
+		String tag;
+		String message;
+		int argCount;
+		Object arg0;
+		Object arg1;
+		long num;
+		long num1;
+		//Position of num among the arguments, -1 if unused, num1 follows it if numCount is 2. The objects fill the other positions in order.
+		int numIndex;
+		int numCount;
+		Throwable throwable;
+		long time;
+	}
+
+	private static final Record[] sRecords = new Record[RING_SIZE];
+	//Vyukov bounded queue: a slot is free for position p if its sequence is p and holds the record of p if it is p + 1
+	private static final AtomicLongArray sSequences = new AtomicLongArray(RING_SIZE);
+	private static final AtomicLong sClaimed = new AtomicLong();
+	private static final AtomicLong sDropped = new AtomicLong();
+
+	private static volatile Thread sWriter = null;
+	//Set by the writer before it parks on an empty ring, a producer that sees it unparks the writer
+	private static volatile boolean sWriterParked = false;
+
+	static {
+		for(int i = 0; i < RING_SIZE; i++) {
+			sRecords[i] = new Record();
+			sSequences.set(i, i);
+		}
+	}
+
+	private SyncLog() {
+		//nada
+	}
+
+	/**
+	 * Sets the level of all categories
+	 * @param level the minimum level that is logged, e.g. {@link #DEBUG}, or {@link #OFF}
+	 */
+	public static void setLevel(int level) {
+		for(Category category : Category.values()) {
+			setLevel(category, level);
+		}
+	}
+
+	/**
+	 * Sets the level of a category
+	 * @param category the category
+	 * @param level the minimum level that is logged, e.g. {@link #DEBUG}, or {@link #OFF}
+	 */
+	public static void setLevel(Category category, int level) {
+		sLevels.set(category.ordinal(), level);
+	}
+
+	/**
+	 * Returns the level of a category
+	 * @param category the category
+	 * @return the minimum level that is logged
+	 */
+	public static int getLevel(Category category) {
+		return sLevels.get(category.ordinal());
+	}
+
+	/**
+	 * Returns whether records of the given level are logged, to guard call sites that need to build their arguments
+	 * @param level the level
+	 * @param category the category
+	 * @return {@code true} if the level is enabled
+	 */
+	public static boolean isEnabled(int level, Category category) {
+		return level >= sLevels.get(category.ordinal());
+	}
+
+	/**
+	 * Returns the number of records dropped because the ring was full
+	 * @return the number of dropped records
+	 */
+	public static long getDroppedCount() {
+		return sDropped.get();
+	}
+
+	static void d(Category category, String tag, String message) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 0, null, null, 0, -1, null);
+	}
+
+	static void d(Category category, String tag, String message, Object arg) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 1, arg, null, 0, -1, null);
+	}
+
+	static void d(Category category, String tag, String message, long num) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 1, null, null, num, 0, null);
+	}
+
+	static void d(Category category, String tag, String message, Object arg0, Object arg1) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 2, arg0, arg1, 0, -1, null);
+	}
+
+	static void d(Category category, String tag, String message, long num0, long num1) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 2, null, null, num0, num1, 0, 2, null);
+	}
+
+	static void d(Category category, String tag, String message, Object arg, long num) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 2, arg, null, num, 1, null);
+	}
+
+	static void d(Category category, String tag, String message, long num, Object arg) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 2, arg, null, num, 0, null);
+	}
+
+	static void d(Category category, String tag, String message, long num, Object arg0, Object arg1) {
+		if(isEnabled(DEBUG, category)) enqueue(DEBUG, tag, message, 3, arg0, arg1, num, 0, null);
+	}
+
+	static void i(Category category, String tag, String message) {
+		if(isEnabled(INFO, category)) enqueue(INFO, tag, message, 0, null, null, 0, -1, null);
+	}
+
+	static void i(Category category, String tag, String message, Object arg) {
+		if(isEnabled(INFO, category)) enqueue(INFO, tag, message, 1, arg, null, 0, -1, null);
+	}
+
+	static void i(Category category, String tag, String message, Object arg0, Object arg1) {
+		if(isEnabled(INFO, category)) enqueue(INFO, tag, message, 2, arg0, arg1, 0, -1, null);
+	}
+
+	static void i(Category category, String tag, String message, long num) {
+		if(isEnabled(INFO, category)) enqueue(INFO, tag, message, 1, null, null, num, 0, null);
+	}
+
+	static void i(Category category, String tag, String message, Object arg, long num) {
+		if(isEnabled(INFO, category)) enqueue(INFO, tag, message, 2, arg, null, num, 1, null);
+	}
+
+	static void i(Category category, String tag, String message, long num, Object arg) {
+		if(isEnabled(INFO, category)) enqueue(INFO, tag, message, 2, arg, null, num, 0, null);
+	}
+
+	static void i(Category category, String tag, String message, long num0, long num1) {
+		if(isEnabled(INFO, category)) enqueue(INFO, tag, message, 2, null, null, num0, num1, 0, 2, null);
+	}
+
+	static void w(Category category, String tag, String message) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 0, null, null, 0, -1, null);
+	}
+
+	static void w(Category category, String tag, String message, Object arg) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 1, arg, null, 0, -1, null);
+	}
+
+	static void w(Category category, String tag, String message, Object arg0, Object arg1) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 2, arg0, arg1, 0, -1, null);
+	}
+
+	static void w(Category category, String tag, String message, long num) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 1, null, null, num, 0, null);
+	}
+
+	static void w(Category category, String tag, String message, Object arg, long num) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 2, arg, null, num, 1, null);
+	}
+
+	static void w(Category category, String tag, String message, long num, Object arg) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 2, arg, null, num, 0, null);
+	}
+
+	static void w(Category category, String tag, String message, long num0, long num1) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 2, null, null, num0, num1, 0, 2, null);
+	}
+
+	static void w(Category category, String tag, String message, Throwable throwable) {
+		if(isEnabled(WARN, category)) enqueue(WARN, tag, message, 0, null, null, 0, -1, throwable);
+	}
+
+	static void e(Category category, String tag, String message) {
+		if(isEnabled(ERROR, category)) enqueue(ERROR, tag, message, 0, null, null, 0, -1, null);
+	}
+
+	static void e(Category category, String tag, String message, Object arg) {
+		if(isEnabled(ERROR, category)) enqueue(ERROR, tag, message, 1, arg, null, 0, -1, null);
+	}
+
+	static void e(Category category, String tag, String message, long num) {
+		if(isEnabled(ERROR, category)) enqueue(ERROR, tag, message, 1, null, null, num, 0, null);
+	}
+
+	static void e(Category category, String tag, String message, Object arg, long num) {
+		if(isEnabled(ERROR, category)) enqueue(ERROR, tag, message, 2, arg, null, num, 1, null);
+	}
+
+	static void e(Category category, String tag, String message, long num0, long num1) {
+		if(isEnabled(ERROR, category)) enqueue(ERROR, tag, message, 2, null, null, num0, num1, 0, 2, null);
+	}
+
+	static void e(Category category, String tag, String message, Throwable throwable) {
+		if(isEnabled(ERROR, category)) enqueue(ERROR, tag, message, 0, null, null, 0, -1, throwable);
+	}
+
+	static void e(Category category, String tag, String message, Object arg, Throwable throwable) {
+		if(isEnabled(ERROR, category)) enqueue(ERROR, tag, message, 1, arg, null, 0, -1, throwable);
+	}
+
+	private static void enqueue(int level, String tag, String message, int argCount, Object arg0, Object arg1, long num, int numIndex, Throwable throwable) {
+		enqueue(level, tag, message, argCount, arg0, arg1, num, 0, numIndex, numIndex >= 0 ? 1 : 0, throwable);
+	}
+
+	private static void enqueue(int level, String tag, String message, int argCount, Object arg0, Object arg1, long num, long num1, int numIndex,
+			int numCount, Throwable throwable) {
+		long time = SystemClock.elapsedRealtimeNanos();
+		arg0 = snapshot(arg0);
+		arg1 = snapshot(arg1);
+		long position;
+		int slot;
+		while(true) {
+			position = sClaimed.get();
+			slot = (int) (position & (RING_SIZE - 1));
+			long sequence = sSequences.get(slot);
+			if(sequence == position) {
+				if(sClaimed.compareAndSet(position, position + 1)) {
+					break;
+				}
+			} else if(sequence < position) {
+				//The writer did not free the slot yet
+				sDropped.incrementAndGet();
+				return;
+			}
+			//Otherwise another thread claimed the position, retry
+		}
+
+		Record record = sRecords[slot];
+		record.level = level;
+		record.tag = tag;
+		record.message = message;
+		record.argCount = argCount;
+		record.arg0 = arg0;
+		record.arg1 = arg1;
+		record.num = num;
+		record.num1 = num1;
+		record.numIndex = numIndex;
+		record.numCount = numCount;
+		record.throwable = throwable;
+		record.time = time;
+		//A full store, so that it is ordered before the read of sWriterParked, otherwise the writer could miss it
+		sSequences.set(slot, position + 1);
+
+		Thread writer = sWriter;
+		if(writer == null) {
+			startWriter();
+		} else if(sWriterParked) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Returns arguments that cannot change as they are and the text of all others, so the writer thread logs the value
+	 * at the time of the call
+	 */
+	private static Object snapshot(Object arg) {
+		if(arg == null || arg instanceof String || arg instanceof Long || arg instanceof Integer || arg instanceof Short
+				|| arg instanceof Byte || arg instanceof Double || arg instanceof Float || arg instanceof Boolean
+				|| arg instanceof Character || arg instanceof Enum || arg instanceof URI) {
+			return arg;
+		}
+		try {
+			return arg.toString();
+		} catch(RuntimeException e) {
+			//Never let a broken argument fail the caller
+			return "<" + e + ">";
+		}
+	}
+
+	private static synchronized void startWriter() {
+		if(sWriter != null) return;
+
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "AndroidSyncKit log writer");
+		writer.setDaemon(true);
+		writer.setPriority(Thread.MIN_PRIORITY);
+		writer.start();
+		sWriter = writer;
+	}
+
+	private static void writeLoop() {
+		StringBuilder builder = new StringBuilder(256);
+		long position = 0;
+		long reportedDropped = 0;
+		while(true) {
+			int slot = (int) (position & (RING_SIZE - 1));
+			if(sSequences.get(slot) != position + 1) {
+				//Records are only dropped while the ring is full, so they are reported once it has been written
+				long dropped = sDropped.get();
+				if(dropped != reportedDropped) {
+					Log.w("SyncLog", (dropped - reportedDropped) + " log records dropped");
+					reportedDropped = dropped;
+				}
+				//Park without a timeout until a producer unparks, checking again after publishing the flag
+				sWriterParked = true;
+				if(sSequences.get(slot) != position + 1) {
+					LockSupport.park();
+				}
+				sWriterParked = false;
+				continue;
+			}
+
+			Record record = sRecords[slot];
+			int level = record.level;
+			String tag = record.tag;
+			builder.setLength(0);
+			Throwable throwable = record.throwable;
+			try {
+				format(builder, record);
+			} catch(RuntimeException e) {
+				//An argument failed to convert itself, keep what was formatted and free the slot anyway
+				builder.append(" <").append(e).append('>');
+			}
+			record.tag = null;
+			record.message = null;
+			record.arg0 = null;
+			record.arg1 = null;
+			record.throwable = null;
+			sSequences.lazySet(slot, position + RING_SIZE);
+			position++;
+
+			try {
+				if(throwable != null) {
+					builder.append('\n').append(Log.getStackTraceString(throwable));
+				}
+				Log.println(level, tag, builder.toString());
+			} catch(RuntimeException e) {
+				//Never let a broken record stop the writer
+			}
+		}
+	}
+
+	private static void format(StringBuilder builder, Record record) {
+		String message = record.message;
+		int argCount = record.argCount;
+		int argIndex = 0;
+		int start = 0;
+		while(argIndex < argCount) {
+			int placeholder = message.indexOf("{}", start);
+			if(placeholder < 0) break;
+			builder.append(message, start, placeholder);
+			appendArg(builder, record, argIndex++);
+			start = placeholder + 2;
+		}
+		builder.append(message, start, message.length());
+		//Arguments without placeholder are appended
+		while(argIndex < argCount) {
+			builder.append(' ');
+			appendArg(builder, record, argIndex++);
+		}
+		builder.append(" @").append(record.time / 1000000L);
+	}
+
+	private static void appendArg(StringBuilder builder, Record record, int index) {
+		if(index == record.numIndex) {
+			builder.append(record.num);
+			return;
+		}
+		if(record.numCount == 2 && index == record.numIndex + 1) {
+			builder.append(record.num1);
+			return;
+		}
+		int objectIndex = record.numIndex >= 0 && index > record.numIndex ? index - record.numCount : index;
+		builder.append(objectIndex == 0 ? record.arg0 : record.arg1);
+	}
+}
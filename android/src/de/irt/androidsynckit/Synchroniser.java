@@ -20,17 +20,18 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.drafts.Draft_17;
-import org.java_websocket.handshake.ServerHandshake;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.util.Log;
+import android.os.SystemClock;
 
+/**
+ * Synchronises with the timeline of a TV via DVB-CSS.
+ * <p>
+ * All state is changed on the event loop of the Synchroniser: the public methods that change state queue a command
+ * and return, messages from the CII and TS servers and Wallclock updates are queued as events, and all callbacks
+ * are made from the loop thread in that order. The getters may be called from any thread.
+ */
 public class Synchroniser {
 
 	private final String TAG;
@@ -39,38 +40,69 @@ public class Synchroniser {
 	private final String mSyncUrl;
 	private final String mSessionId;
 
-	//Obtained values
-	private String mContentId;
-	private List<Timeline> mTimelines;
-	private ContentPresentationStatus mPresentationStatus = ContentPresentationStatus.UNKNOWN;
-	private ContentIdStatus mContentIdStatus = ContentIdStatus.UNKNOWN;
-	private String mTimelineSyncUrlString;
-	private String mWallClockUrlString;
+	//Obtained values, written on the event loop only
+	private volatile String mContentId;
+	private final TimelineRegistry mTimelines = new TimelineRegistry();
+	private volatile ContentPresentationStatus mPresentationStatus = ContentPresentationStatus.UNKNOWN;
+	private volatile ContentIdStatus mContentIdStatus = ContentIdStatus.UNKNOWN;
+	private volatile String mTimelineSyncUrlString;
+	private volatile String mWallClockUrlString;
 	private URI mTimelineSyncUrl;
 	private URI mWallClockUrl;
+	private final List<URI> mAlternativeWallClockUrls = new ArrayList<URI>();
 	private int mProtoMajorVersion;
 	private int mProtoMinorVersion;
 
-	private Wallclock mWallclock;
+	private final SynchroniserEventLoop mEventLoop;
+
+	private volatile Wallclock mWallclock;
+	private Runnable mWallclockListener;
+	private int mWallclockRequestedUpdateInterval = 0;
 	private boolean mWallclockSynced = false;
 
+	//CII WS
+	private ReconnectingMessageChannel mCiiSocket;
+	private SynchroniserContentCallback mContentCallback;
+
 	//Sync WS
-	private WebSocketClient mWsSyncClient = null;
-	private Timeline mSynchronisedTimeline;
-	private float mCurrentSpeedMulti = -1;
-	private long mCurrentRemoteWc = -1;
-	private long mCurrentRemoteContentTime = -1;
-	private boolean mIsContentAvailable = false;
+	private ReconnectingMessageChannel mTsSocket = null;
+	private SynchroniserSynchronisationCallback mSyncCallback;
+	private volatile Timeline mSynchronisedTimeline;
+	//Replaced as a whole on every Control Timestamp, null while the timeline is unavailable
+	private volatile TimelineCorrelation mCorrelation;
+	private final ControlTimestampParser mControlTimestampParser = new ControlTimestampParser();
+	//Control Timestamps within this tolerance of the last reported correlation are not reported again
+	static final long PROPERTIES_CHANGED_TOLERANCE_NANOS = 1000000L;
+	private boolean mPropertiesReported = false;
+	private TimelineCorrelation mReportedCorrelation;
+
+	//AptEptLpt reporting
+	/** Marks an unbounded earliest presentation time or an unknown actual presentation time */
+	public static final long PRESENTATION_TIME_UNBOUNDED_EARLIEST = Long.MIN_VALUE;
+	/** Marks an unbounded latest presentation time */
+	public static final long PRESENTATION_TIME_UNBOUNDED_LATEST = Long.MAX_VALUE;
+	static final long APT_EPT_LPT_MIN_INTERVAL_MILLIS = 250;
+	static final long APT_EPT_LPT_TOLERANCE_NANOS = 1000000L;
+	private final Object mReportedLock = new Object();
+	//Written by any thread under mReportedLock, at most one send command is queued at a time
+	private final PresentationTimestamps mReported = new PresentationTimestamps();
+	private boolean mSendQueued = false;
+	//Event loop only
+	private final PresentationTimestamps mToSend = new PresentationTimestamps();
+	private final PresentationTimestamps mLastSent = new PresentationTimestamps();
+	private long mLastSentAt;
+	private final Runnable mSendPresentationTimestamps = new Runnable() {
+		@Override
+		public void run() {
+			sendPresentationTimestamps();
+		}
+	};
 
 	//Config
-	private int mSetWallclockUpdateInterval = 0;
-
-	/*
-	HandlerThread mHandlerThread;
-	Handler mHandler;
-	*/
-
-	private WebSocketClient mSyncWsClient;
+	private volatile int mSetWallclockUpdateInterval = 0;
+	//null unless the content time is smoothed
+	private volatile ContentTimeSlew mSlew = null;
+	private volatile boolean mReportAllControlTimestamps = false;
 
 	protected Synchroniser(String syncUrl, String sessionId) {
 		mSyncUrl = syncUrl;
@@ -82,13 +114,51 @@ public class Synchroniser {
 
 		TAG = "Synchroniser: " + mSessionId;
 
-		/*
-		mHandlerThread = new HandlerThread("irt:ipstreamplayer", android.os.Process.THREAD_PRIORITY_AUDIO);
-		mHandlerThread.start();
-		mHandler = new Handler(mHandlerThread.getLooper());
-		*/
+		mEventLoop = new SynchroniserEventLoop("AndroidSyncKit " + TAG, new SynchroniserEventLoop.Handler() {
+
+			@Override
+			public void onCiiMessage(JSONObject message, String rawMessage) {
+				if(message != null) {
+					handleCiiMessage(message, mContentCallback);
+				} else {
+					handleInvalidCiiMessage(rawMessage, mContentCallback);
+				}
+			}
+
+			@Override
+			public void onTsOpen(Object connection) {
+				if(connection == mTsSocket) {
+					String setupdata = generateSetupDataJson().toString();
+					SyncLog.d(SyncLog.Category.TS, TAG, "TS Websocket sending setup Data: {}", setupdata);
+					mTsSocket.send(setupdata);
 
-		mTimelines = new ArrayList<Timeline>();
+					mSyncCallback.synchronisedTimelineAvailable();
+
+					//The new connection has not seen the last report yet
+					mLastSent.valid = false;
+					queuePresentationTimestamps();
+				}
+			}
+
+			@Override
+			public void onTsMessage(Object connection, String message) {
+				if(connection == mTsSocket) {
+					handleControlTimestamp(message, mSyncCallback);
+				}
+			}
+
+			@Override
+			public void onTsDisconnected(Object connection) {
+				if(connection == mTsSocket) {
+					handleTsDisconnected(mSyncCallback);
+				}
+			}
+
+			@Override
+			public void onWallclockUpdated() {
+				handleWallclockUpdated();
+			}
+		});
 	}
 
 	/**
@@ -109,10 +179,28 @@ public class Synchroniser {
 
 	/**
 	 * Returns the available {@link Timeline}s or an empty list.
-	 * @return the available {@link Timeline}s or an empty list.
+	 * @return an unmodifiable list of the available {@link Timeline}s or an empty list.
 	 */
 	public List<Timeline> getTimelines() {
-		return mTimelines;
+		return mTimelines.getTimelines();
+	}
+
+	/**
+	 * Returns the available {@link Timeline} with the given ID
+	 * @param timelineId the ID of the {@link Timeline}
+	 * @return the {@link Timeline} or {@code null} if there is no such {@link Timeline}
+	 */
+	public Timeline getTimeline(int timelineId) {
+		return mTimelines.get(timelineId);
+	}
+
+	/**
+	 * Returns the available {@link Timeline} with the given timeline selector
+	 * @param timelineSelector the timeline selector
+	 * @return the {@link Timeline} or {@code null} if there is no such {@link Timeline}
+	 */
+	public Timeline getTimeline(String timelineSelector) {
+		return mTimelines.get(timelineSelector);
 	}
 
 	/**
@@ -139,26 +227,81 @@ public class Synchroniser {
 		return mTimelineSyncUrlString;
 	}
 
-	public void setWallclockUrl(String urlString) throws URISyntaxException {
-		if(!urlString.isEmpty()) {
-			mWallClockUrl = new URI(urlString);
-			mWallClockUrlString = urlString;
-		} else {
-			mWallClockUrl = null;
-			mWallClockUrlString = null;
-		}
+	/**
+	 * Overrides the WC server URL announced in CII. Takes effect on the next {@link #startSynchronisation}.
+	 * @param urlString the URL or an empty string for none
+	 * @throws URISyntaxException if the URL is invalid
+	 */
+	public void setWallclockUrl(final String urlString) throws URISyntaxException {
+		final URI uri = urlString.isEmpty() ? null : new URI(urlString);
+		mEventLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				applyWallclockUrl(uri, urlString);
+			}
+		});
 	}
 
-	public void setTimelineSyncUrl(String urlString) throws URISyntaxException {
-		if(!urlString.isEmpty()) {
-			mTimelineSyncUrl = new URI(urlString);
-			mTimelineSyncUrlString = urlString;
-		} else {
-			mTimelineSyncUrl = null;
-			mTimelineSyncUrlString = null;
-		}
+	private void applyWallclockUrl(URI uri, String urlString) {
+		mWallClockUrl = uri;
+		mWallClockUrlString = uri != null ? urlString : null;
+	}
+
+	/**
+	 * Adds an alternative WC server that is probed in addition to the one announced in CII. The Wallclock follows
+	 * whichever server currently gives the most precise estimate and fails over when a server stops answering.
+	 * All servers must serve the same Wallclock. Other Synchronisers sharing the Wallclock are not affected.
+	 * @param urlString the URL of the alternative WC server
+	 * @throws URISyntaxException if the URL is invalid
+	 */
+	public void addAlternativeWallclockUrl(String urlString) throws URISyntaxException {
+		final URI uri = new URI(urlString);
+		mEventLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				mAlternativeWallClockUrls.add(uri);
+				if(mWallclock != null) {
+					//A shared Wallclock is not extended for the other Synchronisers, this one may get its own
+					Wallclock previous = mWallclock;
+					Wallclock wallclock = WallclockPool.addAlternativeServer(previous, uri, mWallclockRequestedUpdateInterval);
+					if(wallclock != previous) {
+						previous.removeUpdateListener(mWallclockListener);
+						mWallclock = wallclock;
+						wallclock.addUpdateListener(mWallclockListener);
+						if(wallclock.isCurrentRemoteWallclockValid()) {
+							handleWallclockUpdated();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Overrides the TS server URL announced in CII. Takes effect on the next {@link #startSynchronisation}.
+	 * @param urlString the URL or an empty string for none
+	 * @throws URISyntaxException if the URL is invalid
+	 */
+	public void setTimelineSyncUrl(final String urlString) throws URISyntaxException {
+		final URI uri = urlString.isEmpty() ? null : new URI(urlString);
+		mEventLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				applyTimelineSyncUrl(uri, urlString);
+			}
+		});
+	}
+
+	private void applyTimelineSyncUrl(URI uri, String urlString) {
+		mTimelineSyncUrl = uri;
+		mTimelineSyncUrlString = uri != null ? urlString : null;
 	}
 
+	/**
+	 * Returns the {@link Wallclock} used for synchronisation. The Wallclock may be shared with other
+	 * {@link Synchroniser}s and must not be stopped or destroyed directly.
+	 * @return the {@link Wallclock} or {@code null} if synchronisation is not started
+	 */
 	public Wallclock getWallclock() {
 		return mWallclock;
 	}
@@ -167,277 +310,712 @@ public class Synchroniser {
 		mSetWallclockUpdateInterval = wallclockUpdateInterval;
 	}
 
+	/**
+	 * Sets whether every Control Timestamp is reported to
+	 * {@link SynchroniserSynchronisationCallback#synchronisationPropertiesChanged}. By default a Control Timestamp that
+	 * is within {@value #PROPERTIES_CHANGED_TOLERANCE_NANOS} ns of the last reported one at the same speed is not
+	 * reported again, while the content time still follows it.
+	 * @param reportAll {@code true} to report every Control Timestamp
+	 */
+	public void setReportAllControlTimestamps(boolean reportAll) {
+		mReportAllControlTimestamps = reportAll;
+	}
+
 	public Timeline getSynchronisedTimeline() {
 		return mSynchronisedTimeline;
 	}
 
 	/**
-	 * Starts to obtain all needed information to synchronise content
-	 * @param callback the {@link SynchroniserCallback} to notify about the status
+	 * Starts to obtain all needed information to synchronise content. The request is queued on the event loop.
+	 * @param callback the {@link SynchroniserContentCallback} to notify about the status
 	 */
 	public void obtainSynchronisationInformation(final SynchroniserContentCallback callback) {
-		if(mSyncWsClient == null) {
-			try {
-				URI syncUri = new URI(mSyncUrl);
+		mEventLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				mContentCallback = callback;
+				connectCii();
+			}
+		});
+	}
 
-				mTimelines.clear();
+	private void connectCii() {
+		if(mCiiSocket == null) {
+			URI syncUri;
+			try {
+				syncUri = new URI(mSyncUrl);
+			} catch(URISyntaxException uriExc) {
+				SyncLog.e(SyncLog.Category.CII, TAG, "Cannot create URI from String: {}", mSyncUrl);
 
-				mSyncWsClient = new WebSocketClient(syncUri, new Draft_17()) {
+				if(mContentCallback != null) {
+					mContentCallback.onError("URL Parser Error");
+				}
+				return;
+			}
 
-					@Override
-					public void onOpen(ServerHandshake handshakedata) {
-						if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "CII Websocket onOpen Code: " + handshakedata.getHttpStatus());
-					}
+			mTimelines.clear();
 
-					@Override
-					public void onMessage(String message) {
-						Log.d(TAG, "CII Websocket onMessage: " + message);
-
-						try {
-							JSONObject jsonObj = new JSONObject(message);
-
-							if(callback != null) {
-								callback.onSyncMessage(jsonObj);
-							}
-
-							String presStat = jsonObj.optString("presentationStatus", "unknown");
-							if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "PresentationStatus: " + presStat);
-
-							//this may happen on some terminals. just for sanity
-							if(presStat.equalsIgnoreCase("null")) {
-								presStat = "unknown";
-							}
-							mPresentationStatus = ContentPresentationStatus.getStatusByString(presStat);
-
-							String contIdStat = jsonObj.optString("contentIdStatus", "unknown");
-							//this may happen on some terminals. just for sanity
-							if(contIdStat.equalsIgnoreCase("null")) {
-								contIdStat = "unknown";
-							}
-							mContentIdStatus = ContentIdStatus.getContentIdStatusByString(contIdStat);
-
-							setTimelineSyncUrl(jsonObj.optString("tsUrl"));
-
-							setWallclockUrl(jsonObj.optString("wcUrl"));
-
-							String[] protVersionStringArr = jsonObj.optString("protocolVersion", "0.0").split("[.]");
-							if(protVersionStringArr.length > 1) {
-								mProtoMajorVersion = Integer.parseInt(protVersionStringArr[0]);
-								mProtoMinorVersion = Integer.parseInt(protVersionStringArr[1]);
-							}
-
-							String contId = jsonObj.optString("contentId");
-							if(!contId.isEmpty()) {
-								mContentId = contId;
-
-								if(callback != null) {
-									callback.onContentIdChanged(mContentId);
-								}
-							}
-
-							JSONArray timelineArr = jsonObj.optJSONArray("timelines");
-							if(timelineArr != null) {
-								for(int i = 0; i < timelineArr.length(); i++) {
-									JSONObject timelineObj = timelineArr.getJSONObject(i);
-
-									Timeline tl = new Timeline(timelineObj);
-									mTimelines.add(tl);
-								}
-							}
-
-							if(!mTimelines.isEmpty()) {
-								if(callback != null) {
-									callback.onTimelinesAvailable();
-								}
-							}
-
-						} catch (JSONException e) {
-							if(SynchroniserFactory.LOG_DEBUG)Log.e(TAG, "Error parsing message to JSON : " + message);
-
-							if(callback != null) {
-								callback.onError("Error parsing CII");
-							}
-						} catch (URISyntaxException e) {
-							if(SynchroniserFactory.LOG_DEBUG)Log.e(TAG, "Error parsing TS URI: " + message);
-
-							if(callback != null) {
-								callback.onError("Error parsing CSS TS URL");
-							}
-						}
-					}
+			//Reconnects by itself, the TV sends its complete CII state on every new connection
+			mCiiSocket = new ReconnectingMessageChannel(syncUri, SyncLog.Category.CII, new ReconnectingMessageChannel.Listener() {
 
-					@Override
-					public void onError(Exception ex) {
-						Log.d(TAG, "CII Websocket onError!");
-						ex.printStackTrace();
-					}
-
-					@Override
-					public void onClose(int code, String reason, boolean remote) {
-						Log.d(TAG, "CII Websocket onClose Code: " + code + " Reason: " + reason + " fromRemote: " + remote);
-					}
-				};
-			} catch(URISyntaxException uriExc) {
-				if(SynchroniserFactory.LOG_DEBUG)Log.e(TAG, "Cannot create URI from String: " + mSyncUrl);
+				@Override
+				public void onOpen(ReconnectingMessageChannel socket) {
+					//nada
+				}
 
-				if(callback != null) {
-					callback.onError("URL Parser Error");
+				@Override
+				public void onMessage(ReconnectingMessageChannel socket, String message) {
+					mEventLoop.postCiiMessage(message);
 				}
-			}
 
-			mSyncWsClient.connect();
+				@Override
+				public void onDisconnected(ReconnectingMessageChannel socket) {
+					SyncLog.i(SyncLog.Category.CII, TAG, "CII connection lost, reconnecting");
+				}
+			});
+			mCiiSocket.connect();
 		}
 	}
 
 	/**
-	 * Starts synchronisation with the given {@link Timeline}
+	 * Starts synchronisation with the given {@link Timeline}. The request is queued on the event loop.
 	 * @param syncTimeline the {@link Timeline} to synchronise with
+	 * @param syncCallback the {@link SynchroniserSynchronisationCallback} to notify, called on the event loop
 	 */
-	public void startSynchronisation(Timeline syncTimeline, final SynchroniserSynchronisationCallback syncCallback) {
+	public void startSynchronisation(final Timeline syncTimeline, final SynchroniserSynchronisationCallback syncCallback) {
 		if(syncTimeline != null) {
+			mEventLoop.post(new Runnable() {
+				@Override
+				public void run() {
+					startSynchronisationOnLoop(syncTimeline, syncCallback);
+				}
+			});
+		}
+	}
 
-			mSynchronisedTimeline = syncTimeline;
+	private void startSynchronisationOnLoop(Timeline syncTimeline, SynchroniserSynchronisationCallback syncCallback) {
+		closeTsSocket();
+		mSynchronisedTimeline = syncTimeline;
+		mSyncCallback = syncCallback;
+		mCorrelation = null;
+		mPropertiesReported = false;
+		resetSlew();
+
+		releaseWallclock();
+
+		mWallclockSynced = false;
+		mWallclockListener = new Runnable() {
+			@Override
+			public void run() {
+				mEventLoop.postWallclockUpdated();
+			}
+		};
+		//Wallclocks are shared between Synchronisers using the same WC server
+		mWallclockRequestedUpdateInterval = Math.max(0, mSetWallclockUpdateInterval);
+		mWallclock = WallclockPool.acquire(mWallClockUrl, mAlternativeWallClockUrls, mWallclockRequestedUpdateInterval);
+		mWallclock.addUpdateListener(mWallclockListener);
+		if (mWallclock.isCurrentRemoteWallclockValid()) {
+			//Already synced by another Synchroniser or seeded from the warm start cache
+			handleWallclockUpdated();
+		}
+
+		seedCorrelationFromWarmStartCache(syncCallback);
+
+		if(mTimelineSyncUrl != null) {
+			//Reconnects by itself and replays the setup-data, the last correlation is kept meanwhile
+			mTsSocket = new ReconnectingMessageChannel(mTimelineSyncUrl, SyncLog.Category.TS, new ReconnectingMessageChannel.Listener() {
 
-			mWallclockSynced = false;
-			mWallclock = new Wallclock(mWallClockUrl, new Runnable() {
 				@Override
-				public void run() {
-					if (!mWallclockSynced) {
-						mWallclockSynced = true;
-						if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "Wallclock synced");
-						syncCallback.wallclockSynced();
-					}
-					syncCallback.wallclockUpdated();
+				public void onOpen(ReconnectingMessageChannel socket) {
+					mEventLoop.postTsOpen(socket);
+				}
+
+				@Override
+				public void onMessage(ReconnectingMessageChannel socket, String message) {
+					mEventLoop.postTsMessage(socket, message);
+				}
+
+				@Override
+				public void onDisconnected(ReconnectingMessageChannel socket) {
+					mEventLoop.postTsDisconnected(socket);
 				}
 			});
-			if (mSetWallclockUpdateInterval > 0) {
-				mWallclock.setUpdatePeriod(mSetWallclockUpdateInterval);
+			mTsSocket.connect();
+		}
+	}
+
+	/**
+	 * Handles a CII message. CII messages only carry the changed properties, so omitted properties keep their
+	 * values and the callback is only notified about properties that actually changed.
+	 * @param message the received CII message
+	 * @param callback the {@link SynchroniserContentCallback} to notify or {@code null}
+	 */
+	void handleCiiMessage(String message, SynchroniserContentCallback callback) {
+		JSONObject jsonObj;
+		try {
+			jsonObj = new JSONObject(message);
+		} catch (JSONException e) {
+			handleInvalidCiiMessage(message, callback);
+			return;
+		}
+		handleCiiMessage(jsonObj, callback);
+	}
+
+	private void handleInvalidCiiMessage(String message, SynchroniserContentCallback callback) {
+		SyncLog.e(SyncLog.Category.CII, TAG, "Error parsing message to JSON : {}", message);
+
+		if(callback != null) {
+			callback.onError("Error parsing CII");
+		}
+	}
+
+	/**
+	 * Handles a parsed CII message
+	 * @param jsonObj the CII message, possibly merged from several received ones
+	 * @param callback the {@link SynchroniserContentCallback} to notify or {@code null}
+	 */
+	private void handleCiiMessage(JSONObject jsonObj, SynchroniserContentCallback callback) {
+		SyncLog.d(SyncLog.Category.CII, TAG, "CII Websocket onMessage: {}", jsonObj);
+
+		try {
+			boolean changed = false;
+
+			if(jsonObj.has("presentationStatus")) {
+				//null may happen on some terminals. just for sanity
+				String presStat = jsonObj.isNull("presentationStatus") ? "unknown" : jsonObj.getString("presentationStatus");
+				SyncLog.d(SyncLog.Category.CII, TAG, "PresentationStatus: {}", presStat);
+				ContentPresentationStatus presentationStatus = ContentPresentationStatus.getStatusByString(presStat);
+				if(presentationStatus != mPresentationStatus) {
+					mPresentationStatus = presentationStatus;
+					changed = true;
+				}
 			}
-			mWallclock.start();
 
-			if(mTimelineSyncUrl != null) {
-				mWsSyncClient = new WebSocketClient(mTimelineSyncUrl, new Draft_17()) {
+			if(jsonObj.has("contentIdStatus")) {
+				String contIdStat = jsonObj.isNull("contentIdStatus") ? "unknown" : jsonObj.getString("contentIdStatus");
+				ContentIdStatus contentIdStatus = ContentIdStatus.getContentIdStatusByString(contIdStat);
+				if(contentIdStatus != mContentIdStatus) {
+					mContentIdStatus = contentIdStatus;
+					changed = true;
+				}
+			}
 
-					@Override
-					public void onOpen(ServerHandshake handshakedata) {
-						if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "TS Websocket onOpen!");
+			if(jsonObj.has("tsUrl")) {
+				String tsUrl = jsonObj.isNull("tsUrl") ? "" : jsonObj.getString("tsUrl");
+				if(!tsUrl.equals(mTimelineSyncUrlString == null ? "" : mTimelineSyncUrlString)) {
+					applyTimelineSyncUrl(tsUrl.isEmpty() ? null : new URI(tsUrl), tsUrl);
+					changed = true;
+				}
+			}
 
-						String setupdata = generateSetupDataJson().toString();
-						if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "TS Websocket sending setup Data: " + setupdata);
-						mWsSyncClient.send(generateSetupDataJson().toString());
+			if(jsonObj.has("wcUrl")) {
+				String wcUrl = jsonObj.isNull("wcUrl") ? "" : jsonObj.getString("wcUrl");
+				if(!wcUrl.equals(mWallClockUrlString == null ? "" : mWallClockUrlString)) {
+					applyWallclockUrl(wcUrl.isEmpty() ? null : new URI(wcUrl), wcUrl);
+					changed = true;
+				}
+			}
 
-						syncCallback.synchronisedTimelineAvailable();
+			if(jsonObj.has("protocolVersion") && !jsonObj.isNull("protocolVersion")) {
+				String[] protVersionStringArr = jsonObj.getString("protocolVersion").split("[.]");
+				if(protVersionStringArr.length > 1) {
+					int majorVersion = Integer.parseInt(protVersionStringArr[0]);
+					int minorVersion = Integer.parseInt(protVersionStringArr[1]);
+					if(majorVersion != mProtoMajorVersion || minorVersion != mProtoMinorVersion) {
+						mProtoMajorVersion = majorVersion;
+						mProtoMinorVersion = minorVersion;
+						changed = true;
 					}
+				}
+			}
 
-					@Override
-					public void onMessage(String message) {
-						if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "TS Websocket onMessage: " + message);
-
-						try {
-							JSONObject controlTimestampObj = new JSONObject(message);
-
-							String speedMultiString = controlTimestampObj.optString("timelineSpeedMultiplier", "0.0");
-							if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "SpeedMultiStr: " + speedMultiString);
-							boolean available = true;
-							float speedMulti;
-							if(speedMultiString.equalsIgnoreCase("null")) {
-								speedMulti = 0;
-								available = false;
-							} else {
-								//int speedInt = Integer.parseInt(speedMultiString);
-								//TODO
-								speedMulti = Float.parseFloat(speedMultiString);
-								//speedMulti = (float)speedInt;
-							}
-							mCurrentSpeedMulti = speedMulti;
-							mCurrentRemoteWc = Long.parseLong(controlTimestampObj.optString("wallClockTime", "-1"));
-							long myWcTime = mWallclock.getCurrentRemoteWallclock();
-
-							String contTimeString = controlTimestampObj.optString("contentTime", "-1");
-							if(contTimeString.equalsIgnoreCase("null")) {
-								mCurrentRemoteContentTime = 0;
-								available = false;
-							} else {
-								mCurrentRemoteContentTime = Long.parseLong(contTimeString);
-							}
-
-							mIsContentAvailable = available;
-
-							syncCallback.synchronisationPropertiesChanged(available, mCurrentSpeedMulti, mCurrentRemoteWc, mCurrentRemoteContentTime);
-						} catch (JSONException e) {
-							e.printStackTrace();
-						}
-					}
+			boolean contentIdChanged = false;
+			if(jsonObj.has("contentId")) {
+				String contId = jsonObj.isNull("contentId") ? null : jsonObj.getString("contentId");
+				if(contId != null && contId.isEmpty()) {
+					contId = null;
+				}
+				if(contId == null ? mContentId != null : !contId.equals(mContentId)) {
+					mContentId = contId;
+					contentIdChanged = true;
+					changed = true;
+				}
+			}
 
-					@Override
-					public void onError(Exception ex) {
-						if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "TS Websocket onError!");
-						ex.printStackTrace();
-					}
+			boolean timelinesChanged = false;
+			if(jsonObj.has("timelines")) {
+				timelinesChanged = mTimelines.update(jsonObj.optJSONArray("timelines"));
+				changed |= timelinesChanged;
+			}
 
-					@Override
-					public void onClose(int code, String reason, boolean remote) {
-						if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "TS Websocket onClose Code: " + code + " Reason: " + reason + " fromRemote: " + remote);
+			if(!changed) {
+				SyncLog.d(SyncLog.Category.CII, TAG, "CII message without changes");
+				return;
+			}
 
-						syncCallback.synchronisedTimelineUnavailable();
-					}
-				};
+			if(callback != null) {
+				callback.onSyncMessage(jsonObj);
+				if(contentIdChanged) {
+					callback.onContentIdChanged(mContentId);
+				}
+				if(timelinesChanged) {
+					callback.onTimelinesAvailable();
+				}
+			}
+
+		} catch (JSONException e) {
+			SyncLog.e(SyncLog.Category.CII, TAG, "Invalid property in CII: {}", jsonObj);
+
+			if(callback != null) {
+				callback.onError("Error parsing CII");
+			}
+		} catch (NumberFormatException e) {
+			SyncLog.e(SyncLog.Category.CII, TAG, "Error parsing protocolVersion: {}", jsonObj);
+
+			if(callback != null) {
+				callback.onError("Error parsing CII");
+			}
+		} catch (URISyntaxException e) {
+			SyncLog.e(SyncLog.Category.CII, TAG, "Error parsing TS URI: {}", jsonObj);
 
-				mWsSyncClient.connect();
+			if(callback != null) {
+				callback.onError("Error parsing CSS TS URL");
 			}
 		}
 	}
 
 	/**
-	 * Stops the synchronisation
+	 * Handles a Control Timestamp received on the TS WebSocket
+	 * @param message the received Control Timestamp message
+	 * @param syncCallback the {@link SynchroniserSynchronisationCallback} to notify
+	 */
+	void handleControlTimestamp(String message, SynchroniserSynchronisationCallback syncCallback) {
+		SyncLog.d(SyncLog.Category.TS, TAG, "TS Websocket onMessage: {}", message);
+
+		try {
+			ControlTimestampParser parser = mControlTimestampParser;
+			parser.parse(message);
+
+			float speedMulti = parser.getSpeedMultiplier();
+			long remoteWc = parser.getWallclockTime();
+			long remoteContentTime = parser.getContentTime();
+
+			TimelineCorrelation correlation = null;
+			if(!parser.isContentTimeNull() && !parser.isSpeedMultiplierNull()) {
+				correlation = TimelineCorrelation.create(remoteWc, remoteContentTime, speedMulti, mSynchronisedTimeline, false);
+				if(correlation == null) {
+					SyncLog.w(SyncLog.Category.TS, TAG, "Timeline {} has no unitsPerSecond, content time unavailable", mSynchronisedTimeline.getTimelineSelectorString());
+				}
+			}
+			TimelineCorrelation previous = mCorrelation;
+			mCorrelation = correlation;
+			boolean available = correlation != null;
+
+			//A repeated Control Timestamp, e.g. resent periodically during steady playback, is not reported again
+			if(!mReportAllControlTimestamps && mPropertiesReported && (previous == null || !previous.isProvisional())
+					&& (available ? correlation.isEquivalentTo(mReportedCorrelation, PROPERTIES_CHANGED_TOLERANCE_NANOS) : mReportedCorrelation == null)) {
+				return;
+			}
+
+			WarmStartCache cache = WarmStartCache.getInstance();
+			if(cache != null) {
+				if(available) {
+					cache.putCorrelation(mContentId, mSynchronisedTimeline.getTimelineSelectorString(), remoteWc, remoteContentTime, speedMulti);
+				} else {
+					cache.removeCorrelation(mContentId, mSynchronisedTimeline.getTimelineSelectorString());
+				}
+			}
+
+			reportPropertiesChanged(correlation, syncCallback, available, speedMulti, remoteWc, remoteContentTime);
+		} catch (JSONException e) {
+			SyncLog.e(SyncLog.Category.TS, TAG, "Error parsing Control Timestamp: {}", message, e);
+		} catch (ArithmeticException e) {
+			SyncLog.e(SyncLog.Category.TS, TAG, "Ignoring Control Timestamp with out of range content time: {}", message);
+		}
+	}
+
+	/**
+	 * Stops the synchronisation. The request is queued on the event loop.
 	 */
 	public void stopSynchronisation() {
-		//TODO stop everything
-		if(mWsSyncClient != null) {
-			if(mWsSyncClient.isOpen()) {
-				mWsSyncClient.close();
+		mEventLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				stopSynchronisationOnLoop();
 			}
-			mWsSyncClient = null;
+		});
+	}
+
+	private void stopSynchronisationOnLoop() {
+		closeTsSocket();
+		mCorrelation = null;
+		resetSlew();
+		synchronized(mReportedLock) {
+			mReported.valid = false;
 		}
+		mLastSent.valid = false;
+		releaseWallclock();
+	}
 
-		if(mWallclock != null) {
-			if(mWallclock.isRunning()) {
-				mWallclock.stop();
+	/**
+	 * Stops the synchronisation and closes the CII connection. The {@link Synchroniser} must not be used afterwards.
+	 */
+	public void destroy() {
+		mEventLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				stopSynchronisationOnLoop();
+				if(mCiiSocket != null) {
+					mCiiSocket.close();
+					mCiiSocket = null;
+				}
+				mEventLoop.quit();
+			}
+		});
+	}
+
+	private void handleWallclockUpdated() {
+		if(mSyncCallback == null || mWallclock == null) {
+			return;
+		}
+		if (!mWallclockSynced) {
+			mWallclockSynced = true;
+			SyncLog.d(SyncLog.Category.WALLCLOCK, TAG, "Wallclock synced");
+			mSyncCallback.wallclockSynced();
+		}
+		mSyncCallback.wallclockUpdated();
+	}
+
+	/**
+	 * Keeps the last correlation as a disconnected one while the TS connection is re-established. Without a
+	 * correlation, or to a callback that is no {@link SynchroniserReconnectionCallback}, the timeline is reported
+	 * unavailable.
+	 */
+	private void handleTsDisconnected(SynchroniserSynchronisationCallback syncCallback) {
+		TimelineCorrelation correlation = mCorrelation;
+		if(correlation == null) {
+			syncCallback.synchronisedTimelineUnavailable();
+			return;
+		}
+
+		Wallclock wallclock = mWallclock;
+		long disconnectedAt = wallclock != null && wallclock.isCurrentRemoteWallclockValid() ? wallclock.getCurrentRemoteWallclock()
+				: correlation.getWallclockTime();
+		mCorrelation = correlation.disconnected(disconnectedAt);
+		SyncLog.i(SyncLog.Category.TS, TAG, "TS connection lost, keeping the last correlation while reconnecting");
+		if(syncCallback instanceof SynchroniserReconnectionCallback) {
+			((SynchroniserReconnectionCallback) syncCallback).synchronisedTimelineReconnecting();
+		} else {
+			syncCallback.synchronisedTimelineUnavailable();
+		}
+	}
+
+	private void closeTsSocket() {
+		if(mTsSocket != null) {
+			boolean wasOpen = mTsSocket.isOpen();
+			mTsSocket.close();
+			mTsSocket = null;
+			if(wasOpen && mSyncCallback != null) {
+				mSyncCallback.synchronisedTimelineUnavailable();
 			}
-			mWallclock.destroy();
+		}
+	}
+
+	/**
+	 * Restores the last correlation of the synchronised timeline from the warm start cache, so that the content
+	 * time is available before the first Control Timestamp. The correlation stays provisional until then.
+	 */
+	private void seedCorrelationFromWarmStartCache(SynchroniserSynchronisationCallback syncCallback) {
+		WarmStartCache cache = WarmStartCache.getInstance();
+		if(cache == null) return;
+
+		WarmStartCache.CorrelationEntry cached = cache.getCorrelation(mContentId, mSynchronisedTimeline.getTimelineSelectorString());
+		if(cached == null) return;
+
+		TimelineCorrelation correlation;
+		try {
+			correlation = TimelineCorrelation.create(cached.wallclockTime, cached.contentTime, cached.speedMultiplier, mSynchronisedTimeline, true);
+		} catch (ArithmeticException e) {
+			return;
+		}
+		if(correlation == null) return;
+
+		//Not confirmed since it was announced, so its error grows like that of a disconnected correlation
+		correlation = correlation.disconnected(cached.wallclockTime);
+
+		mCorrelation = correlation;
+		SyncLog.d(SyncLog.Category.CACHE, TAG, "Seeded provisional correlation from warm start cache");
+
+		reportPropertiesChanged(correlation, syncCallback, true, correlation.getSpeedMultiplier(), correlation.getWallclockTime(), correlation.getContentTime());
+	}
+
+	private void reportPropertiesChanged(TimelineCorrelation correlation, SynchroniserSynchronisationCallback syncCallback, boolean available,
+			float speedMultiplier, long remoteWallclock, long remoteContentTime) {
+		mReportedCorrelation = correlation;
+		mPropertiesReported = true;
+		syncCallback.synchronisationPropertiesChanged(available, speedMultiplier, remoteWallclock, remoteContentTime);
+	}
+
+	private void releaseWallclock() {
+		if(mWallclock != null) {
+			mWallclock.removeUpdateListener(mWallclockListener);
+			WallclockPool.release(mWallclock, mWallclockRequestedUpdateInterval);
 			mWallclock = null;
+			mWallclockListener = null;
 		}
 	}
 
+	/**
+	 * Reports the presentation timing of the companion's own content to the TS server as an AptEptLpt message,
+	 * so that the TV can adjust its presentation to the companion. All times are given for the same content time.
+	 * <p>
+	 * The call only stores the values and may be made for every presented frame: a report is sent at most every
+	 * {@value #APT_EPT_LPT_MIN_INTERVAL_MILLIS} ms and only if it differs by more than
+	 * {@value #APT_EPT_LPT_TOLERANCE_NANOS} ns from the timing the last report implies at the current speed. The
+	 * last report is sent again whenever the TS connection is established.
+	 * @param contentTime the content time in nanoseconds on the synchronised timeline
+	 * @param earliestLocalTime the earliest local time ({@code SystemClock.elapsedRealtimeNanos()}) at which the content
+	 * time could be presented, or {@link #PRESENTATION_TIME_UNBOUNDED_EARLIEST}
+	 * @param actualLocalTime the local time at which the content time is presented, or
+	 * {@link #PRESENTATION_TIME_UNBOUNDED_EARLIEST} if it is not known
+	 * @param latestLocalTime the latest local time at which the content time could be presented, or
+	 * {@link #PRESENTATION_TIME_UNBOUNDED_LATEST}
+	 */
+	public void reportPresentationTimestamps(long contentTime, long earliestLocalTime, long actualLocalTime, long latestLocalTime) {
+		synchronized(mReportedLock) {
+			mReported.set(contentTime, earliestLocalTime, actualLocalTime, latestLocalTime);
+		}
+		queuePresentationTimestamps();
+	}
+
+	private void queuePresentationTimestamps() {
+		synchronized(mReportedLock) {
+			if(mSendQueued || !mReported.valid) return;
+			mSendQueued = true;
+		}
+		mEventLoop.post(mSendPresentationTimestamps);
+	}
+
+	/**
+	 * Sends the latest reported presentation timing unless the last report was sent too recently or still
+	 * describes it. A report that cannot be sent yet is sent on the next TS connection.
+	 */
+	private void sendPresentationTimestamps() {
+		long now = SystemClock.elapsedRealtimeNanos();
+		if(mLastSent.valid) {
+			long waitMillis = APT_EPT_LPT_MIN_INTERVAL_MILLIS - (now - mLastSentAt) / 1000000L;
+			if(waitMillis > 0) {
+				mEventLoop.postDelayed(mSendPresentationTimestamps, waitMillis);
+				return;
+			}
+		}
+
+		synchronized(mReportedLock) {
+			mToSend.copyFrom(mReported);
+			mSendQueued = false;
+		}
+
+		TimelineCorrelation correlation = mCorrelation;
+		float speed = correlation != null ? correlation.getSpeedMultiplier() : 1.0f;
+		if(mLastSent.valid && mToSend.isEquivalentTo(mLastSent, speed)) {
+			return;
+		}
+
+		Wallclock wallclock = mWallclock;
+		Timeline timeline = mSynchronisedTimeline;
+		if(mTsSocket == null || !mTsSocket.isOpen() || wallclock == null || !wallclock.isCurrentRemoteWallclockValid()
+				|| timeline == null || timeline.getUnitsPerSecond() <= 0) {
+			return;
+		}
+
+		String message;
+		try {
+			message = generateAptEptLptJson(mToSend, wallclock, timeline).toString();
+		} catch (ArithmeticException e) {
+			SyncLog.e(SyncLog.Category.TS, TAG, "Presentation content time {} out of range for the timeline", mToSend.contentTime);
+			return;
+		}
+		if(mTsSocket.send(message)) {
+			SyncLog.d(SyncLog.Category.TS, TAG, "TS Websocket sending AptEptLpt: {}", message);
+			mLastSent.copyFrom(mToSend);
+			mLastSentAt = now;
+		}
+	}
+
+	private JSONObject generateAptEptLptJson(PresentationTimestamps timestamps, Wallclock wallclock, Timeline timeline) {
+		String contentTime = Long.toString(TimelineCorrelation.toTicks(timestamps.contentTime, timeline));
+		JSONObject aptEptLptObj = new JSONObject();
+		try {
+			aptEptLptObj.put("earliest", generateTimestampJson(contentTime, timestamps.earliest == PRESENTATION_TIME_UNBOUNDED_EARLIEST ? "minusinfinity"
+					: Long.toString(wallclock.localToRemoteWallclockTimestamp(timestamps.earliest))));
+			aptEptLptObj.put("latest", generateTimestampJson(contentTime, timestamps.latest == PRESENTATION_TIME_UNBOUNDED_LATEST ? "plusinfinity"
+					: Long.toString(wallclock.localToRemoteWallclockTimestamp(timestamps.latest))));
+			if(timestamps.actual != PRESENTATION_TIME_UNBOUNDED_EARLIEST) {
+				aptEptLptObj.put("actual", generateTimestampJson(contentTime, Long.toString(wallclock.localToRemoteWallclockTimestamp(timestamps.actual))));
+			}
+		} catch (JSONException e) {
+			SyncLog.e(SyncLog.Category.TS, TAG, "Error generating AptEptLpt JSON!", e);
+		}
+
+		return aptEptLptObj;
+	}
+
+	private static JSONObject generateTimestampJson(String contentTime, String wallClockTime) throws JSONException {
+		JSONObject timestampObj = new JSONObject();
+		timestampObj.put("contentTime", contentTime);
+		timestampObj.put("wallClockTime", wallClockTime);
+		return timestampObj;
+	}
+
 	private JSONObject generateSetupDataJson() {
 		JSONObject setupdataObj = new JSONObject();
 		try {
 			setupdataObj.put("contentIdStem", mContentId);
 			setupdataObj.put("timelineSelector", mSynchronisedTimeline.getTimelineSelectorString());
 		} catch (JSONException e) {
-			if(SynchroniserFactory.LOG_DEBUG)Log.e(TAG, "Error generating SetupDataJSON!");
-			if(SynchroniserFactory.LOG_DEBUG)e.printStackTrace();
+			SyncLog.e(SyncLog.Category.TS, TAG, "Error generating SetupDataJSON!", e);
 		}
 
 		return setupdataObj;
 	}
 
+	/**
+	 * Smooths the synchronised content time instead of letting it jump on every correction of the correlation or the
+	 * Wallclock estimate. The content time then deviates from the timeline speed by at most the given rate to follow
+	 * corrections, and only jumps if the difference to the current estimate exceeds the step threshold, e.g. after a
+	 * seek on the TV. A player can follow the smoothed time by adjusting its rate and use the residual of
+	 * {@link #synchronisedCurrentPtsWithError()} for corrections below a frame.
+	 * @param maxSlewPpm the maximum slew rate in ppm, {@code 0} to disable smoothing
+	 * @param stepThresholdNanos the difference in nanoseconds above which the content time jumps
+	 */
+	public void setContentTimeSlewing(int maxSlewPpm, long stepThresholdNanos) {
+		mSlew = maxSlewPpm > 0 ? new ContentTimeSlew(maxSlewPpm, stepThresholdNanos) : null;
+	}
+
+	private void resetSlew() {
+		ContentTimeSlew slew = mSlew;
+		if(slew != null) {
+			slew.reset();
+		}
+	}
+
+	/**
+	 * Returns the synchronised content time, smoothed if enabled with {@link #setContentTimeSlewing(int, long)}
+	 * @return the content time in nanoseconds or {@code -1} if the timeline is not available
+	 */
 	public long synchronisedCurrentPts() {
-		if (!this.isContentAvailable() || !this.isSynchronisedCurrentPtsValid()) {
-			Log.e(TAG, "synchronisedCurrentPts called when content or wallclock not available");
-			(new Throwable()).printStackTrace();
+		TimelineCorrelation correlation = mCorrelation;
+		Wallclock wallclock = mWallclock;
+		if (correlation == null || wallclock == null || !wallclock.isCurrentRemoteWallclockValid()) {
+			if (SyncLog.isEnabled(SyncLog.ERROR, SyncLog.Category.TS)) {
+				//The stack trace shows the caller, only captured when it is logged
+				SyncLog.e(SyncLog.Category.TS, TAG, "synchronisedCurrentPts called when content or wallclock not available", new Throwable());
+			}
+			if (correlation == null || wallclock == null) {
+				return -1;
+			}
+		}
+		ContentTimeSlew slew = mSlew;
+		if (slew == null) {
+			return correlation.contentTimeAt(wallclock.getCurrentRemoteWallclock());
+		}
+		long now = SystemClock.elapsedRealtimeNanos();
+		return slew.slew(now, correlation.contentTimeAt(wallclock.localToRemoteWallclockTimestamp(now)), correlation.getSpeedMultiplier());
+	}
+
+	/**
+	 * Returns the synchronised content time together with its maximum error. The error is the error of the
+	 * remote Wallclock scaled by the current timeline speed, so it is {@code 0} while the timeline is paused.
+	 * The result is provisional while the Wallclock or the correlation is taken from the warm start cache, or while
+	 * the TS connection is re-established, in which case the error also grows with the time since the disconnect.
+	 * If smoothing is enabled, the result carries the outstanding correction as residual, which is included in the error.
+	 * @return the content time in nanoseconds with its error or {@code null} if synchronisation is not valid
+	 */
+	public TimeWithError synchronisedCurrentPtsWithError() {
+		TimelineCorrelation correlation = mCorrelation;
+		Wallclock wallclock = mWallclock;
+		if (correlation == null || wallclock == null) {
+			return null;
+		}
+		WallclockState state = wallclock.getState();
+		if (!state.isValid()) {
+			return null;
+		}
+		long now = SystemClock.elapsedRealtimeNanos();
+		long remoteWc = state.toRemote(now);
+		long contentTime = correlation.contentTimeAt(remoteWc);
+		long error = correlation.errorAt(remoteWc, state.getErrorAt(now));
+		boolean provisional = state.isProvisional() || correlation.isProvisional();
+
+		ContentTimeSlew slew = mSlew;
+		if (slew == null) {
+			return new TimeWithError(contentTime, error, provisional);
 		}
-		long curRemWcDiff = (mWallclock.getCurrentRemoteWallclock() - mCurrentRemoteWc);
-		long elapsedContentTime = (long)(curRemWcDiff * ((double)mSynchronisedTimeline.getUnitsPerSecond() / 1000000000.d));
-		elapsedContentTime *= mCurrentSpeedMulti;
-		return (long) ((mCurrentRemoteContentTime + elapsedContentTime) / ((double)mSynchronisedTimeline.getUnitsPerSecond() / 1000000000.d));
+		long slewed = slew.slew(now, contentTime, correlation.getSpeedMultiplier());
+		long residual = contentTime - slewed;
+		return new TimeWithError(slewed, error + Math.abs(residual), provisional, residual);
+	}
+
+	/**
+	 * Returns whether the synchronised content time is provisional, i.e. the Wallclock estimate or the timeline
+	 * correlation is taken from the warm start cache or kept from before a lost TS connection and not yet confirmed by the TV
+	 * @return {@code true} if the synchronisation is provisional
+	 */
+	public boolean isSynchronisationProvisional() {
+		TimelineCorrelation correlation = mCorrelation;
+		Wallclock wallclock = mWallclock;
+		return (correlation != null && correlation.isProvisional()) || (wallclock != null && wallclock.isCurrentRemoteWallclockProvisional());
 	}
 
 	public boolean isSynchronisedCurrentPtsValid() {
-		return mWallclock.isCurrentRemoteWallclockValid() && this.isContentAvailable();
+		Wallclock wallclock = mWallclock;
+		return wallclock != null && wallclock.isCurrentRemoteWallclockValid() && this.isContentAvailable();
 	}
 
 	public boolean isContentAvailable() {
-		return mIsContentAvailable;
+		return mCorrelation != null;
+	}
+
+	/**
+	 * The presentation timing of one content time as given to {@link Synchroniser#reportPresentationTimestamps}
+	 */
+	private static final class PresentationTimestamps {
+		boolean valid = false;
+		long contentTime;
+		long earliest;
+		long actual;
+		long latest;
+
+		void set(long contentTime, long earliest, long actual, long latest) {
+			this.contentTime = contentTime;
+			this.earliest = earliest;
+			this.actual = actual;
+			this.latest = latest;
+			this.valid = true;
+		}
+
+		void copyFrom(PresentationTimestamps other) {
+			set(other.contentTime, other.earliest, other.actual, other.latest);
+			this.valid = other.valid;
+		}
+
+		/**
+		 * Returns whether both describe the same presentation timing, i.e. all local times of this one are within the
+		 * tolerance of where the other one puts the content time of this one at the given speed
+		 */
+		boolean isEquivalentTo(PresentationTimestamps other, float speed) {
+			long contentDelta = contentTime - other.contentTime;
+			return isEquivalent(earliest, other.earliest, contentDelta, speed) && isEquivalent(actual, other.actual, contentDelta, speed)
+					&& isEquivalent(latest, other.latest, contentDelta, speed);
+		}
+
+		private static boolean isEquivalent(long localTime, long otherLocalTime, long contentDelta, float speed) {
+			boolean unbounded = localTime == PRESENTATION_TIME_UNBOUNDED_EARLIEST || localTime == PRESENTATION_TIME_UNBOUNDED_LATEST;
+			boolean otherUnbounded = otherLocalTime == PRESENTATION_TIME_UNBOUNDED_EARLIEST || otherLocalTime == PRESENTATION_TIME_UNBOUNDED_LATEST;
+			if(unbounded || otherUnbounded) {
+				return localTime == otherLocalTime;
+			}
+			return Math.abs(contentDelta - (double) (localTime - otherLocalTime) * speed) <= APT_EPT_LPT_TOLERANCE_NANOS;
+		}
 	}
 }
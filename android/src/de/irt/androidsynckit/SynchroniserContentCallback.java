@@ -24,12 +24,13 @@ public interface SynchroniserContentCallback {
 
 	/**
 	 * Notifies about a changed ContentId
-	 * @param newContentId the new ContentId
+	 * @param newContentId the new ContentId or {@code null} if the ContentId was withdrawn
 	 */
 	void onContentIdChanged(String newContentId);
 
 	/**
-	 * Notifies that {@link Timeline}s for the {@link Synchroniser} are available
+	 * Notifies that {@link Timeline}s for the {@link Synchroniser} are available or that they or their properties
+	 * changed
 	 */
 	void onTimelinesAvailable();
 
@@ -40,7 +41,7 @@ public interface SynchroniserContentCallback {
 	void onError(String errorDescription);
 
 	/**
-	 * Notification of synchronisation message received
+	 * Notification of a received synchronisation message that changed at least one property
 	 * @param msg
 	 */
 	void onSyncMessage(JSONObject msg);
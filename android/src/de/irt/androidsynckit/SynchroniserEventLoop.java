@@ -0,0 +1,376 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Single-threaded event loop of a {@link Synchroniser}.
+ * <p>
+ * Commands from the app and events from the CII and TS sockets and the {@link Wallclock} are queued in arrival
+ * order and handled one after another on the loop thread, which is also the thread all callbacks are made from.
+ * Posting never blocks. Events are coalesced so a slow loop cannot back up the network threads:
+ * <ul>
+ * <li>a CII message is merged into a still pending one, later properties replacing earlier ones, and the merged
+ * message moves to the end of the queue so it is not handled before events that arrived earlier</li>
+ * <li>a Control Timestamp replaces a still pending one of the same connection directly before it</li>
+ * <li>at most one Wallclock update is pending</li>
+ * </ul>
+ * Once {@link #MAX_PENDING_EVENTS} events are pending, the oldest pending Control Timestamp is dropped to make room
+ * for a new Control Timestamp or invalid CII message; if there is none, the new event is dropped instead. The other
+ * events cannot flood the queue and are always queued: valid CII messages and Wallclock updates are coalesced into at
+ * most one pending event each, a TS connection opens and closes at most once per connection attempt, which the
+ * reconnect backoff limits, and commands are only posted by the app. Commands are never coalesced or dropped.
+ * Delayed commands are queued when they are due.
+ */
+final class SynchroniserEventLoop {
+
+	static final int MAX_PENDING_EVENTS = 64;
+
+	/**
+	 * Handles the events on the loop thread
+	 */
+	interface Handler {
+
+		/**
+		 * A CII message, possibly merged from several received ones
+		 * @param message the message or {@code null} if it was no valid JSON
+		 * @param rawMessage the received message if it was no valid JSON, otherwise {@code null}
+		 */
+		void onCiiMessage(JSONObject message, String rawMessage);
+
+		void onTsOpen(Object connection);
+
+		void onTsMessage(Object connection, String message);
+
+		void onTsDisconnected(Object connection);
+
+		void onWallclockUpdated();
+	}
+
+	private static final int TYPE_COMMAND = 0;
+	private static final int TYPE_CII_MESSAGE = 1;
+	private static final int TYPE_TS_OPEN = 2;
+	private static final int TYPE_TS_MESSAGE = 3;
+	private static final int TYPE_TS_DISCONNECTED = 4;
+	private static final int TYPE_WALLCLOCK_UPDATED = 5;
+
+	private static final class Event {
+		final int type;
+		final Object connection;
+		final Runnable command;
+		String message;
+		JSONObject json;
+		long dueTime;
+
+		Event(int type, Object connection, Runnable command, String message, JSONObject json) {
+			this.type = type;
+			this.connection = connection;
+			this.command = command;
+			this.message = message;
+			this.json = json;
+		}
+	}
+
+	private final String TAG;
+	private final Handler mHandler;
+	private final Thread mThread;
+
+	//Guarded by mQueue
+	private final ArrayDeque<Event> mQueue = new ArrayDeque<Event>();
+	private final PriorityQueue<Event> mDelayed = new PriorityQueue<Event>(4, new Comparator<Event>() {
+		@Override
+		public int compare(Event lhs, Event rhs) {
+			long diff = lhs.dueTime - rhs.dueTime;
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	});
+	private Event mPendingCii;
+	private boolean mWallclockUpdatePending = false;
+	private boolean mQuit = false;
+	private long mCoalescedCount = 0;
+	private long mDroppedCount = 0;
+
+	/**
+	 * Creates and starts the loop
+	 * @param name the name of the loop thread
+	 * @param handler the {@link Handler} of the events
+	 */
+	SynchroniserEventLoop(String name, Handler handler) {
+		TAG = name;
+		mHandler = handler;
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name);
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	/**
+	 * Queues a command
+	 * @param command the command to run on the loop thread
+	 */
+	void post(Runnable command) {
+		enqueue(new Event(TYPE_COMMAND, null, command, null, null));
+	}
+
+	/**
+	 * Queues a command once the given delay has passed
+	 * @param command the command to run on the loop thread
+	 * @param delayMillis the delay in milliseconds
+	 */
+	void postDelayed(Runnable command, long delayMillis) {
+		Event event = new Event(TYPE_COMMAND, null, command, null, null);
+		event.dueTime = System.nanoTime() + delayMillis * 1000000L;
+		synchronized(mQueue) {
+			if(mQuit) {
+				return;
+			}
+			mDelayed.add(event);
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Queues a received CII message. The message is parsed on the calling thread so it can be merged.
+	 * @param message the received message
+	 */
+	void postCiiMessage(String message) {
+		JSONObject json;
+		try {
+			json = new JSONObject(message);
+		} catch (JSONException e) {
+			synchronized(mQueue) {
+				if(makeRoomLocked()) {
+					enqueueLocked(new Event(TYPE_CII_MESSAGE, null, null, message, null));
+				}
+			}
+			return;
+		}
+
+		synchronized(mQueue) {
+			if(mPendingCii != null && mPendingCii.json != null) {
+				try {
+					//Android's JSONObject returns a raw Iterator over the String keys
+					Iterator<?> keys = json.keys();
+					while(keys.hasNext()) {
+						String key = (String) keys.next();
+						mPendingCii.json.put(key, json.get(key));
+					}
+					mQueue.remove(mPendingCii);
+					mQueue.addLast(mPendingCii);
+					mCoalescedCount++;
+					return;
+				} catch (JSONException e) {
+					//Not mergeable, queue it on its own
+				}
+			}
+			Event event = new Event(TYPE_CII_MESSAGE, null, null, null, json);
+			if(enqueueLocked(event)) {
+				mPendingCii = event;
+			}
+		}
+	}
+
+	void postTsOpen(Object connection) {
+		enqueue(new Event(TYPE_TS_OPEN, connection, null, null, null));
+	}
+
+	/**
+	 * Queues a received Control Timestamp, replacing a pending one of the same connection directly before it
+	 * @param connection the TS connection
+	 * @param message the received message
+	 */
+	void postTsMessage(Object connection, String message) {
+		synchronized(mQueue) {
+			Event last = mQueue.peekLast();
+			if(last != null && last.type == TYPE_TS_MESSAGE && last.connection == connection) {
+				last.message = message;
+				mCoalescedCount++;
+				return;
+			}
+			if(makeRoomLocked()) {
+				enqueueLocked(new Event(TYPE_TS_MESSAGE, connection, null, message, null));
+			}
+		}
+	}
+
+	void postTsDisconnected(Object connection) {
+		enqueue(new Event(TYPE_TS_DISCONNECTED, connection, null, null, null));
+	}
+
+	void postWallclockUpdated() {
+		synchronized(mQueue) {
+			if(mWallclockUpdatePending) {
+				mCoalescedCount++;
+				return;
+			}
+			if(enqueueLocked(new Event(TYPE_WALLCLOCK_UPDATED, null, null, null, null))) {
+				mWallclockUpdatePending = true;
+			}
+		}
+	}
+
+	/**
+	 * Stops the loop after the event currently handled, pending events are discarded
+	 */
+	void quit() {
+		synchronized(mQueue) {
+			mQuit = true;
+			mQueue.clear();
+			mDelayed.clear();
+			mPendingCii = null;
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns whether the calling thread is the loop thread
+	 * @return {@code true} if called on the loop thread
+	 */
+	boolean isLoopThread() {
+		return Thread.currentThread() == mThread;
+	}
+
+	/**
+	 * Returns the number of events merged into or replaced by a later one
+	 * @return the number of coalesced events
+	 */
+	long getCoalescedCount() {
+		synchronized(mQueue) {
+			return mCoalescedCount;
+		}
+	}
+
+	/**
+	 * Returns the number of Control Timestamps and invalid CII messages dropped because too many events were pending
+	 * @return the number of dropped events
+	 */
+	long getDroppedCount() {
+		synchronized(mQueue) {
+			return mDroppedCount;
+		}
+	}
+
+	private void enqueue(Event event) {
+		synchronized(mQueue) {
+			enqueueLocked(event);
+		}
+	}
+
+	private boolean enqueueLocked(Event event) {
+		if(mQuit) {
+			return false;
+		}
+		mQueue.addLast(event);
+		mQueue.notifyAll();
+		return true;
+	}
+
+	/**
+	 * Drops the oldest pending Control Timestamp if {@link #MAX_PENDING_EVENTS} events are pending
+	 * @return {@code true} if there is room for a droppable event, otherwise it is counted as dropped
+	 */
+	private boolean makeRoomLocked() {
+		if(mQueue.size() < MAX_PENDING_EVENTS) {
+			return true;
+		}
+		mDroppedCount++;
+		Iterator<Event> it = mQueue.iterator();
+		while(it.hasNext()) {
+			if(it.next().type == TYPE_TS_MESSAGE) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void loop() {
+		while(true) {
+			Event event;
+			synchronized(mQueue) {
+				while(!mQuit) {
+					long now = System.nanoTime();
+					while(!mDelayed.isEmpty() && mDelayed.peek().dueTime - now <= 0) {
+						mQueue.addLast(mDelayed.poll());
+					}
+					if(!mQueue.isEmpty()) {
+						break;
+					}
+					try {
+						if(mDelayed.isEmpty()) {
+							mQueue.wait();
+						} else {
+							long waitNanos = mDelayed.peek().dueTime - now;
+							mQueue.wait(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+						}
+					} catch (InterruptedException e) {
+						//nada
+					}
+				}
+				if(mQuit) {
+					return;
+				}
+				event = mQueue.pollFirst();
+				if(event == mPendingCii) {
+					mPendingCii = null;
+				} else if(event.type == TYPE_WALLCLOCK_UPDATED) {
+					mWallclockUpdatePending = false;
+				}
+			}
+
+			try {
+				dispatch(event);
+			} catch (RuntimeException e) {
+				SyncLog.e(SyncLog.Category.PLUGIN, TAG, "Error handling event", e);
+			}
+		}
+	}
+
+	private void dispatch(Event event) {
+		switch(event.type) {
+		case TYPE_COMMAND:
+			event.command.run();
+			break;
+		case TYPE_CII_MESSAGE:
+			mHandler.onCiiMessage(event.json, event.json == null ? event.message : null);
+			break;
+		case TYPE_TS_OPEN:
+			mHandler.onTsOpen(event.connection);
+			break;
+		case TYPE_TS_MESSAGE:
+			mHandler.onTsMessage(event.connection, event.message);
+			break;
+		case TYPE_TS_DISCONNECTED:
+			mHandler.onTsDisconnected(event.connection);
+			break;
+		case TYPE_WALLCLOCK_UPDATED:
+			mHandler.onWallclockUpdated();
+			break;
+		default:
+			break;
+		}
+	}
+}
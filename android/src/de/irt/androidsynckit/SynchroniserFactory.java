@@ -14,6 +14,12 @@
 /************************************************************************/
 package de.irt.androidsynckit;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import android.os.Process;
+
 /**
  * Factory to create synchroniser instances
  * @author Fabian Sattler, IRT GmbH
@@ -22,7 +28,19 @@ public final class SynchroniserFactory {
 
 	private final String TAG = "SynchroniserFactory";
 
-	static boolean LOG_DEBUG = true;
+	private static volatile int sWallclockReceiveThreadPriority = Process.THREAD_PRIORITY_AUDIO;
+	private static volatile int sWallclockTrafficClass = 0;
+	private static volatile int sWallclockReceiveBufferSize = 0;
+	private static volatile MessageChannelFactory sMessageChannelFactory = null;
+	private static volatile PacketChannelFactory sPacketChannelFactory = null;
+
+	//Starts the receive thread of the UDP transport only once a socket is opened
+	private static final PacketChannelFactory DEFAULT_PACKET_CHANNEL_FACTORY = new PacketChannelFactory() {
+		@Override
+		public PacketChannel open(InetSocketAddress remoteAddress, PacketChannel.Receiver receiver) throws IOException {
+			return NioPacketChannelFactory.getInstance().open(remoteAddress, receiver);
+		}
+	};
 
 	private SynchroniserFactory() {
 		//nada
@@ -40,4 +58,75 @@ public final class SynchroniserFactory {
 		}
 		return null;
 	}
+
+	/**
+	 * Enables the warm start cache, which keeps the last Wallclock estimate and timeline correlation on disk so that
+	 * a provisional content time is available right after a restart. Disabled by default.
+	 * @param directory the directory of the cache file, e.g. the cache directory of the app, or {@code null} to disable the cache
+	 */
+	public static void setWarmStartCacheDirectory(File directory) {
+		WarmStartCache.setDirectory(directory);
+	}
+
+	/**
+	 * Sets the priority of the thread that receives and timestamps Wallclock responses on the default UDP transport.
+	 * A higher priority reduces the delay between the arrival of a response and its timestamp. Defaults to
+	 * {@link Process#THREAD_PRIORITY_AUDIO}.
+	 * @param priority a Linux thread priority from -20 (highest) to 19 (lowest), see {@link Process}
+	 */
+	public static void setWallclockReceiveThreadPriority(int priority) {
+		if(priority < -20 || priority > 19) throw new IllegalArgumentException("Thread priority out of range: " + priority);
+		sWallclockReceiveThreadPriority = priority;
+		NioPacketChannelFactory.onReceivePriorityChanged();
+	}
+
+	static int getWallclockReceiveThreadPriority() {
+		return sWallclockReceiveThreadPriority;
+	}
+
+	/**
+	 * Sets socket options of the Wallclock sockets opened afterwards, so they should be set before synchronisation is started
+	 * @param trafficClass the IP traffic class, e.g. {@code 0xB8} for expedited forwarding, or {@code 0} to leave it unchanged
+	 * @param receiveBufferSize the socket receive buffer size in bytes or {@code 0} to leave it unchanged
+	 */
+	public static void setWallclockSocketOptions(int trafficClass, int receiveBufferSize) {
+		if(trafficClass < 0 || trafficClass > 255) throw new IllegalArgumentException("Traffic class out of range: " + trafficClass);
+		if(receiveBufferSize < 0) throw new IllegalArgumentException("Negative receive buffer size: " + receiveBufferSize);
+		sWallclockTrafficClass = trafficClass;
+		sWallclockReceiveBufferSize = receiveBufferSize;
+	}
+
+	static int getWallclockTrafficClass() {
+		return sWallclockTrafficClass;
+	}
+
+	static int getWallclockReceiveBufferSize() {
+		return sWallclockReceiveBufferSize;
+	}
+
+	/**
+	 * Sets the transport of the CII and TS connections opened afterwards, e.g. an {@link InMemoryTransport}
+	 * @param factory the {@link MessageChannelFactory} or {@code null} for the default WebSocket transport
+	 */
+	public static void setMessageChannelFactory(MessageChannelFactory factory) {
+		sMessageChannelFactory = factory;
+	}
+
+	static MessageChannelFactory getMessageChannelFactory() {
+		MessageChannelFactory factory = sMessageChannelFactory;
+		return factory != null ? factory : WebSocketMessageChannel.FACTORY;
+	}
+
+	/**
+	 * Sets the transport of the Wallclock sockets opened afterwards, e.g. an {@link InMemoryTransport}
+	 * @param factory the {@link PacketChannelFactory} or {@code null} for the default UDP transport
+	 */
+	public static void setPacketChannelFactory(PacketChannelFactory factory) {
+		sPacketChannelFactory = factory;
+	}
+
+	static PacketChannelFactory getPacketChannelFactory() {
+		PacketChannelFactory factory = sPacketChannelFactory;
+		return factory != null ? factory : DEFAULT_PACKET_CHANNEL_FACTORY;
+	}
 }
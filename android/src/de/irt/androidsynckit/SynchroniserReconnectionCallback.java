@@ -0,0 +1,30 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * {@link SynchroniserSynchronisationCallback} that is also notified while a lost TS connection is re-established.
+ * Callbacks that only implement {@link SynchroniserSynchronisationCallback} receive
+ * {@link #synchronisedTimelineUnavailable()} instead.
+ */
+public interface SynchroniserReconnectionCallback extends SynchroniserSynchronisationCallback {
+
+	/**
+	 * Notifies that the TS connection was lost and is being re-established. The last correlation is kept in the
+	 * meantime, the synchronised content time stays available as a provisional value with a growing error.
+	 * {@link #synchronisedTimelineAvailable()} follows once reconnected.
+	 */
+	void synchronisedTimelineReconnecting();
+}
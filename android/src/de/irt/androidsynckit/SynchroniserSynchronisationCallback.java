@@ -32,9 +32,14 @@ public interface SynchroniserSynchronisationCallback {
 	void synchronisedTimelineAvailable();
 
 	/**
-	 * Notifies that the Synchronised timeline is no longer available. This may happen due to network errors.
+	 * Notifies that the Synchronised timeline is no longer available, i.e. synchronisation was stopped or the TS
+	 * server could not be reached at all. The {@link Synchroniser} keeps trying to connect.
 	 */
 	void synchronisedTimelineUnavailable();
 
+	/**
+	 * Notifies a new correlation of the synchronised timeline. Control Timestamps equivalent to the last reported
+	 * one are not reported unless {@link Synchroniser#setReportAllControlTimestamps(boolean)} is set.
+	 */
 	void synchronisationPropertiesChanged(boolean available, float speedMultiplier, long remoteWallclock, long remoteContentTime);
 }
@@ -0,0 +1,92 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Immutable timestamp together with the maximum error of the estimate, both in nanoseconds.
+ * <p>
+ * The true time lies within {@link #getEarliest()} and {@link #getLatest()}. A provisional time is not based on a
+ * measurement of the current run, e.g. it is extrapolated from the warm start cache, and its bounds assume that the
+ * TV kept its Wallclock and timeline since. A smoothed time may still differ from the current estimate by its
+ * residual, which is included in the error.
+ */
+public final class TimeWithError {
+
+	private final long mTime;
+	private final long mError;
+	private final boolean mProvisional;
+	private final long mResidual;
+
+	public TimeWithError(long time, long error) {
+		this(time, error, false);
+	}
+
+	public TimeWithError(long time, long error, boolean provisional) {
+		this(time, error, provisional, 0);
+	}
+
+	public TimeWithError(long time, long error, boolean provisional, long residual) {
+		mTime = time;
+		mError = error;
+		mProvisional = provisional;
+		mResidual = residual;
+	}
+
+	/**
+	 * Returns the estimated time
+	 * @return the estimated time in nanoseconds
+	 */
+	public long getTime() {
+		return mTime;
+	}
+
+	/**
+	 * Returns the maximum error of the estimated time
+	 * @return the maximum error in nanoseconds
+	 */
+	public long getError() {
+		return mError;
+	}
+
+	/**
+	 * Returns whether the time is a provisional estimate
+	 * @return {@code true} if the time is provisional
+	 */
+	public boolean isProvisional() {
+		return mProvisional;
+	}
+
+	/**
+	 * Returns the correction of a smoothed time that is still outstanding, i.e. the current estimate is
+	 * {@code getTime() + getResidual()}
+	 * @return the residual error in nanoseconds, {@code 0} if the time is not smoothed
+	 */
+	public long getResidual() {
+		return mResidual;
+	}
+
+	public long getEarliest() {
+		return mTime - mError;
+	}
+
+	public long getLatest() {
+		return mTime + mError;
+	}
+
+	@Override
+	public String toString() {
+		return mTime + " +/- " + mError + (mResidual != 0 ? " (residual " + mResidual + ")" : "") + (mProvisional ? " (provisional)" : "");
+	}
+}
@@ -16,8 +16,6 @@ package de.irt.androidsynckit;
 
 import org.json.JSONObject;
 
-import android.util.Log;
-
 /**
  * Class representing a Timeline to synchronise content with.
  * @author Fabian Sattler, IRT GmbH
@@ -28,18 +26,20 @@ public class Timeline {
 
 	private TimelineType mTimelineType;
 	private String mTimelineSelectorString;
-	private int mUnitsPerSecond;
-	private int mUnitsPerTick;
-	private int mId;
-
-	private static int nextId = 1;
+	private volatile int mUnitsPerSecond;
+	private volatile int mUnitsPerTick;
+	private final int mId;
 
-	protected Timeline(JSONObject timeLineJson) {
-		mId = nextId;
-		nextId++;
+	/**
+	 * Creates a {@link Timeline} from an entry of the timelines property of a CII message
+	 * @param id the ID of the {@link Timeline}, unique within its {@link Synchroniser}
+	 * @param timeLineJson the timeline entry
+	 */
+	protected Timeline(int id, JSONObject timeLineJson) {
+		mId = id;
 
 		mTimelineSelectorString = timeLineJson.optString("timelineSelector");
-		if(SynchroniserFactory.LOG_DEBUG)Log.d(TAG, "TimeLineSelectorType: " + mTimelineSelectorString);
+		SyncLog.d(SyncLog.Category.CII, TAG, "TimeLineSelectorType: {}", mTimelineSelectorString);
 
 		String[] selectorTypeArr = mTimelineSelectorString.split(":");
 		if(selectorTypeArr.length >= 5) {
@@ -68,8 +68,7 @@ public class Timeline {
 						int componentTag = Integer.parseInt(selectorTypeArr[5]);
 						int timelineId = Integer.parseInt(selectorTypeArr[6]);
 					} catch (NumberFormatException numExc) {
-						Log.e(TAG, "Exception parsing ComponentTag or TimelineID");
-						numExc.printStackTrace();
+						SyncLog.e(SyncLog.Category.CII, TAG, "Exception parsing ComponentTag or TimelineID", numExc);
 					}
 					break;
 				}
@@ -103,14 +102,29 @@ public class Timeline {
 			mTimelineType = TimelineType.TIMELINETYPE_UNKNOWN;
 		}
 
+		updateProperties(timeLineJson);
+	}
+
+	/**
+	 * Applies the timelineProperties of a CII timeline entry with the same selector
+	 * @param timeLineJson the timeline entry
+	 * @return {@code true} if the properties changed
+	 */
+	boolean updateProperties(JSONObject timeLineJson) {
+		int unitsPerSecond = -1;
+		int unitsPerTick = -1;
 		JSONObject timelinePropObj = timeLineJson.optJSONObject("timelineProperties");
 		if(timelinePropObj != null) {
-			mUnitsPerSecond = timelinePropObj.optInt("unitsPerSecond", -1);
-			mUnitsPerTick = timelinePropObj.optInt("unitsPerTick", -1);
-		} else {
-			mUnitsPerSecond = -1;
-			mUnitsPerTick = -1;
+			unitsPerSecond = timelinePropObj.optInt("unitsPerSecond", -1);
+			unitsPerTick = timelinePropObj.optInt("unitsPerTick", -1);
+		}
+
+		if(unitsPerSecond == mUnitsPerSecond && unitsPerTick == mUnitsPerTick) {
+			return false;
 		}
+		mUnitsPerSecond = unitsPerSecond;
+		mUnitsPerTick = unitsPerTick;
+		return true;
 	}
 
 	/**
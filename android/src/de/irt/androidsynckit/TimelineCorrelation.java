@@ -0,0 +1,200 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.math.BigInteger;
+
+/**
+ * Immutable correlation between the Wallclock and the content time of a {@link Timeline}, as announced by a
+ * Control Timestamp.
+ * <p>
+ * The content time at the correlation point is converted to nanoseconds once, exactly, and the timeline speed is
+ * held in fixed point with 32 fraction bits, which represents every float speed of 2^-9 and above exactly. The
+ * content time at a Wallclock time is then computed with integer arithmetic only. The speed product has a 128 bit
+ * intermediate, so the result is exact as long as the content time in nanoseconds fits in a {@code long}, i.e. within
+ * about 292 years of content time zero; beyond that it wraps. Content times that do not fit in nanoseconds are
+ * rejected by {@link #create(long, long, float, Timeline, boolean)}.
+ * <p>
+ * While the TS connection is lost, the last correlation is kept as a {@link #disconnected(long) disconnected} copy.
+ * It is provisional and its error grows by {@link #DISCONNECTED_DRIFT_PPM} of the time since the disconnect, which
+ * covers a drift of the TV's timeline against the Wallclock but not a pause or seek missed in that time. A
+ * correlation seeded from the warm start cache is disconnected since its own correlation point.
+ */
+final class TimelineCorrelation {
+
+	private static final int SPEED_FRACTION_BITS = 32;
+	private static final long LOW_32_BITS = 0xFFFFFFFFL;
+	private static final BigInteger NANOS_PER_SECOND = BigInteger.valueOf(1000000000L);
+
+	/** Error growth of a disconnected correlation */
+	static final long DISCONNECTED_DRIFT_PPM = 500;
+
+	private final long mWallclockTime;
+	private final long mContentTime;
+	private final float mSpeedMultiplier;
+	private final boolean mProvisional;
+	private final boolean mDisconnected;
+	private final long mDisconnectedWallclockTime;
+
+	private final long mContentTimeNanos;
+	private final long mSpeedFixed;
+
+	private TimelineCorrelation(long wallclockTime, long contentTime, float speedMultiplier, long contentTimeNanos, boolean provisional,
+			boolean disconnected, long disconnectedWallclockTime) {
+		mWallclockTime = wallclockTime;
+		mContentTime = contentTime;
+		mSpeedMultiplier = speedMultiplier;
+		mProvisional = provisional;
+		mDisconnected = disconnected;
+		mDisconnectedWallclockTime = disconnectedWallclockTime;
+		mContentTimeNanos = contentTimeNanos;
+		mSpeedFixed = Math.round(speedMultiplier * (double) (1L << SPEED_FRACTION_BITS));
+	}
+
+	/**
+	 * Creates a correlation
+	 * @param wallclockTime the Wallclock time of the correlation point in nanoseconds
+	 * @param contentTime the content time of the correlation point in ticks of the timeline
+	 * @param speedMultiplier the timeline speed multiplier
+	 * @param timeline the {@link Timeline} giving the tick rate
+	 * @param provisional whether the correlation is not yet confirmed by the TV
+	 * @return the correlation or {@code null} if the tick rate of the {@link Timeline} is unknown
+	 * @throws ArithmeticException if the content time in nanoseconds does not fit in a {@code long}
+	 */
+	static TimelineCorrelation create(long wallclockTime, long contentTime, float speedMultiplier, Timeline timeline, boolean provisional) {
+		int unitsPerSecond = timeline.getUnitsPerSecond();
+		if(unitsPerSecond <= 0) {
+			return null;
+		}
+		int unitsPerTick = timeline.getUnitsPerTick() > 0 ? timeline.getUnitsPerTick() : 1;
+
+		BigInteger contentTimeNanos = BigInteger.valueOf(contentTime).multiply(BigInteger.valueOf(unitsPerTick)).multiply(NANOS_PER_SECOND)
+				.divide(BigInteger.valueOf(unitsPerSecond));
+		return new TimelineCorrelation(wallclockTime, contentTime, speedMultiplier, toLongExact(contentTimeNanos), provisional, false, 0);
+	}
+
+	/**
+	 * Converts a content time in nanoseconds to ticks of the given {@link Timeline}, the inverse of the conversion
+	 * of the correlation point
+	 * @param contentTimeNanos the content time in nanoseconds
+	 * @param timeline the {@link Timeline} giving the tick rate, which must be known
+	 * @return the content time in ticks, truncated towards zero
+	 * @throws ArithmeticException if the content time in ticks does not fit in a {@code long}
+	 */
+	static long toTicks(long contentTimeNanos, Timeline timeline) {
+		int unitsPerSecond = timeline.getUnitsPerSecond();
+		int unitsPerTick = timeline.getUnitsPerTick() > 0 ? timeline.getUnitsPerTick() : 1;
+
+		return toLongExact(BigInteger.valueOf(contentTimeNanos).multiply(BigInteger.valueOf(unitsPerSecond))
+				.divide(BigInteger.valueOf(unitsPerTick).multiply(NANOS_PER_SECOND)));
+	}
+
+	/**
+	 * Same as {@code BigInteger.longValueExact()}, which older Android releases lack
+	 */
+	private static long toLongExact(BigInteger value) {
+		if(value.bitLength() > 63) {
+			throw new ArithmeticException("Content time out of range: " + value);
+		}
+		return value.longValue();
+	}
+
+	/**
+	 * Returns a provisional copy of this correlation to use while the TS connection is lost
+	 * @param wallclockTime the Wallclock time of the disconnect in nanoseconds
+	 * @return the disconnected correlation, this one if it already is disconnected
+	 */
+	TimelineCorrelation disconnected(long wallclockTime) {
+		if(mDisconnected) {
+			return this;
+		}
+		return new TimelineCorrelation(mWallclockTime, mContentTime, mSpeedMultiplier, mContentTimeNanos, true, true, wallclockTime);
+	}
+
+	/**
+	 * Returns the content time at the given Wallclock time
+	 * @param wallclockTime the Wallclock time in nanoseconds
+	 * @return the content time in nanoseconds
+	 */
+	long contentTimeAt(long wallclockTime) {
+		return mContentTimeNanos + multiplySpeed(wallclockTime - mWallclockTime);
+	}
+
+	/**
+	 * Returns the maximum error of the content time at the given Wallclock time
+	 * @param wallclockTime the Wallclock time in nanoseconds
+	 * @param wallclockError the maximum error of the Wallclock time in nanoseconds
+	 * @return the Wallclock error scaled by the absolute timeline speed, plus the growth since a disconnect
+	 */
+	long errorAt(long wallclockTime, long wallclockError) {
+		long error = Math.abs(multiplySpeed(wallclockError));
+		if(mDisconnected) {
+			error += Math.abs(wallclockTime - mDisconnectedWallclockTime) / 1000000L * DISCONNECTED_DRIFT_PPM;
+		}
+		return error;
+	}
+
+	/**
+	 * Returns whether the other correlation describes the same timeline progress, i.e. it has the same speed and
+	 * the same provisional state, and its correlation point lies on this correlation within the tolerance
+	 * @param other the correlation to compare to, may be {@code null}
+	 * @param toleranceNanos the maximum difference of the content time in nanoseconds
+	 * @return {@code true} if both are equivalent
+	 */
+	boolean isEquivalentTo(TimelineCorrelation other, long toleranceNanos) {
+		if(other == null || other.mSpeedFixed != mSpeedFixed || other.mProvisional != mProvisional) {
+			return false;
+		}
+		return Math.abs(contentTimeAt(other.mWallclockTime) - other.mContentTimeNanos) <= toleranceNanos;
+	}
+
+	long getWallclockTime() {
+		return mWallclockTime;
+	}
+
+	long getContentTime() {
+		return mContentTime;
+	}
+
+	float getSpeedMultiplier() {
+		return mSpeedMultiplier;
+	}
+
+	boolean isProvisional() {
+		return mProvisional;
+	}
+
+	boolean isDisconnected() {
+		return mDisconnected;
+	}
+
+	/**
+	 * Multiplies by the fixed point speed with a 128 bit intermediate product, truncating towards zero
+	 */
+	private long multiplySpeed(long value) {
+		boolean negative = (value < 0) != (mSpeedFixed < 0);
+		long a = Math.abs(value);
+		long b = Math.abs(mSpeedFixed);
+
+		long aHigh = a >>> 32;
+		long aLow = a & LOW_32_BITS;
+		long bHigh = b >>> 32;
+		long bLow = b & LOW_32_BITS;
+
+		//(a * b) >> 32 from the four partial products, the low product is unsigned
+		long result = ((aHigh * bHigh) << 32) + aHigh * bLow + aLow * bHigh + ((aLow * bLow) >>> 32);
+		return negative ? -result : result;
+	}
+}
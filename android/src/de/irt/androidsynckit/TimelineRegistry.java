@@ -0,0 +1,135 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The {@link Timeline}s announced by CII, indexed by timeline selector and by ID.
+ * <p>
+ * Every timelines property received is merged into the registry: a {@link Timeline} whose selector is announced
+ * again keeps its instance and ID and only has its properties updated, {@link Timeline}s no longer announced are
+ * removed. IDs are unique within the registry and are not reused.
+ * <p>
+ * Updates must be made by one thread at a time. Readers on other threads see immutable snapshots.
+ */
+final class TimelineRegistry {
+
+	private static final String TAG = "TimelineRegistry";
+
+	private static final class Snapshot {
+		final List<Timeline> timelines;
+		final Map<String, Timeline> bySelector;
+		final Map<Integer, Timeline> byId;
+
+		Snapshot(LinkedHashMap<String, Timeline> bySelector) {
+			List<Timeline> timelines = new ArrayList<Timeline>(bySelector.values());
+			Map<Integer, Timeline> byId = new HashMap<Integer, Timeline>();
+			for(Timeline timeline : timelines) {
+				byId.put(timeline.getId(), timeline);
+			}
+			this.timelines = Collections.unmodifiableList(timelines);
+			this.bySelector = Collections.unmodifiableMap(bySelector);
+			this.byId = Collections.unmodifiableMap(byId);
+		}
+	}
+
+	private static final Snapshot EMPTY = new Snapshot(new LinkedHashMap<String, Timeline>());
+
+	private volatile Snapshot mSnapshot = EMPTY;
+	private int mNextId = 1;
+
+	/**
+	 * Merges the timelines property of a CII message
+	 * @param timelineArr the announced timelines or {@code null} if the property was {@code null}
+	 * @return {@code true} if a {@link Timeline} was added or removed or its properties changed
+	 * @throws JSONException if an entry is not a JSON object
+	 */
+	boolean update(JSONArray timelineArr) throws JSONException {
+		Snapshot current = mSnapshot;
+		LinkedHashMap<String, Timeline> bySelector = new LinkedHashMap<String, Timeline>();
+		boolean changed = false;
+
+		if(timelineArr != null) {
+			for(int i = 0; i < timelineArr.length(); i++) {
+				JSONObject timelineObj = timelineArr.getJSONObject(i);
+				String selector = timelineObj.optString("timelineSelector");
+				if(bySelector.containsKey(selector)) {
+					SyncLog.w(SyncLog.Category.CII, TAG, "Ignoring duplicate timeline {}", selector);
+					continue;
+				}
+
+				Timeline timeline = current.bySelector.get(selector);
+				if(timeline == null) {
+					timeline = new Timeline(mNextId++, timelineObj);
+					changed = true;
+				} else if(timeline.updateProperties(timelineObj)) {
+					changed = true;
+				}
+				bySelector.put(selector, timeline);
+			}
+		}
+
+		if(bySelector.size() != current.bySelector.size()) {
+			changed = true;
+		}
+		if(changed) {
+			mSnapshot = new Snapshot(bySelector);
+		}
+		return changed;
+	}
+
+	/**
+	 * Removes all {@link Timeline}s
+	 */
+	void clear() {
+		mSnapshot = EMPTY;
+	}
+
+	/**
+	 * Returns the announced {@link Timeline}s in the order of the last CII message
+	 * @return an unmodifiable list of the {@link Timeline}s
+	 */
+	List<Timeline> getTimelines() {
+		return mSnapshot.timelines;
+	}
+
+	/**
+	 * Returns the {@link Timeline} with the given ID
+	 * @param id the ID of the {@link Timeline}
+	 * @return the {@link Timeline} or {@code null} if there is none with the given ID
+	 */
+	Timeline get(int id) {
+		return mSnapshot.byId.get(id);
+	}
+
+	/**
+	 * Returns the {@link Timeline} with the given timeline selector
+	 * @param timelineSelector the timeline selector
+	 * @return the {@link Timeline} or {@code null} if there is none with the given selector
+	 */
+	Timeline get(String timelineSelector) {
+		return mSnapshot.bySelector.get(timelineSelector);
+	}
+}
@@ -15,114 +15,343 @@
 package de.irt.androidsynckit;
 
 import java.io.IOException;
-import java.lang.Exception;
 import java.lang.Runnable;
 import java.lang.RuntimeException;
-import java.lang.Thread;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
 import java.net.URI;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.os.SystemClock;
-import android.util.Log;
 
+/**
+ * Client of the DVB-CSS Wallclock protocol that estimates the Wallclock of a TV.
+ * <p>
+ * Besides the WC server given at creation, alternative WC servers serving the same Wallclock can be added with
+ * {@link #addAlternativeServer(URI)}. Alternative servers are probed every {@link #ALTERNATIVE_PROBE_INTERVAL_MILLIS}
+ * and the estimate follows whichever server currently gives the lowest dispersion. As the dispersion of a server grows
+ * while it does not answer and a server that lost {@link #FAILOVER_LOST_RESPONSES} consecutive responses is not
+ * selected at all, the estimate fails over when the selected server goes away. The clock model slews in the
+ * difference between the servers, so a failover does not step the reported Wallclock.
+ */
 public class Wallclock {
 
 	private final String TAG = "Wallclock";
 
-	private static long NANOPART = 1000000000;
+	/** Interval in which alternative WC servers are probed */
+	static final int ALTERNATIVE_PROBE_INTERVAL_MILLIS = 5000;
+
+	/** Consecutive lost responses after which a server is considered gone until it answers again */
+	static final int FAILOVER_LOST_RESPONSES = 2;
+
+	/** Another server is selected if its dispersion is below this fraction of the dispersion of the selected server */
+	static final double SWITCH_DISPERSION_RATIO = 0.75;
 
 	private final URI mWcUri;
+	private final String mWarmStartKey;
 	private int mUpdatePeriod = 1000;
 	private boolean mIsRunning = false;
+	private boolean mWasStarted = false;
 	private boolean mIsDestroyed = false;
 
-	private Timer mUpdateTimer = null;
-	private TimerTask mUpdateTimerTask = null;
+	private WallclockIoEngine mEngine = null;
+	private final WallclockIoEngine.Task mUpdateTask;
+	private final WallclockIoEngine.Task mProbeTask;
+
+	private boolean mAdaptiveUpdate = true;
+	private final WallclockPollScheduler mPollScheduler = new WallclockPollScheduler();
+
+	private final WallclockClockModel mClockModel = new WallclockClockModel();
+
+	//All WC servers, the first one is the server given at creation
+	private final CopyOnWriteArrayList<WcUdpClient> mWcUdpClients = new CopyOnWriteArrayList<WcUdpClient>();
+	//The server the estimate currently follows. Only changed on the Wallclock worker thread.
+	private volatile WcUdpClient mWcUdpClient = null;
 
-	private WcUdpClient mWcUdpClient = null;
+	private final CopyOnWriteArrayList<Runnable> mUpdateListeners = new CopyOnWriteArrayList<Runnable>();
 
 	protected Wallclock(URI wcUdpUri, Runnable updateCallback) {
 		mWcUri = wcUdpUri;
+		mWarmStartKey = WarmStartCache.wallclockKey(wcUdpUri.getHost(), wcUdpUri.getPort());
 
-		mWcUdpClient = new WcUdpClient(mWcUri, updateCallback);
+		mEngine = WallclockIoEngine.getInstance();
 
-		mUpdateTimerTask = new TimerTask() {
+		if(updateCallback != null) {
+			mUpdateListeners.add(updateCallback);
+		}
+
+		mWcUdpClient = new WcUdpClient(mWcUri);
+		mWcUdpClients.add(mWcUdpClient);
 
+		mUpdateTask = new WallclockIoEngine.Task() {
 			@Override
 			public void run() {
-				mWcUdpClient.transmit();
+				if(mAdaptiveUpdate) {
+					mWcUdpClient.transmit();
+					synchronized (Wallclock.this) {
+						if(mIsRunning && mAdaptiveUpdate) {
+							mEngine.schedule(this, mPollScheduler.nextInterval());
+						}
+					}
+				} else {
+					mWcUdpClient.transmit();
+				}
+			}
+		};
+
+		mProbeTask = new WallclockIoEngine.Task() {
+			@Override
+			public void run() {
+				WcUdpClient selected = mWcUdpClient;
+				for(WcUdpClient client : mWcUdpClients) {
+					if(client != selected) {
+						client.transmit();
+					}
+				}
 			}
 		};
 	}
 
-	public int getCurrentUpdatePeriod() {
+	/**
+	 * Adds an alternative WC server. All servers must serve the same Wallclock, e.g. the same TV on another interface.
+	 * The servers of a Wallclock shared through the {@link WallclockPool} are part of its pool key and are only added
+	 * by the pool.
+	 * @param wcUri the URI of the alternative WC server
+	 */
+	public synchronized void addAlternativeServer(URI wcUri) {
+		if(mIsDestroyed) throw new RuntimeException("Can't add server to destroyed Wallclock");
+		for(WcUdpClient client : mWcUdpClients) {
+			if(client.isServer(wcUri)) {
+				return;
+			}
+		}
+
+		WcUdpClient client = new WcUdpClient(wcUri);
+		mWcUdpClients.add(client);
+		SyncLog.d(SyncLog.Category.WALLCLOCK, TAG, "Added alternative WC server {}", wcUri);
+		if(mIsRunning) {
+			scheduleProbes();
+		}
+	}
+
+	/**
+	 * Returns the URIs of all WC servers, starting with the one given at creation
+	 * @return the URIs of all WC servers
+	 */
+	public List<URI> getServerUris() {
+		List<URI> uris = new ArrayList<URI>();
+		for(WcUdpClient client : mWcUdpClients) {
+			uris.add(client.mUri);
+		}
+		return uris;
+	}
+
+	/**
+	 * Returns the URI of the WC server the estimate currently follows
+	 * @return the URI of the selected WC server
+	 */
+	public URI getSelectedServerUri() {
+		return mWcUdpClient.mUri;
+	}
+
+	/**
+	 * Returns the current update period. In adaptive update mode this is the current steady state interval.
+	 * @return the update period in milliseconds
+	 */
+	public synchronized int getCurrentUpdatePeriod() {
+		if(mAdaptiveUpdate) {
+			return mPollScheduler.getCurrentInterval();
+		}
 		return mUpdatePeriod;
 	}
 
-	public void setUpdatePeriod(int periodMillis) {
-		if(mUpdatePeriod != periodMillis) {
+	/**
+	 * Sets a fixed update period. This disables the adaptive update mode.
+	 * @param periodMillis the update period in milliseconds
+	 */
+	public synchronized void setUpdatePeriod(int periodMillis) {
+		if(mAdaptiveUpdate || mUpdatePeriod != periodMillis) {
+			mAdaptiveUpdate = false;
 			mUpdatePeriod = periodMillis;
 
-			resetUpdateTimer();
 			if(mIsRunning) {
-				mUpdateTimer.scheduleAtFixedRate(mUpdateTimerTask, 0, mUpdatePeriod);
+				scheduleUpdates();
+			}
+		}
+	}
+
+	/**
+	 * Enables the adaptive update mode, which is the default. A burst of requests is sent at start, after which
+	 * the update period is lengthened while the estimate is stable and shortened when it degrades or responses are lost.
+	 */
+	public synchronized void setAdaptiveUpdatePeriod() {
+		if(!mAdaptiveUpdate) {
+			mAdaptiveUpdate = true;
+
+			if(mIsRunning) {
+				scheduleUpdates();
 			}
 		}
 	}
 
-	public void start() {
+	/**
+	 * Returns whether the adaptive update mode is enabled
+	 * @return {@code true} if the update period is adaptive, {@code false} if it is fixed
+	 */
+	public synchronized boolean isAdaptiveUpdatePeriod() {
+		return mAdaptiveUpdate;
+	}
+
+	public synchronized void start() {
 		if(mIsDestroyed) throw new RuntimeException("Can't stop destroyed Wallclock");
-		if(!mIsRunning) {
+		if(!mIsRunning && mEngine != null) {
 			mIsRunning = true;
+			if(!mWasStarted) {
+				mWasStarted = true;
+				//No exchange has been made yet, so the model can be seeded from this thread
+				seedFromWarmStartCache();
+			}
 
-			resetUpdateTimer();
-			mUpdateTimer.scheduleAtFixedRate(mUpdateTimerTask, 0, mUpdatePeriod);
+			scheduleUpdates();
+			scheduleProbes();
 		}
 	}
 
-	public void stop() {
+	public synchronized void stop() {
 		if(mIsRunning) {
 			mIsRunning = false;
 
-			resetUpdateTimer();
+			mEngine.cancel(mUpdateTask);
+			mEngine.cancel(mProbeTask);
 		}
 	}
 
-	public void destroy() {
+	public synchronized void destroy() {
 		stop();
-		mWcUdpClient.destroy();
-		mUpdateTimerTask = null;
+		for(WcUdpClient client : mWcUdpClients) {
+			client.destroy();
+		}
+		mIsDestroyed = true;
 	}
 
-	private void resetUpdateTimer() {
-		if(mUpdateTimer != null) {
-			mUpdateTimer.cancel();
-			mUpdateTimer = null;
+	private void scheduleUpdates() {
+		if(mAdaptiveUpdate) {
+			mPollScheduler.reset();
+			mEngine.schedule(mUpdateTask, 0);
+		} else {
+			mEngine.scheduleAtFixedRate(mUpdateTask, 0, mUpdatePeriod);
 		}
-		if(mIsRunning) {
-			mUpdateTimer = new Timer();
+	}
+
+	private void seedFromWarmStartCache() {
+		WarmStartCache cache = WarmStartCache.getInstance();
+		if(cache == null) return;
+
+		WallclockState cached = cache.getWallclock(mWarmStartKey);
+		if(cached != null && mClockModel.seed(cached)) {
+			SyncLog.d(SyncLog.Category.CACHE, TAG, "Seeded provisional estimate with error {} ns from warm start cache", cached.getErrorAt(SystemClock.elapsedRealtimeNanos()));
+		}
+	}
+
+	private void scheduleProbes() {
+		if(mWcUdpClients.size() > 1) {
+			mEngine.scheduleAtFixedRate(mProbeTask, 0, ALTERNATIVE_PROBE_INTERVAL_MILLIS);
 		}
 	}
 
+	/**
+	 * Adds a listener that is notified every time the {@link Wallclock} receives an update
+	 * @param listener the listener
+	 */
+	public void addUpdateListener(Runnable listener) {
+		mUpdateListeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * Removes a listener added with {@link #addUpdateListener(Runnable)}
+	 * @param listener the listener
+	 */
+	public void removeUpdateListener(Runnable listener) {
+		mUpdateListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the URI of the WC server
+	 * @return the URI of the WC server
+	 */
+	public URI getWallclockUri() {
+		return mWcUri;
+	}
+
 	public boolean isRunning() {
 		return mIsRunning;
 	}
 
 	public long getCurrentOffset() {
-		return mWcUdpClient.getCurrentWcOffset();
+		return getState().getOffsetAt(SystemClock.elapsedRealtimeNanos());
+	}
+
+	/**
+	 * Returns the estimated frequency difference of the remote Wallclock relative to the local clock
+	 * @return the drift as a ratio, e.g. {@code 1e-5} for 10 ppm
+	 */
+	public double getCurrentDrift() {
+		return getState().getDrift();
 	}
 
 	public int getCurentRoundTripTime() {
-		return mWcUdpClient.getCurrentRtt();
+		return (int) getState().getRtt();
+	}
+
+	/**
+	 * Returns the number of requests sent to the WC server
+	 * @return the number of requests sent
+	 */
+	public long getRequestCount() {
+		long count = 0;
+		for(WcUdpClient client : mWcUdpClients) {
+			count += client.mInFlight.getSentCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of requests that were not answered within the timeout
+	 * @return the number of lost responses
+	 */
+	public long getLostResponseCount() {
+		long count = 0;
+		for(WcUdpClient client : mWcUdpClients) {
+			count += client.mInFlight.getLostCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of responses that were discarded because they were late, duplicated or did not match an outstanding request
+	 * @return the number of discarded responses
+	 */
+	public long getDiscardedResponseCount() {
+		long count = 0;
+		for(WcUdpClient client : mWcUdpClients) {
+			count += client.mInFlight.getDiscardedCount();
+		}
+		return count;
 	}
 
 	public long remoteToLocalWallclockTimestamp(long remoteWcTimestamp) {
-		return remoteWcTimestamp - mWcUdpClient.getCurrentWcOffset();
+		return remoteWcTimestamp - getState().getOffsetAt(SystemClock.elapsedRealtimeNanos());
+	}
+
+	/**
+	 * Converts a local timestamp to the remote Wallclock with the current estimate
+	 * @param localTimestamp the local time in nanoseconds ({@code SystemClock.elapsedRealtimeNanos()})
+	 * @return the remote Wallclock time in nanoseconds
+	 */
+	public long localToRemoteWallclockTimestamp(long localTimestamp) {
+		return getState().toRemote(localTimestamp);
 	}
 
 	public long getCurrentLocalWallclock() {
@@ -130,226 +359,271 @@ public class Wallclock {
 	}
 
 	public long getCurrentRemoteWallclock() {
-		return SystemClock.elapsedRealtimeNanos() + mWcUdpClient.getCurrentWcOffset();
+		return getState().toRemote(SystemClock.elapsedRealtimeNanos());
+	}
+
+	/**
+	 * Returns the current remote Wallclock together with its maximum error. The error grows between
+	 * exchanges with the frequency error of both clocks.
+	 * @return the remote Wallclock in nanoseconds with its error or {@code null} if the Wallclock is not synchronised yet
+	 */
+	public TimeWithError getCurrentRemoteWallclockWithError() {
+		WallclockState state = getState();
+		if(!state.isValid()) return null;
+
+		long now = SystemClock.elapsedRealtimeNanos();
+		return new TimeWithError(state.toRemote(now), state.getErrorAt(now), state.isProvisional());
 	}
 
 	public boolean isCurrentRemoteWallclockValid() {
-		return mWcUdpClient.isCurrentWcOffsetValid();
+		return getState().isValid();
 	}
 
-	private class WcUdpClient {
+	/**
+	 * Returns whether the current remote Wallclock is a provisional estimate taken from the warm start cache,
+	 * which is the case until the first response of the WC server
+	 * @return {@code true} if the estimate is provisional
+	 */
+	public boolean isCurrentRemoteWallclockProvisional() {
+		return getState().isProvisional();
+	}
+
+	/**
+	 * Returns a consistent snapshot of the current clock estimate. Wait-free, may be called from any thread.
+	 * @return the current {@link WallclockState}
+	 */
+	WallclockState getState() {
+		return mClockModel.getState();
+	}
+
+	/**
+	 * Selects the WC server with the lowest dispersion. Only called on the Wallclock worker thread. On a switch the
+	 * clock model drops the samples of the previous server and slews in any difference to the new one at
+	 * {@link WallclockClockModel#MAX_SLEW_RATE}, so a failover does not step the reported Wallclock however far the
+	 * servers disagree; the reported error covers the difference until it is slewed in.
+	 * @param now the current local time
+	 * @return {@code true} if another server was selected
+	 */
+	private boolean selectServer(long now) {
+		WcUdpClient selected = mWcUdpClient;
+		long selectedDispersion = selected.isGone() ? Long.MAX_VALUE : selected.getDispersionAt(now);
+		WcUdpClient best = selected;
+		long bestDispersion = selectedDispersion;
+		for(WcUdpClient client : mWcUdpClients) {
+			if(client.isGone()) continue;
+			long dispersion = client.getDispersionAt(now);
+			if(dispersion < bestDispersion) {
+				best = client;
+				bestDispersion = dispersion;
+			}
+		}
+
+		if(best == selected || bestDispersion >= selectedDispersion * SWITCH_DISPERSION_RATIO) {
+			return false;
+		}
+
+		SyncLog.i(SyncLog.Category.WALLCLOCK, TAG, "Switching from WC server {} to {}", selected.mUri, best.mUri);
+		mWcUdpClient = best;
+		mClockModel.switchServer();
+		synchronized (this) {
+			if(mIsRunning) {
+				//Converge quickly on the new server, the previous one is probed as an alternative from now on
+				scheduleUpdates();
+				scheduleProbes();
+			}
+		}
+		return true;
+	}
+
+	private class WcUdpClient implements WallclockIoEngine.Receiver {
 
 		private final String UDPTAG = "WcUdpClient";
 
+		private final URI mUri;
 		private final InetSocketAddress mWcAddress;
 
-		private DatagramSocket wcClientSocket = null;
+		private WallclockIoEngine.Endpoint mEndpoint = null;
 
-		private long mCurrentWcOffset = 0;
-		private boolean mCurrentWcOffsetValid = false;
-		private int mCurrentRtt = 0;
+		private final WallclockFilter mFilter = new WallclockFilter();
 
-		private Runnable mUpdateCallback;
+		private final ByteBuffer mRequestBuffer = ByteBuffer.allocateDirect(WallclockCodec.MESSAGE_SIZE);
+		private final WallclockMessage mReply = new WallclockMessage();
+		private final WallclockMessage mHeldReply = new WallclockMessage();
 
-		private Thread mReadThread = null;
+		private final WallclockIoEngine.Task mFollowUpTimeoutTask = new WallclockIoEngine.Task() {
+			@Override
+			public void run() {
+				handleExpiredFollowUps();
+			}
+		};
+
+		private final WallclockInFlightTable mInFlight = new WallclockInFlightTable();
 
-		private boolean mIsDestroyed = false;
+		private volatile boolean mIsDestroyed = false;
 
-		public WcUdpClient(URI wcUri, Runnable updateCallback) {
-			mUpdateCallback = updateCallback;
+		//Only accessed on the Wallclock worker thread
+		private int mConsecutiveLost = 0;
+
+		public WcUdpClient(URI wcUri) {
+			mUri = wcUri;
 			mWcAddress = new InetSocketAddress(wcUri.getHost(), wcUri.getPort());
-			try {
-				wcClientSocket = new DatagramSocket();
-				mReadThread = new Thread(null, new Runnable() {
-					@Override
-					public void run() {
-						try {
-							byte[] replyBuffer = new byte[32];
-							while (true) {
-								DatagramPacket replyPacket = new DatagramPacket(replyBuffer, 32);
-								wcClientSocket.receive(replyPacket);
-								if (mIsDestroyed) break;
-
-								long replyTime = SystemClock.elapsedRealtimeNanos();
-
-								byte[] replydata = replyPacket.getData();
-
-								if(replydata[0] != 0x00) {
-									if(SynchroniserFactory.LOG_DEBUG)Log.w(UDPTAG, "Wrong WC Version: " + replydata[0]);
-									return;
-								}
-
-								WallclockMessageType msgType = WallclockMessageType.getMessageTypeByValue(replydata[1]);
-								switch (msgType) {
-								case MSGTYPE_RESPONSE_NO_FOLLOWUP: {
-									parseWcMsg(replydata, replyTime);
-									break;
-								}
-								case MSGTYPE_RESPONSE_WITH_FOLLOWUP: {
-									if(SynchroniserFactory.LOG_DEBUG)Log.w(UDPTAG, "MsgResponse follow up will follow!");
-									break;
-								}
-								case MSGTYPE_RESPONSE_FOLLOWUP: {
-									if(SynchroniserFactory.LOG_DEBUG)Log.w(UDPTAG, "MsgResponse follow up data!");
-									parseWcMsg(replydata, replyTime);
-									break;
-								}
-								default:
-									break;
-								}
-							}
-						} catch (Exception e) {
-							if (!mIsDestroyed) e.printStackTrace();
-						}
-						if(SynchroniserFactory.LOG_DEBUG)Log.w(UDPTAG, "read thread finished");
-					}
-				}, "wcClientSocket read thread");
-				mReadThread.start();
-			} catch (SocketException e) {
-				e.printStackTrace();
+			if(mEngine != null) {
+				try {
+					mEndpoint = mEngine.open(mWcAddress, this);
+				} catch (IOException e) {
+					SyncLog.e(SyncLog.Category.WALLCLOCK, UDPTAG, "Cannot open socket to {}", wcUri, e);
+				}
 			}
 		}
 
-		public void transmit() {
+		@Override
+		public void onReceive(ByteBuffer packet, long replyTime) {
 			if (mIsDestroyed) return;
-			try {
-				//Request update
-				byte[] reqBuf = new byte[32];
-				reqBuf[0] = 0x00; //Version
-				reqBuf[1] = 0x00; //MsgType = Request From CSA
-				reqBuf[2] = 0x00; //Precision is an 8-bit twos-compliment signed integer log base 2 of the measurement precision
-				reqBuf[3] = 0x00; //Reserved
-
-				//MaxFreqError, not applicable for request
-				reqBuf[4] = 0x00;
-				reqBuf[5] = 0x00;
-				reqBuf[6] = 0x00;
-				reqBuf[7] = 0x00;
-
-				//This is t1. The local time the message is being sent
-				//long originTime = System.nanoTime();
-				long originTime = SystemClock.elapsedRealtimeNanos();
-				if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "OriginTime at TX: " + originTime);
-				long originTimeSecs = originTime / NANOPART;
-				long originTimeNanos = originTime % NANOPART;
-
-				//Originate TimeValue secs
-				reqBuf[8] |= ((int)originTimeSecs & 0xFF000000) >> 24;
-				reqBuf[9] |= ((int)originTimeSecs & 0x00FF0000) >> 16;
-				reqBuf[10] |= ((int)originTimeSecs & 0x0000FF00) >> 8;
-				reqBuf[11] |= ((int)originTimeSecs & 0x000000FF);
-				//Originate TimeValue nano
-				reqBuf[12] |= ((int)originTimeNanos & 0xFF000000) >> 24;
-				reqBuf[13] |= ((int)originTimeNanos & 0x00FF0000) >> 16;
-				reqBuf[14] |= ((int)originTimeNanos & 0x0000FF00) >> 8;
-				reqBuf[15] |= ((int)originTimeNanos & 0x000000FF);
-
-				//Receive TimeValue secs
-				reqBuf[16] = 0x00;
-				reqBuf[17] = 0x00;
-				reqBuf[18] = 0x00;
-				reqBuf[19] = 0x00;
-				//Receive TimeValue nano
-				reqBuf[20] = 0x00;
-				reqBuf[21] = 0x00;
-				reqBuf[22] = 0x00;
-				reqBuf[23] = 0x00;
-
-				//Transmit TimeValue secs
-				reqBuf[24] = 0x00;
-				reqBuf[25] = 0x00;
-				reqBuf[26] = 0x00;
-				reqBuf[27] = 0x00;
-				//Transmit TimeValue nano
-				reqBuf[28] = 0x00;
-				reqBuf[29] = 0x00;
-				reqBuf[30] = 0x00;
-				reqBuf[31] = 0x00;
-
-				//Send update msg
-				DatagramPacket updatePacket = new DatagramPacket(reqBuf, reqBuf.length, mWcAddress);
-				wcClientSocket.send(updatePacket);
-			} catch (IOException e) {
-				e.printStackTrace();
+
+			if(!WallclockCodec.decode(packet, mReply)) {
+				return;
+			}
+
+			mReply.responseTime = replyTime;
+
+			WallclockMessageType msgType = WallclockMessageType.getMessageTypeByValue(mReply.messageType);
+			switch (msgType) {
+			case MSGTYPE_RESPONSE_NO_FOLLOWUP: {
+				reportLost(mInFlight.expire(replyTime));
+				if(mInFlight.match(mReply.originateTime, replyTime)) {
+					handleResponse(mReply);
+				}
+				break;
+			}
+			case MSGTYPE_RESPONSE_WITH_FOLLOWUP: {
+				//Hold the response until the follow-up with the more precise transmit time arrives
+				reportLost(mInFlight.expire(replyTime));
+				if(mInFlight.hold(mReply)) {
+					mEngine.schedule(mFollowUpTimeoutTask, mInFlight.getFollowUpTimeoutMillis());
+				}
+				break;
+			}
+			case MSGTYPE_RESPONSE_FOLLOWUP: {
+				if(mInFlight.takeHeld(mReply.originateTime, mHeldReply)) {
+					//The follow-up was received later, t4 is still the time the first response arrived
+					mHeldReply.receiveTime = mReply.receiveTime;
+					mHeldReply.transmitTime = mReply.transmitTime;
+					mHeldReply.precision = mReply.precision;
+					mHeldReply.maxFreqError = mReply.maxFreqError;
+					handleResponse(mHeldReply);
+				} else if(mInFlight.match(mReply.originateTime, replyTime)) {
+					//The first response was lost, the follow-up alone still gives a valid, if less precise, measurement
+					handleResponse(mReply);
+				}
+				break;
+			}
+			default:
+				break;
+			}
+		}
+
+		private void handleExpiredFollowUps() {
+			if (mIsDestroyed) return;
+
+			//Fall back to the first response if the follow-up did not arrive
+			while(mInFlight.takeExpiredHeld(SystemClock.elapsedRealtimeNanos(), mHeldReply)) {
+				handleResponse(mHeldReply);
+			}
+			if(mInFlight.hasHeld()) {
+				mEngine.schedule(mFollowUpTimeoutTask, mInFlight.getFollowUpTimeoutMillis());
 			}
 		}
 
-		private long mLastRttTime = 0;
-		private void parseWcMsg(byte[] wcData, long replyTime) {
-			//TODO
-			// is an 8-bit twos-compliment signed integer log base 2 of the measurement precision of the Wall Clock WC Server measured in seconds
-			int precision = ~wcData[2];
-			precision = 31 - Integer.numberOfLeadingZeros(precision);
-
-			// is an unsigned 32-bit integer of the maximum frequency error of the Wall Clock at the WC Server
-			// measured in 1/256ths of parts per million (ppm).
-			// If the value of this field is N, then the maximum frequency error of the Wall Clock in the WC Server is N/256 ppm or less
-			//TODO
-			int maxFreqError = (wcData[4] & 0xFF) << 24 | (wcData[5] & 0xFF) << 16 | (wcData[6] & 0xFF) << 8 | (wcData[7]  & 0xFF);
-			maxFreqError = maxFreqError/256;
-
-			int originTimeSecs = (wcData[8] & 0xFF) << 24 | (wcData[9] & 0xFF) << 16 | (wcData[10] & 0xFF) << 8 | (wcData[11] & 0xFF);
-			int originTimeNanos = (wcData[12] & 0xFF) << 24 | (wcData[13] & 0xFF) << 16 | (wcData[14] & 0xFF) << 8 | (wcData[15] & 0xFF);
-			long originTime = (originTimeSecs*NANOPART) + originTimeNanos;
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "OriginTime:   " + originTime);
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "ReplyTime:    " + replyTime);
-
-			int receiveTimeSecs = (wcData[16] & 0xFF) << 24 | (wcData[17] & 0xFF) << 16 | (wcData[18] & 0xFF) << 8 | (wcData[19] & 0xFF);
-			int receiveTimeNanos = (wcData[20] & 0xFF) << 24 | (wcData[21] & 0xFF) << 16 | (wcData[22] & 0xFF) << 8 | (wcData[23] & 0xFF);
-			long receiveTime = (receiveTimeSecs*NANOPART) + receiveTimeNanos;
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "RemoteReceiveTime:  " + receiveTime);
-
-			int transmitTimeSecs = (wcData[24] & 0xFF) << 24 | (wcData[25] & 0xFF) << 16 | (wcData[26] & 0xFF) << 8 | (wcData[27] & 0xFF);
-			int transmitTimeNanos = (wcData[28] & 0xFF) << 24 | (wcData[29] & 0xFF) << 16 | (wcData[30] & 0xFF) << 8 | (wcData[31] & 0xFF);
-			long transmitTime = (transmitTimeSecs*NANOPART) + transmitTimeNanos;
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "RemoteTransmitTime: " + transmitTime);
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "RemoteWorkTime:     " + (transmitTime-receiveTime) );
-
-			//Offset: ((t2+t3)-(t1+t4))/2
-			//Offset: ( (receiveTime+transmitTime) - (originTime + mReplyTime) ) / 2
-			long myWc = SystemClock.elapsedRealtimeNanos() + mWcUdpClient.getCurrentWcOffset();
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "MyWallclock:  " + myWc);
-			//Log.d(UDPTAG, "MyWallcDiff:  " + (transmitTime-myWc) );
-			long lastOffset = mCurrentWcOffset;
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "Wallclock OffsetLast: " + lastOffset);
-
-			mCurrentWcOffset = ( (receiveTime + transmitTime) - (originTime + replyTime) ) / 2;
-			mCurrentWcOffsetValid = true;
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "Wallclock OffsetCurr: " + mCurrentWcOffset);
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "Wallclock OffsetDiff: " + (lastOffset - mCurrentWcOffset) + " : " + ( ((double)(lastOffset - mCurrentWcOffset)) / NANOPART) );
-
-			//RoundTripTime = (t4-t1) - (t3-t2)
-			mCurrentRtt = (int)((replyTime - originTime) - (transmitTime - receiveTime));
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "Wallclock RTT: " + mCurrentRtt);
-			if(SynchroniserFactory.LOG_DEBUG)Log.d(UDPTAG, "Wallclock RTT Time: " + mLastRttTime);
-
-			mLastRttTime = mCurrentWcOffset-mCurrentRtt;
-
-			if (mUpdateCallback != null) {
-				mUpdateCallback.run();
+		public void transmit() {
+			if (mIsDestroyed || mEndpoint == null) return;
+			synchronized (mRequestBuffer) {
+				try {
+					//This is t1. The local time the message is being sent
+					long originTime = SystemClock.elapsedRealtimeNanos();
+					WallclockCodec.encodeRequest(originTime, mRequestBuffer);
+					reportLost(mInFlight.add(originTime));
+					mEndpoint.send(mRequestBuffer);
+				} catch (IOException e) {
+					SyncLog.w(SyncLog.Category.WALLCLOCK, UDPTAG, "Error sending request to {}: {}", mUri, e.getMessage());
+				}
 			}
 		}
 
-		long getCurrentWcOffset() {
-			return mCurrentWcOffset;
+		boolean isServer(URI wcUri) {
+			return mWcAddress.equals(new InetSocketAddress(wcUri.getHost(), wcUri.getPort()));
+		}
+
+		boolean isGone() {
+			return mConsecutiveLost >= FAILOVER_LOST_RESPONSES;
+		}
+
+		long getDispersionAt(long localTime) {
+			WallclockCandidate current = mFilter.getCurrent();
+			return current != null ? current.getDispersionAt(localTime) : Long.MAX_VALUE;
 		}
 
-		public boolean isCurrentWcOffsetValid() {
-			return mCurrentWcOffsetValid;
+		private void handleResponse(WallclockMessage reply) {
+			long replyTime = reply.responseTime;
+			mConsecutiveLost = 0;
+			boolean changed = mFilter.addCandidate(reply.originateTime, reply.receiveTime, reply.transmitTime, replyTime, WallclockCandidate.precisionToNanos(reply.precision), reply.maxFreqError);
+			if(mWcUdpClients.size() > 1 && selectServer(replyTime)) {
+				changed = true;
+			}
+			if(this != mWcUdpClient) {
+				//Responses of alternative servers only feed their filter
+				return;
+			}
+
+			if(changed) {
+				WallclockState previous = mClockModel.getState();
+				mClockModel.update(mFilter.getCurrent());
+				if(!previous.isValid() || previous.isProvisional()) {
+					SyncLog.d(SyncLog.Category.WALLCLOCK, UDPTAG, "Wallclock synced");
+				}
+
+				WarmStartCache cache = WarmStartCache.getInstance();
+				if(cache != null) {
+					cache.putWallclock(mWarmStartKey, mClockModel.getState(), replyTime);
+				}
+			}
+
+			if(mFilter.getCurrent() != null) {
+				mPollScheduler.onResponse(mFilter.getLatest().getDispersion(), mFilter.getCurrent().getDispersionAt(replyTime));
+			}
+
+			for(Runnable listener : mUpdateListeners) {
+				listener.run();
+			}
 		}
 
-		int getCurrentRtt() {
-			return mCurrentRtt;
+		private void reportLost(int lostCount) {
+			if(lostCount == 0) return;
+
+			boolean wasGone = isGone();
+			mConsecutiveLost += lostCount;
+			if(this != mWcUdpClient) return;
+
+			for(int i = 0; i < lostCount; i++) {
+				mPollScheduler.onResponseLost();
+			}
+			if(!wasGone && isGone() && mWcUdpClients.size() > 1) {
+				SyncLog.i(SyncLog.Category.WALLCLOCK, UDPTAG, "WC server {} stopped answering", mUri);
+				synchronized (Wallclock.this) {
+					if(mIsRunning) {
+						//Find out quickly whether an alternative server can take over
+						mEngine.scheduleAtFixedRate(mProbeTask, 0, ALTERNATIVE_PROBE_INTERVAL_MILLIS);
+					}
+				}
+			}
 		}
 
 		void destroy() {
 			if (!mIsDestroyed) {
 				mIsDestroyed = true;
-				mReadThread = null;
-				if (wcClientSocket != null) {
-					if(SynchroniserFactory.LOG_DEBUG)Log.w(UDPTAG, "closing socket");
-					wcClientSocket.close();
-					wcClientSocket = null;
+				if (mEndpoint != null) {
+					SyncLog.d(SyncLog.Category.WALLCLOCK, UDPTAG, "closing socket");
+					mEngine.cancel(mFollowUpTimeoutTask);
+					mEndpoint.close();
 				}
 			}
 		}
@@ -0,0 +1,137 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * A single Wallclock request/response measurement (t1, t2, t3, t4) together with
+ * the precision and frequency error information needed to rate its quality.
+ * All times are in nanoseconds. Candidates are preallocated by the {@link WallclockFilter} and reused.
+ */
+final class WallclockCandidate {
+
+	/** Precision of the local clock ({@code SystemClock.elapsedRealtimeNanos()}) in nanoseconds */
+	static final long LOCAL_PRECISION_NANOS = 1000;
+
+	/** Assumed maximum frequency error of the local clock in 1/256ths of ppm (500 ppm) */
+	static final long LOCAL_MAX_FREQ_ERROR = 500 * 256;
+
+	private long mOriginTime;
+	private long mRemoteReceiveTime;
+	private long mRemoteTransmitTime;
+	private long mReplyTime;
+
+	private long mOffset;
+	private long mRtt;
+
+	private long mServerPrecisionNanos;
+	private long mServerMaxFreqError;
+
+	WallclockCandidate() {
+		//empty slot, filled by set()
+	}
+
+	WallclockCandidate(long originTime, long remoteReceiveTime, long remoteTransmitTime, long replyTime, long serverPrecisionNanos, long serverMaxFreqError) {
+		set(originTime, remoteReceiveTime, remoteTransmitTime, replyTime, serverPrecisionNanos, serverMaxFreqError);
+	}
+
+	/**
+	 * Overwrites this candidate with a new measurement, so that candidate objects can be reused
+	 */
+	void set(long originTime, long remoteReceiveTime, long remoteTransmitTime, long replyTime, long serverPrecisionNanos, long serverMaxFreqError) {
+		mOriginTime = originTime;
+		mRemoteReceiveTime = remoteReceiveTime;
+		mRemoteTransmitTime = remoteTransmitTime;
+		mReplyTime = replyTime;
+		mServerPrecisionNanos = serverPrecisionNanos;
+		mServerMaxFreqError = serverMaxFreqError;
+
+		//Offset: ((t2+t3)-(t1+t4))/2
+		mOffset = ((remoteReceiveTime + remoteTransmitTime) - (originTime + replyTime)) / 2;
+		//RoundTripTime = (t4-t1) - (t3-t2)
+		mRtt = (replyTime - originTime) - (remoteTransmitTime - remoteReceiveTime);
+	}
+
+	/**
+	 * Converts the 8-bit log base 2 precision field of a Wallclock message to nanoseconds
+	 * @param log2Precision the signed precision value in log base 2 seconds
+	 * @return the precision in nanoseconds
+	 */
+	static long precisionToNanos(int log2Precision) {
+		return (long) Math.ceil(Math.scalb(1000000000.d, log2Precision));
+	}
+
+	long getOriginTime() {
+		return mOriginTime;
+	}
+
+	long getRemoteReceiveTime() {
+		return mRemoteReceiveTime;
+	}
+
+	long getRemoteTransmitTime() {
+		return mRemoteTransmitTime;
+	}
+
+	long getReplyTime() {
+		return mReplyTime;
+	}
+
+	/**
+	 * Returns the offset to add to the local clock to obtain the remote Wallclock
+	 * @return the offset in nanoseconds
+	 */
+	long getOffset() {
+		return mOffset;
+	}
+
+	/**
+	 * Returns the round trip time, excluding the processing time at the server
+	 * @return the round trip time in nanoseconds
+	 */
+	long getRtt() {
+		return mRtt;
+	}
+
+	long getServerPrecisionNanos() {
+		return mServerPrecisionNanos;
+	}
+
+	long getServerMaxFreqError() {
+		return mServerMaxFreqError;
+	}
+
+	/**
+	 * Returns the dispersion (maximum error) of this measurement at the time it was taken
+	 * @return the dispersion in nanoseconds
+	 */
+	long getDispersion() {
+		return mRtt / 2 + mServerPrecisionNanos + LOCAL_PRECISION_NANOS;
+	}
+
+	/**
+	 * Returns the dispersion of this measurement at a later local time, including the frequency error
+	 * accumulated by both clocks since the response was received
+	 * @param localTime the local time in nanoseconds
+	 * @return the dispersion in nanoseconds
+	 */
+	long getDispersionAt(long localTime) {
+		long age = localTime - mReplyTime;
+		if(age < 0) {
+			age = 0;
+		}
+		long freqError = mServerMaxFreqError + LOCAL_MAX_FREQ_ERROR;
+		return getDispersion() + (long)(age * (freqError / 256000000.d));
+	}
+}
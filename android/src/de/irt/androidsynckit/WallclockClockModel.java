@@ -0,0 +1,193 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Offset plus drift model of the remote Wallclock relative to the local clock.
+ * <p>
+ * The model fits {@code offset(t) = offset + drift * (t - t0)} with a weighted linear regression over the
+ * most recent selected {@link WallclockCandidate}s, each weighted by the inverse square of its dispersion.
+ * Between exchanges the remote Wallclock is extrapolated along that line.
+ * <p>
+ * When a new fit disagrees with the currently reported offset, the difference is slewed in at no more than
+ * {@link #MAX_SLEW_RATE} so that the reported remote Wallclock stays continuous and monotonic. Only
+ * differences larger than {@link #STEP_THRESHOLD_NANOS}, the first measurement and the first measurement after a
+ * provisional {@link #seed(WallclockState)} are applied as a step. After {@link #switchServer()} any difference is
+ * slewed in.
+ * <p>
+ * {@link #update(WallclockCandidate)} and {@link #seed(WallclockState)} must only be called from one thread at a time. The result of each update is
+ * published as an immutable {@link WallclockState} that can be read from any thread without locking.
+ */
+final class WallclockClockModel {
+
+	static final int DEFAULT_HISTORY_SIZE = 16;
+
+	/** Maximum rate at which an offset correction is slewed in (500 ppm) */
+	static final double MAX_SLEW_RATE = 500e-6;
+
+	/** Maximum drift the model will accept (500 ppm) */
+	static final double MAX_DRIFT = 500e-6;
+
+	/** Corrections larger than this are applied immediately */
+	static final long STEP_THRESHOLD_NANOS = 20000000;
+
+	/** Minimum time span of the history before a drift is estimated */
+	static final long MIN_DRIFT_SPAN_NANOS = 2000000000L;
+
+	private final long[] mSampleTimes;
+	private final long[] mSampleOffsets;
+	private final double[] mSampleWeights;
+	private final long[] mSampleDispersions;
+	private int mNextIndex = 0;
+	private int mCount = 0;
+	private boolean mSlewingToNewServer = false;
+
+	private volatile WallclockState mState = WallclockState.INVALID;
+
+	WallclockClockModel() {
+		this(DEFAULT_HISTORY_SIZE);
+	}
+
+	WallclockClockModel(int historySize) {
+		if(historySize < 2) throw new IllegalArgumentException("Clock model history must hold at least 2 samples");
+		mSampleTimes = new long[historySize];
+		mSampleOffsets = new long[historySize];
+		mSampleWeights = new double[historySize];
+		mSampleDispersions = new long[historySize];
+	}
+
+	/**
+	 * Adds a selected measurement to the model and refits offset and drift
+	 * @param candidate the measurement selected by the {@link WallclockFilter}
+	 */
+	void update(WallclockCandidate candidate) {
+		//The offset is measured halfway between sending the request and receiving the response
+		long sampleTime = candidate.getOriginTime() + (candidate.getReplyTime() - candidate.getOriginTime()) / 2;
+		double dispersion = Math.max(1, candidate.getDispersion());
+
+		mSampleTimes[mNextIndex] = sampleTime;
+		mSampleOffsets[mNextIndex] = candidate.getOffset();
+		mSampleWeights[mNextIndex] = 1.d / (dispersion * dispersion);
+		mSampleDispersions[mNextIndex] = candidate.getDispersion();
+		mNextIndex = (mNextIndex + 1) % mSampleTimes.length;
+		if(mCount < mSampleTimes.length) {
+			mCount++;
+		}
+
+		//Weighted least squares, relative to the newest sample for numerical stability
+		double sumW = 0, sumX = 0, sumY = 0;
+		long minTime = sampleTime;
+		for(int i = 0; i < mCount; i++) {
+			double w = mSampleWeights[i];
+			sumW += w;
+			sumX += w * (mSampleTimes[i] - sampleTime);
+			sumY += w * (mSampleOffsets[i] - candidate.getOffset());
+			if(mSampleTimes[i] < minTime) {
+				minTime = mSampleTimes[i];
+			}
+		}
+		double meanX = sumX / sumW;
+		double meanY = sumY / sumW;
+
+		double drift = 0;
+		if(mCount > 1 && sampleTime - minTime >= MIN_DRIFT_SPAN_NANOS) {
+			double sxy = 0, sxx = 0;
+			for(int i = 0; i < mCount; i++) {
+				double dx = (mSampleTimes[i] - sampleTime) - meanX;
+				double dy = (mSampleOffsets[i] - candidate.getOffset()) - meanY;
+				sxy += mSampleWeights[i] * dx * dy;
+				sxx += mSampleWeights[i] * dx * dx;
+			}
+			if(sxx > 0) {
+				drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, sxy / sxx));
+			}
+		}
+
+		//Fitted offset at the time the response was received
+		long now = candidate.getReplyTime();
+		long targetOffset = candidate.getOffset() + (long)(meanY + drift * ((now - sampleTime) - meanX));
+
+		//The fit is a weighted mean of the samples, so its error is bounded by the weighted mean of their dispersions at this time
+		long maxFreqError = candidate.getServerMaxFreqError() + WallclockCandidate.LOCAL_MAX_FREQ_ERROR;
+		double freqError = maxFreqError / 256000000.d;
+		double sumDispersion = 0;
+		for(int i = 0; i < mCount; i++) {
+			sumDispersion += mSampleWeights[i] * (mSampleDispersions[i] + Math.abs(now - mSampleTimes[i]) * freqError);
+		}
+		long fitDispersion = Math.max(candidate.getDispersion(), (long)(sumDispersion / sumW));
+
+		WallclockState previous = mState;
+		long baseOffset = targetOffset;
+		long correction = 0;
+		if(previous.isValid() && !previous.isProvisional()) {
+			long reportedOffset = previous.getOffsetAt(now);
+			boolean withinThreshold = Math.abs(targetOffset - reportedOffset) <= STEP_THRESHOLD_NANOS;
+			if(withinThreshold) {
+				mSlewingToNewServer = false;
+			}
+			if(withinThreshold || mSlewingToNewServer) {
+				//Continue from the reported offset and slew in the difference
+				baseOffset = reportedOffset;
+				correction = targetOffset - reportedOffset;
+			}
+		}
+
+		mState = new WallclockState(true, now, baseOffset, drift, correction, MAX_SLEW_RATE, candidate.getRtt(), candidate.getReplyTime(),
+				fitDispersion, maxFreqError, false);
+	}
+
+	/**
+	 * Prepares the model for the measurements of another server of the same Wallclock. The samples of the previous
+	 * server are discarded, as a constant offset between the servers would otherwise be fitted as drift, and the
+	 * measurements of the new server are slewed in from the reported offset however large the difference is, until
+	 * the reported offset is within {@link #STEP_THRESHOLD_NANOS} of them.
+	 * The reported Wallclock therefore never steps on a failover, and its error includes the correction not slewed
+	 * in yet until it has caught up.
+	 */
+	void switchServer() {
+		mNextIndex = 0;
+		mCount = 0;
+		mSlewingToNewServer = mState.isValid() && !mState.isProvisional();
+	}
+
+	/**
+	 * Publishes a provisional state, e.g. a cached estimate, if no measurement was made yet. The first
+	 * measurement replaces the provisional state with a step; it is never slewed towards, since the cached
+	 * estimate may be arbitrarily stale.
+	 * @param state the provisional state
+	 * @return {@code true} if the state was published
+	 */
+	boolean seed(WallclockState state) {
+		if(mState.isValid()) return false;
+
+		mState = state;
+		return true;
+	}
+
+	/**
+	 * Returns the latest published state. May be called from any thread.
+	 * @return the current {@link WallclockState}
+	 */
+	WallclockState getState() {
+		return mState;
+	}
+
+	void reset() {
+		mNextIndex = 0;
+		mCount = 0;
+		mSlewingToNewServer = false;
+		mState = WallclockState.INVALID;
+	}
+}
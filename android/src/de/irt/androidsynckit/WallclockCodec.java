@@ -0,0 +1,100 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation free encoder and decoder for the 32 byte DVB-CSS Wallclock protocol message.
+ * <p>
+ * Time values are transmitted as an unsigned 32-bit seconds part followed by an unsigned 32-bit
+ * nanoseconds part, both in network byte order.
+ */
+final class WallclockCodec {
+
+	static final int MESSAGE_SIZE = 32;
+	static final int PROTOCOL_VERSION = 0;
+
+	private static final long NANOPART = 1000000000L;
+	private static final long UINT32_MASK = 0xFFFFFFFFL;
+
+	private WallclockCodec() {
+		//nada
+	}
+
+	/**
+	 * Encodes a message into the given buffer. The buffer is cleared first and flipped afterwards, so it is ready to be sent.
+	 * @param msg the message to encode
+	 * @param dst the buffer to encode into, with at least {@link #MESSAGE_SIZE} bytes capacity
+	 */
+	static void encode(WallclockMessage msg, ByteBuffer dst) {
+		dst.clear();
+		dst.put((byte) PROTOCOL_VERSION);
+		dst.put((byte) msg.messageType);
+		dst.put((byte) msg.precision);
+		dst.put((byte) 0x00); //Reserved
+		dst.putInt((int) msg.maxFreqError);
+		putTime(dst, msg.originateTime);
+		putTime(dst, msg.receiveTime);
+		putTime(dst, msg.transmitTime);
+		dst.flip();
+	}
+
+	/**
+	 * Encodes a request message from the CSA into the given buffer, ready to be sent.
+	 * @param originateTime t1, the local time the request is sent
+	 * @param dst the buffer to encode into, with at least {@link #MESSAGE_SIZE} bytes capacity
+	 */
+	static void encodeRequest(long originateTime, ByteBuffer dst) {
+		dst.clear();
+		dst.putInt(0); //Version, MsgType = Request from CSA, Precision, Reserved
+		dst.putInt(0); //MaxFreqError, not applicable for request
+		putTime(dst, originateTime);
+		dst.putLong(0); //Receive TimeValue
+		dst.putLong(0); //Transmit TimeValue
+		dst.flip();
+	}
+
+	/**
+	 * Decodes a message from the given buffer without changing its position.
+	 * @param src the buffer holding the received message between its position and limit
+	 * @param msg the message to decode into
+	 * @return {@code true} if the message was decoded, {@code false} if it is too short or of an unsupported protocol version
+	 */
+	static boolean decode(ByteBuffer src, WallclockMessage msg) {
+		int base = src.position();
+		if(src.remaining() < MESSAGE_SIZE || src.get(base) != PROTOCOL_VERSION) {
+			return false;
+		}
+		msg.messageType = src.get(base + 1);
+		msg.precision = src.get(base + 2);
+		msg.maxFreqError = src.getInt(base + 4) & UINT32_MASK;
+		msg.originateTime = getTime(src, base + 8);
+		msg.receiveTime = getTime(src, base + 16);
+		msg.transmitTime = getTime(src, base + 24);
+		return true;
+	}
+
+	private static void putTime(ByteBuffer dst, long time) {
+		dst.putInt((int) (time / NANOPART));
+		dst.putInt((int) (time % NANOPART));
+	}
+
+	private static long getTime(ByteBuffer src, int index) {
+		long secs = src.getInt(index) & UINT32_MASK;
+		long nanos = src.getInt(index + 4) & UINT32_MASK;
+		return secs * NANOPART + nanos;
+	}
+}
@@ -0,0 +1,110 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Windowed lowest dispersion candidate filter for the Wallclock offset estimation.
+ * <p>
+ * The filter keeps the last N measurements in preallocated {@link WallclockCandidate}s and selects the one
+ * with the lowest dispersion at the time of the newest measurement. A new measurement that is worse than the current
+ * estimate does not replace it; the current estimate is held until its dispersion, which grows with
+ * its age, exceeds that of a newer candidate or it drops out of the window.
+ */
+final class WallclockFilter {
+
+	static final int DEFAULT_WINDOW_SIZE = 8;
+
+	private final WallclockCandidate[] mWindow;
+	private int mNextIndex = 0;
+	private int mCount = 0;
+
+	private int mCurrentIndex = -1;
+	private int mLatestIndex = -1;
+
+	WallclockFilter() {
+		this(DEFAULT_WINDOW_SIZE);
+	}
+
+	WallclockFilter(int windowSize) {
+		if(windowSize < 1) throw new IllegalArgumentException("Filter window size must be at least 1");
+		mWindow = new WallclockCandidate[windowSize];
+		for(int i = 0; i < windowSize; i++) {
+			mWindow[i] = new WallclockCandidate();
+		}
+	}
+
+	/**
+	 * Adds a new measurement to the filter. The measurement is stored in a preallocated {@link WallclockCandidate}.
+	 * @return {@code true} if the selected estimate changed
+	 */
+	boolean addCandidate(long originTime, long remoteReceiveTime, long remoteTransmitTime, long replyTime, long serverPrecisionNanos, long serverMaxFreqError) {
+		if((replyTime - originTime) - (remoteTransmitTime - remoteReceiveTime) < 0) {
+			//Inconsistent timestamps, cannot be a valid measurement
+			return false;
+		}
+
+		int index = mNextIndex;
+		mWindow[index].set(originTime, remoteReceiveTime, remoteTransmitTime, replyTime, serverPrecisionNanos, serverMaxFreqError);
+		mLatestIndex = index;
+		mNextIndex = (mNextIndex + 1) % mWindow.length;
+		if(mCount < mWindow.length) {
+			mCount++;
+		}
+
+		int bestIndex = -1;
+		long bestDispersion = Long.MAX_VALUE;
+		for(int i = 0; i < mCount; i++) {
+			long dispersion = mWindow[i].getDispersionAt(replyTime);
+			if(dispersion < bestDispersion) {
+				bestDispersion = dispersion;
+				bestIndex = i;
+			}
+		}
+
+		//The slot of the previous estimate may just have been overwritten by the new measurement
+		if(bestIndex != mCurrentIndex || bestIndex == index) {
+			mCurrentIndex = bestIndex;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the currently selected candidate
+	 * @return the currently selected candidate or {@code null} if no valid measurement was made yet
+	 */
+	WallclockCandidate getCurrent() {
+		return mCurrentIndex >= 0 ? mWindow[mCurrentIndex] : null;
+	}
+
+	/**
+	 * Returns the most recently added valid measurement
+	 * @return the most recently added candidate or {@code null} if no valid measurement was made yet
+	 */
+	WallclockCandidate getLatest() {
+		return mLatestIndex >= 0 ? mWindow[mLatestIndex] : null;
+	}
+
+	int getWindowSize() {
+		return mWindow.length;
+	}
+
+	void reset() {
+		mNextIndex = 0;
+		mCount = 0;
+		mCurrentIndex = -1;
+		mLatestIndex = -1;
+	}
+}
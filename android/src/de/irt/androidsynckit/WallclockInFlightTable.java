@@ -0,0 +1,235 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Bounded table of outstanding Wallclock requests, keyed by their originate timestamp.
+ * <p>
+ * A response is only accepted if it echoes the originate timestamp of a request that is still outstanding.
+ * Each request is matched at most once, so duplicated responses, responses to unknown requests and
+ * responses arriving after {@link #DEFAULT_TIMEOUT_MILLIS} are discarded. Requests that time out or are
+ * evicted from a full table count as lost.
+ * <p>
+ * For a response that will be followed by a follow-up response the first response is held in the table,
+ * see {@link #hold(WallclockMessage)}, until the follow-up arrives or {@link #DEFAULT_FOLLOWUP_TIMEOUT_MILLIS} passes.
+ */
+final class WallclockInFlightTable {
+
+	static final int DEFAULT_CAPACITY = 16;
+	static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+	static final long DEFAULT_FOLLOWUP_TIMEOUT_MILLIS = 250;
+
+	private final long[] mOriginTimes;
+	private final boolean[] mUsed;
+	private final WallclockMessage[] mHeld;
+	private final boolean[] mIsHeld;
+	private final long mTimeoutNanos;
+	private final long mFollowUpTimeoutNanos;
+
+	private long mSentCount = 0;
+	private long mMatchedCount = 0;
+	private long mLostCount = 0;
+	private long mDiscardedCount = 0;
+
+	WallclockInFlightTable() {
+		this(DEFAULT_CAPACITY, DEFAULT_TIMEOUT_MILLIS, DEFAULT_FOLLOWUP_TIMEOUT_MILLIS);
+	}
+
+	WallclockInFlightTable(int capacity, long timeoutMillis, long followUpTimeoutMillis) {
+		if(capacity < 1) throw new IllegalArgumentException("In-flight table capacity must be at least 1");
+		mOriginTimes = new long[capacity];
+		mUsed = new boolean[capacity];
+		mHeld = new WallclockMessage[capacity];
+		mIsHeld = new boolean[capacity];
+		for(int i = 0; i < capacity; i++) {
+			mHeld[i] = new WallclockMessage();
+		}
+		mTimeoutNanos = timeoutMillis * 1000000L;
+		mFollowUpTimeoutNanos = followUpTimeoutMillis * 1000000L;
+	}
+
+	/**
+	 * Records a sent request. If the table is full the oldest outstanding request is evicted and counted as lost.
+	 * @param originTime the originate timestamp (t1) of the request
+	 * @return the number of requests that were expired or evicted
+	 */
+	synchronized int add(long originTime) {
+		int lost = expire(originTime);
+
+		int slot = -1;
+		int oldest = 0;
+		for(int i = 0; i < mUsed.length; i++) {
+			if(!mUsed[i]) {
+				slot = i;
+				break;
+			}
+			//Compared by difference, the local clock may wrap around
+			if(mOriginTimes[i] - mOriginTimes[oldest] < 0) {
+				oldest = i;
+			}
+		}
+		if(slot < 0) {
+			slot = oldest;
+			mLostCount++;
+			lost++;
+		}
+
+		mOriginTimes[slot] = originTime;
+		mUsed[slot] = true;
+		mIsHeld[slot] = false;
+		mSentCount++;
+		return lost;
+	}
+
+	/**
+	 * Matches a response against the outstanding requests and removes the matched request
+	 * @param originTime the originate timestamp echoed in the response
+	 * @param replyTime the local time the response was received
+	 * @return {@code true} if the response answers an outstanding request, {@code false} if it must be discarded
+	 */
+	synchronized boolean match(long originTime, long replyTime) {
+		for(int i = 0; i < mUsed.length; i++) {
+			if(mUsed[i] && !mIsHeld[i] && mOriginTimes[i] == originTime) {
+				mUsed[i] = false;
+				if(replyTime - originTime > mTimeoutNanos) {
+					mLostCount++;
+					mDiscardedCount++;
+					return false;
+				}
+				mMatchedCount++;
+				return true;
+			}
+		}
+		mDiscardedCount++;
+		return false;
+	}
+
+	/**
+	 * Matches a response that will be followed by a follow-up response and holds it until the follow-up arrives
+	 * @param response the response, including its {@code responseTime}
+	 * @return {@code true} if the response answers an outstanding request and is now held, {@code false} if it must be discarded
+	 */
+	synchronized boolean hold(WallclockMessage response) {
+		for(int i = 0; i < mUsed.length; i++) {
+			if(mUsed[i] && !mIsHeld[i] && mOriginTimes[i] == response.originateTime) {
+				if(response.responseTime - response.originateTime > mTimeoutNanos) {
+					mUsed[i] = false;
+					mLostCount++;
+					mDiscardedCount++;
+					return false;
+				}
+				mHeld[i].copyFrom(response);
+				mIsHeld[i] = true;
+				mMatchedCount++;
+				return true;
+			}
+		}
+		mDiscardedCount++;
+		return false;
+	}
+
+	/**
+	 * Takes the held response a follow-up response belongs to out of the table
+	 * @param originTime the originate timestamp echoed in the follow-up response
+	 * @param heldOut receives the held response
+	 * @return {@code true} if a held response was found
+	 */
+	synchronized boolean takeHeld(long originTime, WallclockMessage heldOut) {
+		for(int i = 0; i < mUsed.length; i++) {
+			if(mUsed[i] && mIsHeld[i] && mOriginTimes[i] == originTime) {
+				heldOut.copyFrom(mHeld[i]);
+				mUsed[i] = false;
+				mIsHeld[i] = false;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Takes a held response whose follow-up did not arrive in time out of the table
+	 * @param now the current local time
+	 * @param heldOut receives the held response
+	 * @return {@code true} if an expired held response was found, call again until {@code false} is returned
+	 */
+	synchronized boolean takeExpiredHeld(long now, WallclockMessage heldOut) {
+		for(int i = 0; i < mUsed.length; i++) {
+			if(mUsed[i] && mIsHeld[i] && now - mHeld[i].responseTime > mFollowUpTimeoutNanos) {
+				heldOut.copyFrom(mHeld[i]);
+				mUsed[i] = false;
+				mIsHeld[i] = false;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether any response is held waiting for its follow-up
+	 * @return {@code true} if a response is held
+	 */
+	synchronized boolean hasHeld() {
+		for(int i = 0; i < mUsed.length; i++) {
+			if(mUsed[i] && mIsHeld[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	long getFollowUpTimeoutMillis() {
+		return mFollowUpTimeoutNanos / 1000000L;
+	}
+
+	/**
+	 * Removes all requests that have not been answered in time
+	 * @param now the current local time
+	 * @return the number of expired requests
+	 */
+	synchronized int expire(long now) {
+		int expired = 0;
+		for(int i = 0; i < mUsed.length; i++) {
+			if(mUsed[i] && !mIsHeld[i] && now - mOriginTimes[i] > mTimeoutNanos) {
+				mUsed[i] = false;
+				mLostCount++;
+				expired++;
+			}
+		}
+		return expired;
+	}
+
+	synchronized void clear() {
+		for(int i = 0; i < mUsed.length; i++) {
+			mUsed[i] = false;
+			mIsHeld[i] = false;
+		}
+	}
+
+	synchronized long getSentCount() {
+		return mSentCount;
+	}
+
+	synchronized long getMatchedCount() {
+		return mMatchedCount;
+	}
+
+	synchronized long getLostCount() {
+		return mLostCount;
+	}
+
+	synchronized long getDiscardedCount() {
+		return mDiscardedCount;
+	}
+}
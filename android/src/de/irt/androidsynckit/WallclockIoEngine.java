@@ -0,0 +1,331 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import android.os.SystemClock;
+
+/**
+ * Process wide I/O engine for all {@link Wallclock}s.
+ * <p>
+ * The datagrams are received on the {@link PacketChannel}s of the {@link PacketChannelFactory} set in
+ * {@link SynchroniserFactory}, by default on the single receive thread of the {@link NioPacketChannelFactory}. The
+ * receiving thread only copies each timestamped datagram into a slot of a preallocated ring, so that the timestamps
+ * are not delayed by the processing of earlier datagrams.
+ * <p>
+ * A single worker thread, regardless of the number of {@link Synchroniser}s, drains the ring into the
+ * {@link Receiver}s and runs the request schedules from a priority queue of {@link Task}s. Receivers and tasks are
+ * called on the worker thread and must not block. If the ring is full, further datagrams are dropped and reported as
+ * lost by the in-flight tracking of the client.
+ */
+final class WallclockIoEngine {
+
+	private static final String TAG = "WallclockIoEngine";
+
+	/** Number of datagrams the ring between receive and worker thread can hold, a power of two */
+	static final int RING_SIZE = 64;
+
+	private static WallclockIoEngine sInstance = null;
+
+	/**
+	 * Receives the datagrams of an {@link Endpoint}
+	 */
+	interface Receiver {
+
+		/**
+		 * Called on the worker thread for every received datagram
+		 * @param packet the datagram between position and limit, only valid for the duration of the call
+		 * @param receiveTime the local time the datagram was read in nanoseconds
+		 */
+		void onReceive(ByteBuffer packet, long receiveTime);
+	}
+
+	/**
+	 * A reusable unit of work run on the worker thread, see {@link WallclockIoEngine#schedule(Task, long)}
+	 */
+	abstract static class Task implements Comparable<Task> {
+
+		private long mDueTime;
+		private long mPeriod;
+		private boolean mQueued = false;
+
+		public abstract void run();
+
+		@Override
+		public int compareTo(Task other) {
+			return mDueTime < other.mDueTime ? -1 : (mDueTime == other.mDueTime ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A {@link PacketChannel} registered with the engine and connected to a single remote address
+	 */
+	final class Endpoint implements PacketChannel.Receiver {
+
+		private final Receiver mReceiver;
+		private PacketChannel mChannel;
+
+		private Endpoint(Receiver receiver) {
+			mReceiver = receiver;
+		}
+
+		@Override
+		public void onReceive(PacketChannel channel, ByteBuffer packet, long receiveTime) {
+			enqueue(this, packet, receiveTime);
+		}
+
+		/**
+		 * Sends the datagram between the buffer's position and limit. May be called from any thread.
+		 * @param packet the datagram to send
+		 * @throws IOException if sending failed
+		 */
+		void send(ByteBuffer packet) throws IOException {
+			mChannel.send(packet);
+		}
+
+		/**
+		 * Closes the channel, no datagrams are passed to the receiver afterwards
+		 */
+		void close() {
+			mChannel.close();
+		}
+	}
+
+	private final Thread mWorkerThread;
+
+	private final Object mLock = new Object();
+	private final PriorityQueue<Task> mTasks = new PriorityQueue<Task>();
+
+	//Ring between the receiving threads and the worker thread. Slots below mRingHead are written by the receiving
+	//threads one at a time under mRingProducerLock, slots from mRingTail on are read by the worker thread. Publishing
+	//through the volatile indices orders the slot contents.
+	private final Object mRingProducerLock = new Object();
+	private final ByteBuffer[] mRingPackets = new ByteBuffer[RING_SIZE];
+	private final long[] mRingTimes = new long[RING_SIZE];
+	private final Endpoint[] mRingEndpoints = new Endpoint[RING_SIZE];
+	private volatile long mRingHead = 0;
+	private volatile long mRingTail = 0;
+	private volatile long mDroppedCount = 0;
+
+	/**
+	 * Returns the process wide engine, starting it if necessary
+	 * @return the engine
+	 */
+	static synchronized WallclockIoEngine getInstance() {
+		if(sInstance == null) {
+			sInstance = new WallclockIoEngine();
+		}
+		return sInstance;
+	}
+
+	private WallclockIoEngine() {
+		ByteBuffer slab = ByteBuffer.allocateDirect(RING_SIZE * WallclockCodec.MESSAGE_SIZE);
+		for(int i = 0; i < RING_SIZE; i++) {
+			slab.limit((i + 1) * WallclockCodec.MESSAGE_SIZE);
+			slab.position(i * WallclockCodec.MESSAGE_SIZE);
+			mRingPackets[i] = slab.slice();
+		}
+
+		mWorkerThread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				workerLoop();
+			}
+		}, "Wallclock worker thread");
+		mWorkerThread.setDaemon(true);
+		mWorkerThread.start();
+	}
+
+	/**
+	 * Opens a {@link PacketChannel} to the given address and registers it with the engine
+	 * @param remoteAddress the address of the WC server
+	 * @param receiver the receiver for datagrams from the WC server
+	 * @return the registered {@link Endpoint}
+	 * @throws IOException if the channel cannot be opened
+	 */
+	Endpoint open(InetSocketAddress remoteAddress, Receiver receiver) throws IOException {
+		Endpoint endpoint = new Endpoint(receiver);
+		endpoint.mChannel = SynchroniserFactory.getPacketChannelFactory().open(remoteAddress, endpoint);
+		return endpoint;
+	}
+
+	/**
+	 * Returns the number of datagrams dropped because the worker thread fell behind
+	 * @return the number of dropped datagrams
+	 */
+	long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * Schedules a task to run once on the worker thread, replacing any previous schedule of the task
+	 * @param task the task
+	 * @param delayMillis the delay in milliseconds
+	 */
+	void schedule(Task task, long delayMillis) {
+		enqueue(task, delayMillis, 0);
+	}
+
+	/**
+	 * Schedules a task to run repeatedly at a fixed rate on the worker thread, replacing any previous schedule of the task
+	 * @param task the task
+	 * @param delayMillis the delay until the first run in milliseconds
+	 * @param periodMillis the period in milliseconds
+	 */
+	void scheduleAtFixedRate(Task task, long delayMillis, long periodMillis) {
+		if(periodMillis <= 0) throw new IllegalArgumentException("Period must be positive");
+		enqueue(task, delayMillis, periodMillis);
+	}
+
+	/**
+	 * Removes a task from the schedule. A run that is already in progress is completed.
+	 * @param task the task
+	 */
+	void cancel(Task task) {
+		synchronized (mLock) {
+			if(task.mQueued) {
+				mTasks.remove(task);
+				task.mQueued = false;
+			}
+		}
+	}
+
+	private void enqueue(Task task, long delayMillis, long periodMillis) {
+		boolean wakeup;
+		synchronized (mLock) {
+			if(task.mQueued) {
+				mTasks.remove(task);
+			}
+			task.mDueTime = SystemClock.elapsedRealtimeNanos() + delayMillis * 1000000L;
+			task.mPeriod = periodMillis * 1000000L;
+			task.mQueued = true;
+			mTasks.add(task);
+			wakeup = mTasks.peek() == task && Thread.currentThread() != mWorkerThread;
+		}
+		if(wakeup) {
+			LockSupport.unpark(mWorkerThread);
+		}
+	}
+
+	/**
+	 * Runs all due tasks
+	 * @return the time until the next task is due in nanoseconds, {@code 0} if no task is scheduled
+	 */
+	private long runDueTasks() {
+		while(true) {
+			Task task;
+			synchronized (mLock) {
+				task = mTasks.peek();
+				if(task == null) {
+					return 0;
+				}
+				long now = SystemClock.elapsedRealtimeNanos();
+				if(task.mDueTime > now) {
+					return task.mDueTime - now;
+				}
+				mTasks.poll();
+				if(task.mPeriod > 0) {
+					//Requeue before running so that the task can cancel or reschedule itself
+					task.mDueTime = Math.max(task.mDueTime + task.mPeriod, now);
+					mTasks.add(task);
+				} else {
+					task.mQueued = false;
+				}
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				SyncLog.e(SyncLog.Category.WALLCLOCK, TAG, "Wallclock task failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Passes all datagrams in the ring to their receivers
+	 */
+	private void drainRing() {
+		long tail = mRingTail;
+		long head = mRingHead;
+		while(tail != head) {
+			int slot = (int) (tail & (RING_SIZE - 1));
+			Endpoint endpoint = mRingEndpoints[slot];
+			mRingEndpoints[slot] = null;
+			try {
+				endpoint.mReceiver.onReceive(mRingPackets[slot], mRingTimes[slot]);
+			} catch (RuntimeException e) {
+				SyncLog.e(SyncLog.Category.WALLCLOCK, TAG, "Wallclock receiver failed", e);
+			}
+			tail++;
+			mRingTail = tail;
+			if(tail == head) {
+				head = mRingHead;
+			}
+		}
+	}
+
+	private void workerLoop() {
+		while(true) {
+			try {
+				drainRing();
+				long timeout = runDueTasks();
+				if(mRingHead != mRingTail) {
+					continue;
+				}
+				if(timeout > 0) {
+					LockSupport.parkNanos(this, timeout);
+				} else {
+					LockSupport.park(this);
+				}
+			} catch (Exception e) {
+				SyncLog.e(SyncLog.Category.WALLCLOCK, TAG, "Wallclock worker loop error", e);
+			}
+		}
+	}
+
+	/**
+	 * Copies a received datagram into the ring, called on the receiving thread of the channel
+	 */
+	private void enqueue(Endpoint endpoint, ByteBuffer packet, long receiveTime) {
+		synchronized (mRingProducerLock) {
+			long head = mRingHead;
+			if(head - mRingTail >= RING_SIZE) {
+				mDroppedCount++;
+				return;
+			}
+			int slot = (int) (head & (RING_SIZE - 1));
+			ByteBuffer buffer = mRingPackets[slot];
+			buffer.clear();
+			if(packet.remaining() > buffer.remaining()) {
+				//Not a Wallclock message, keep the leading bytes like a truncating socket read
+				int limit = packet.limit();
+				packet.limit(packet.position() + buffer.remaining());
+				buffer.put(packet);
+				packet.limit(limit);
+			} else {
+				buffer.put(packet);
+			}
+			buffer.flip();
+			mRingTimes[slot] = receiveTime;
+			mRingEndpoints[slot] = endpoint;
+			mRingHead = head + 1;
+		}
+		LockSupport.unpark(mWorkerThread);
+	}
+}
@@ -0,0 +1,64 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Mutable, reusable representation of a DVB-CSS Wallclock protocol message.
+ * Filled by {@link WallclockCodec#decode(java.nio.ByteBuffer, WallclockMessage)} so that no objects have to be
+ * allocated per received message. All time values are in nanoseconds.
+ */
+final class WallclockMessage {
+
+	/** The message type value, see {@link WallclockMessageType} */
+	int messageType;
+
+	/** 8-bit signed log base 2 of the measurement precision in seconds */
+	int precision;
+
+	/** Unsigned 32-bit maximum frequency error in 1/256ths of ppm */
+	long maxFreqError;
+
+	/** t1, the local time the request was sent */
+	long originateTime;
+
+	/** t2, the remote time the request was received */
+	long receiveTime;
+
+	/** t3, the remote time the response was sent */
+	long transmitTime;
+
+	/** t4, the local time the response was received. Not part of the encoded message. */
+	long responseTime;
+
+	void clear() {
+		messageType = WallclockMessageType.MSGTYPE_REQUEST.getMessageTypeValue();
+		precision = 0;
+		maxFreqError = 0;
+		originateTime = 0;
+		receiveTime = 0;
+		transmitTime = 0;
+		responseTime = 0;
+	}
+
+	void copyFrom(WallclockMessage other) {
+		messageType = other.messageType;
+		precision = other.precision;
+		maxFreqError = other.maxFreqError;
+		originateTime = other.originateTime;
+		receiveTime = other.receiveTime;
+		transmitTime = other.transmitTime;
+		responseTime = other.responseTime;
+	}
+}
@@ -31,6 +31,8 @@ public enum WallclockMessageType {
 	/*** Follow-up response from TV Device  */
 	MSGTYPE_RESPONSE_FOLLOWUP(3);
 
+	private static final WallclockMessageType[] sValues = values();
+
 	private final int mMsgType;
 
 	private WallclockMessageType(int messageType) {
@@ -42,7 +44,7 @@ public enum WallclockMessageType {
 	}
 
 	public static WallclockMessageType getMessageTypeByValue(int msgValue) {
-		for(WallclockMessageType msgType : WallclockMessageType.values()) {
+		for(WallclockMessageType msgType : sValues) {
 			if(msgType.getMessageTypeValue() == msgValue) {
 				return msgType;
 			}
@@ -0,0 +1,98 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Decides when the next Wallclock request is sent in adaptive update mode.
+ * <p>
+ * After a (re)start a short burst of requests is sent to obtain a first estimate quickly. The interval
+ * then starts at {@link #MIN_INTERVAL_MILLIS} and is doubled, up to {@link #MAX_INTERVAL_MILLIS}, each
+ * time {@link #STABLE_RESPONSES_TO_BACK_OFF} consecutive responses confirm the current estimate. A response
+ * with a dispersion much worse than the current estimate, or a lost response, halves the interval again.
+ */
+final class WallclockPollScheduler {
+
+	static final int BURST_COUNT = 5;
+	static final int BURST_INTERVAL_MILLIS = 100;
+	static final int MIN_INTERVAL_MILLIS = 500;
+	static final int MAX_INTERVAL_MILLIS = 8000;
+	static final int STABLE_RESPONSES_TO_BACK_OFF = 4;
+
+	/** A response is considered degraded if its dispersion exceeds the current estimate's by this factor */
+	static final int DEGRADED_DISPERSION_FACTOR = 2;
+
+	private int mBurstRemaining = BURST_COUNT;
+	private int mInterval = MIN_INTERVAL_MILLIS;
+	private int mStableResponses = 0;
+
+	/**
+	 * Restarts the scheduler with a new burst
+	 */
+	synchronized void reset() {
+		mBurstRemaining = BURST_COUNT;
+		mInterval = MIN_INTERVAL_MILLIS;
+		mStableResponses = 0;
+	}
+
+	/**
+	 * Returns the delay until the next request should be sent. Must be called once per request sent.
+	 * @return the delay in milliseconds
+	 */
+	synchronized int nextInterval() {
+		if(mBurstRemaining > 0) {
+			mBurstRemaining--;
+			return BURST_INTERVAL_MILLIS;
+		}
+		return mInterval;
+	}
+
+	/**
+	 * Returns the current steady state interval
+	 * @return the interval in milliseconds
+	 */
+	synchronized int getCurrentInterval() {
+		return mInterval;
+	}
+
+	/**
+	 * Notifies the scheduler about a response
+	 * @param sampleDispersion the dispersion of the measurement made with the response
+	 * @param estimateDispersion the current dispersion of the selected estimate
+	 */
+	synchronized void onResponse(long sampleDispersion, long estimateDispersion) {
+		if(sampleDispersion > estimateDispersion * DEGRADED_DISPERSION_FACTOR) {
+			tighten();
+			return;
+		}
+
+		mStableResponses++;
+		if(mStableResponses >= STABLE_RESPONSES_TO_BACK_OFF) {
+			mStableResponses = 0;
+			mInterval = Math.min(mInterval * 2, MAX_INTERVAL_MILLIS);
+		}
+	}
+
+	/**
+	 * Notifies the scheduler that a request was not answered
+	 */
+	synchronized void onResponseLost() {
+		tighten();
+	}
+
+	private void tighten() {
+		mStableResponses = 0;
+		mInterval = Math.max(mInterval / 2, MIN_INTERVAL_MILLIS);
+	}
+}
@@ -0,0 +1,195 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+
+/**
+ * Process wide pool of running {@link Wallclock}s, keyed by WC server endpoint and alternative WC server endpoints.
+ * <p>
+ * All {@link Synchroniser}s using the same WC servers share one reference counted {@link Wallclock}, so a
+ * Synchroniser started after the first one begins with an already converged estimate and no additional
+ * requests are sent. The Wallclock is started on the first {@link #acquire(URI, int)} and destroyed on the
+ * last {@link #release(Wallclock, int)}.
+ * <p>
+ * Alternative servers are part of the key, so a Synchroniser never follows a server it did not add. Adding an
+ * alternative server to a Wallclock that is used by others moves the caller to a Wallclock of its own.
+ * <p>
+ * If any holder requests a fixed update period, the shortest requested period is used, otherwise the
+ * Wallclock runs in adaptive update mode.
+ */
+final class WallclockPool {
+
+	private static final String TAG = "WallclockPool";
+
+	private static final Map<String, Entry> sEntries = new HashMap<String, Entry>();
+
+	private static final class Entry {
+		final String key;
+		final Wallclock wallclock;
+		final List<Integer> requestedPeriods = new ArrayList<Integer>();
+		int refCount = 0;
+
+		Entry(String key, Wallclock wallclock) {
+			this.key = key;
+			this.wallclock = wallclock;
+		}
+	}
+
+	private WallclockPool() {
+		//nada
+	}
+
+	/**
+	 * Returns the running {@link Wallclock} for the given WC servers, creating and starting it if necessary
+	 * @param wcUri the URI of the WC server
+	 * @param alternativeUris the URIs of alternative WC servers, may be empty
+	 * @param updatePeriodMillis the requested fixed update period or {@code 0} for the adaptive update mode
+	 * @return the shared {@link Wallclock}
+	 */
+	static synchronized Wallclock acquire(URI wcUri, List<URI> alternativeUris, int updatePeriodMillis) {
+		String key = keyFor(wcUri, alternativeUris);
+		Entry entry = sEntries.get(key);
+		if(entry == null) {
+			Wallclock wallclock = new Wallclock(wcUri, null);
+			for(URI alternativeUri : alternativeUris) {
+				wallclock.addAlternativeServer(alternativeUri);
+			}
+			entry = new Entry(key, wallclock);
+			sEntries.put(key, entry);
+			SyncLog.d(SyncLog.Category.WALLCLOCK, TAG, "Created Wallclock for {}", key);
+		} else {
+			SyncLog.d(SyncLog.Category.WALLCLOCK, TAG, "Sharing Wallclock for {} with {} users", key, entry.refCount);
+		}
+
+		entry.refCount++;
+		entry.requestedPeriods.add(updatePeriodMillis);
+		applyUpdatePeriod(entry);
+		entry.wallclock.start();
+		return entry.wallclock;
+	}
+
+	/**
+	 * Adds an alternative WC server for one holder of a {@link Wallclock}. A Wallclock only used by the caller gets
+	 * the server added, otherwise the caller's reference is moved to the Wallclock for the extended set of servers.
+	 * @param wallclock the {@link Wallclock} obtained with {@link #acquire(URI, List, int)}
+	 * @param alternativeUri the URI of the alternative WC server
+	 * @param updatePeriodMillis the update period given to {@link #acquire(URI, List, int)}
+	 * @return the {@link Wallclock} the caller holds from now on
+	 */
+	static synchronized Wallclock addAlternativeServer(Wallclock wallclock, URI alternativeUri, int updatePeriodMillis) {
+		Entry entry = entryFor(wallclock);
+		if(entry == null) {
+			SyncLog.w(SyncLog.Category.WALLCLOCK, TAG, "Adding server to Wallclock that is not pooled");
+			return wallclock;
+		}
+
+		List<URI> uris = wallclock.getServerUris();
+
+		List<URI> alternativeUris = new ArrayList<URI>(uris.subList(1, uris.size()));
+		alternativeUris.add(alternativeUri);
+		String key = keyFor(uris.get(0), alternativeUris);
+		if(key.equals(entry.key)) {
+			return wallclock;
+		}
+		if(entry.refCount == 1 && !sEntries.containsKey(key)) {
+			//Not shared, extend it in place and keep its estimate
+			sEntries.remove(entry.key);
+			Entry moved = new Entry(key, wallclock);
+			moved.refCount = 1;
+			moved.requestedPeriods.addAll(entry.requestedPeriods);
+			sEntries.put(key, moved);
+			wallclock.addAlternativeServer(alternativeUri);
+			return wallclock;
+		}
+
+		Wallclock extended = acquire(uris.get(0), alternativeUris, updatePeriodMillis);
+		release(wallclock, updatePeriodMillis);
+		return extended;
+	}
+
+	/**
+	 * Releases a {@link Wallclock} obtained with {@link #acquire(URI, List, int)}. The Wallclock is destroyed when it is no longer used.
+	 * @param wallclock the {@link Wallclock} to release
+	 * @param updatePeriodMillis the update period given to {@link #acquire(URI, List, int)}
+	 */
+	static synchronized void release(Wallclock wallclock, int updatePeriodMillis) {
+		Entry entry = entryFor(wallclock);
+		if(entry == null) {
+			SyncLog.w(SyncLog.Category.WALLCLOCK, TAG, "Releasing Wallclock that is not pooled");
+			return;
+		}
+
+		entry.refCount--;
+		entry.requestedPeriods.remove(Integer.valueOf(updatePeriodMillis));
+		if(entry.refCount <= 0) {
+			sEntries.remove(entry.key);
+			entry.wallclock.destroy();
+			SyncLog.d(SyncLog.Category.WALLCLOCK, TAG, "Destroyed Wallclock for {}", entry.key);
+		} else {
+			applyUpdatePeriod(entry);
+		}
+	}
+
+	private static void applyUpdatePeriod(Entry entry) {
+		int period = 0;
+		for(int requested : entry.requestedPeriods) {
+			if(requested > 0 && (period == 0 || requested < period)) {
+				period = requested;
+			}
+		}
+		if(period > 0) {
+			entry.wallclock.setUpdatePeriod(period);
+		} else {
+			entry.wallclock.setAdaptiveUpdatePeriod();
+		}
+	}
+
+	private static Entry entryFor(Wallclock wallclock) {
+		for(Entry entry : sEntries.values()) {
+			if(entry.wallclock == wallclock) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private static String keyFor(URI wcUri, List<URI> alternativeUris) {
+		String key = keyFor(wcUri);
+		//The order in which alternatives were added does not matter
+		TreeSet<String> alternativeKeys = new TreeSet<String>();
+		for(URI alternativeUri : alternativeUris) {
+			String alternativeKey = keyFor(alternativeUri);
+			if(!alternativeKey.equals(key)) {
+				alternativeKeys.add(alternativeKey);
+			}
+		}
+		StringBuilder builder = new StringBuilder(key);
+		for(String alternativeKey : alternativeKeys) {
+			builder.append(',').append(alternativeKey);
+		}
+		return builder.toString();
+	}
+
+	private static String keyFor(URI wcUri) {
+		return String.valueOf(wcUri.getHost()).toLowerCase() + ":" + wcUri.getPort();
+	}
+}
@@ -0,0 +1,188 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+/**
+ * Immutable snapshot of the estimated relation between the local clock and the remote Wallclock.
+ * <p>
+ * A new snapshot is built for every model update and published through a single volatile reference, so
+ * readers on any thread always see a consistent offset, drift, round trip time and error bound without
+ * locking. All times are in nanoseconds.
+ */
+final class WallclockState {
+
+	/** State before the first measurement */
+	static final WallclockState INVALID = new WallclockState(false, 0, 0, 0, 0, 0, 0, 0, 0, 0, false);
+
+	private final boolean mValid;
+	private final boolean mProvisional;
+
+	//Reported line: offset(t) = mBaseOffset + mDrift * (t - mBaseTime) + slewed mPendingCorrection
+	private final long mBaseTime;
+	private final long mBaseOffset;
+	private final double mDrift;
+	private final long mPendingCorrection;
+	private final double mSlewRate;
+
+	private final long mRtt;
+	private final long mSampleTime;
+	private final long mDispersion;
+	private final long mMaxFreqError;
+
+	WallclockState(boolean valid, long baseTime, long baseOffset, double drift, long pendingCorrection, double slewRate, long rtt, long sampleTime, long dispersion, long maxFreqError, boolean provisional) {
+		mValid = valid;
+		mProvisional = provisional;
+		mBaseTime = baseTime;
+		mBaseOffset = baseOffset;
+		mDrift = drift;
+		mPendingCorrection = pendingCorrection;
+		mSlewRate = slewRate;
+		mRtt = rtt;
+		mSampleTime = sampleTime;
+		mDispersion = dispersion;
+		mMaxFreqError = maxFreqError;
+	}
+
+	/**
+	 * Creates a provisional state that is not based on a measurement, e.g. a cached estimate
+	 * @param baseTime the local time the offset is given for
+	 * @param offset the offset at {@code baseTime}
+	 * @param drift the drift
+	 * @param error the maximum error at {@code baseTime}
+	 * @param maxFreqError the combined maximum frequency error of both clocks in 1/256ths of ppm
+	 * @return the provisional state
+	 */
+	static WallclockState provisional(long baseTime, long offset, double drift, long error, long maxFreqError) {
+		return new WallclockState(true, baseTime, offset, drift, 0, 0, 0, baseTime, error, maxFreqError, true);
+	}
+
+	/**
+	 * Returns whether at least one measurement was made or a provisional estimate is available
+	 * @return {@code true} if the state holds a valid estimate
+	 */
+	boolean isValid() {
+		return mValid;
+	}
+
+	/**
+	 * Returns whether the estimate is provisional, i.e. not based on a measurement of this run
+	 * @return {@code true} if the state is provisional
+	 */
+	boolean isProvisional() {
+		return mProvisional;
+	}
+
+	/**
+	 * Returns the offset to add to the local clock to obtain the remote Wallclock at the given local time
+	 * @param localTime the local time
+	 * @return the offset or {@code 0} if the state is not valid
+	 */
+	long getOffsetAt(long localTime) {
+		if(!mValid) return 0;
+
+		long elapsed = localTime - mBaseTime;
+		long offset = mBaseOffset + (long)(mDrift * elapsed);
+		if(mPendingCorrection != 0 && elapsed > 0) {
+			long slewed = (long)(mSlewRate * elapsed);
+			if(slewed >= Math.abs(mPendingCorrection)) {
+				offset += mPendingCorrection;
+			} else {
+				offset += mPendingCorrection > 0 ? slewed : -slewed;
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Returns the remote Wallclock time for the given local time
+	 * @param localTime the local time
+	 * @return the remote Wallclock time
+	 */
+	long toRemote(long localTime) {
+		return localTime + getOffsetAt(localTime);
+	}
+
+	/**
+	 * Returns the estimated frequency difference of the remote Wallclock relative to the local clock
+	 * @return the drift as a ratio, e.g. {@code 1e-5} for 10 ppm
+	 */
+	double getDrift() {
+		return mDrift;
+	}
+
+	/**
+	 * Returns the round trip time of the measurement the estimate is based on
+	 * @return the round trip time
+	 */
+	long getRtt() {
+		return mRtt;
+	}
+
+	/**
+	 * Returns the local time the measurement the estimate is based on was made
+	 * @return the local time of the measurement
+	 */
+	long getSampleTime() {
+		return mSampleTime;
+	}
+
+	/**
+	 * Returns the dispersion of the estimate at the time of the measurement it is based on
+	 * @return the dispersion
+	 */
+	long getDispersion() {
+		return mDispersion;
+	}
+
+	/**
+	 * Returns the combined maximum frequency error of both clocks
+	 * @return the maximum frequency error in 1/256ths of ppm
+	 */
+	long getMaxFreqError() {
+		return mMaxFreqError;
+	}
+
+	/**
+	 * Returns the maximum error of {@link #toRemote(long)} at the given local time.
+	 * <p>
+	 * The error is the dispersion of the estimate (half the round trip time plus server and local precision of the
+	 * measurements it is fitted to), the frequency error of both clocks accumulated since the last measurement and
+	 * the correction not slewed in yet.
+	 * @param localTime the local time
+	 * @return the maximum error or {@link Long#MAX_VALUE} if the state is not valid
+	 */
+	long getErrorAt(long localTime) {
+		if(!mValid) return Long.MAX_VALUE;
+
+		long age = Math.max(0, localTime - mSampleTime);
+		return mDispersion + (long)(age * (mMaxFreqError / 256000000.d)) + Math.abs(getRemainingCorrectionAt(localTime));
+	}
+
+	/**
+	 * Returns the offset correction that has not been slewed in yet at the given local time
+	 * @param localTime the local time
+	 * @return the remaining correction
+	 */
+	long getRemainingCorrectionAt(long localTime) {
+		if(mPendingCorrection == 0) return 0;
+
+		long elapsed = Math.max(0, localTime - mBaseTime);
+		long slewed = (long)(mSlewRate * elapsed);
+		if(slewed >= Math.abs(mPendingCorrection)) {
+			return 0;
+		}
+		return mPendingCorrection > 0 ? mPendingCorrection - slewed : mPendingCorrection + slewed;
+	}
+}
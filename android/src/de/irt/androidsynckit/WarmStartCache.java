@@ -0,0 +1,419 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+/**
+ * Optional on-disk cache of the last Wallclock estimate per WC server and the last timeline correlation per
+ * content id and timeline selector.
+ * <p>
+ * On start a {@link Wallclock} or {@link Synchroniser} is seeded from the cache, so a usable but provisional
+ * estimate is available before the first exchange with the TV. Cached Wallclock estimates get an additional
+ * error of {@link #WARM_START_ERROR_NANOS} on top of the error accumulated since they were saved, and are flagged
+ * as provisional until replaced by a measurement.
+ * <p>
+ * Wallclock estimates relate the TV to {@code SystemClock.elapsedRealtimeNanos()}, which restarts at boot, so they
+ * are dropped when the device was rebooted. Timeline correlations are in TV Wallclock time and only expire with
+ * age, they are wrong if the content was paused or seeked on the TV in the meantime.
+ * <p>
+ * Updates only replace an entry in memory. The file is written on a background thread at most every
+ * {@link #WRITE_DELAY_MILLIS}.
+ */
+final class WarmStartCache {
+
+	private static final String TAG = "WarmStartCache";
+
+	static final String FILE_NAME = "androidsynckit-warmstart.bin";
+
+	/** Additional error of an estimate taken from the cache */
+	static final long WARM_START_ERROR_NANOS = 10000000L;
+
+	/** Entries older than this are not used */
+	static final long MAX_AGE_MILLIS = 60 * 60 * 1000L;
+
+	/** Delay between an update and writing the file */
+	static final long WRITE_DELAY_MILLIS = 5000;
+
+	/** Maximum number of entries of each kind */
+	static final int MAX_ENTRIES = 16;
+
+	/** Difference of the computed boot time above which the device is considered rebooted */
+	private static final long BOOT_TIME_TOLERANCE_MILLIS = 2000;
+
+	private static final int FILE_MAGIC = 0x41534b57;
+	private static final int FILE_VERSION = 1;
+
+	private static volatile WarmStartCache sInstance = null;
+
+	private final File mFile;
+	private final Map<String, WallclockEntry> mWallclocks = new HashMap<String, WallclockEntry>();
+	private final Map<String, CorrelationEntry> mCorrelations = new HashMap<String, CorrelationEntry>();
+	private boolean mWritePending = false;
+
+	private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "AndroidSyncKit warm start");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	private final Runnable mWriteTask = new Runnable() {
+		@Override
+		public void run() {
+			write();
+		}
+	};
+
+	private abstract static class Entry {
+		final long savedWallTimeMillis;
+
+		Entry(long savedWallTimeMillis) {
+			this.savedWallTimeMillis = savedWallTimeMillis;
+		}
+	}
+
+	/**
+	 * A cached Wallclock estimate
+	 */
+	static final class WallclockEntry extends Entry {
+		final long localTime;
+		final long offset;
+		final double drift;
+		final long error;
+		final long maxFreqError;
+
+		WallclockEntry(long savedWallTimeMillis, long localTime, long offset, double drift, long error, long maxFreqError) {
+			super(savedWallTimeMillis);
+			this.localTime = localTime;
+			this.offset = offset;
+			this.drift = drift;
+			this.error = error;
+			this.maxFreqError = maxFreqError;
+		}
+	}
+
+	/**
+	 * A cached timeline correlation
+	 */
+	static final class CorrelationEntry extends Entry {
+		final long wallclockTime;
+		final long contentTime;
+		final float speedMultiplier;
+
+		CorrelationEntry(long savedWallTimeMillis, long wallclockTime, long contentTime, float speedMultiplier) {
+			super(savedWallTimeMillis);
+			this.wallclockTime = wallclockTime;
+			this.contentTime = contentTime;
+			this.speedMultiplier = speedMultiplier;
+		}
+	}
+
+	private WarmStartCache(File file) {
+		mFile = file;
+	}
+
+	/**
+	 * Enables the cache in the given directory and reads the entries saved there, or disables it
+	 * @param directory the directory of the cache file or {@code null} to disable the cache
+	 */
+	static synchronized void setDirectory(File directory) {
+		WarmStartCache previous = sInstance;
+		if(previous != null) {
+			previous.close();
+		}
+		if(directory == null) {
+			sInstance = null;
+			return;
+		}
+
+		WarmStartCache cache = new WarmStartCache(new File(directory, FILE_NAME));
+		cache.read();
+		sInstance = cache;
+	}
+
+	/**
+	 * Returns the enabled cache
+	 * @return the cache or {@code null} if it is not enabled
+	 */
+	static WarmStartCache getInstance() {
+		return sInstance;
+	}
+
+	/**
+	 * Returns the key of a WC server
+	 * @param host the host of the WC server
+	 * @param port the port of the WC server
+	 * @return the key
+	 */
+	static String wallclockKey(String host, int port) {
+		return String.valueOf(host).toLowerCase() + ":" + port;
+	}
+
+	private static String correlationKey(String contentId, String timelineSelector) {
+		return contentId + "\n" + timelineSelector;
+	}
+
+	/**
+	 * Stores the current estimate of a Wallclock
+	 * @param key the key of the WC server
+	 * @param state the current state
+	 * @param localTime the current local time
+	 */
+	void putWallclock(String key, WallclockState state, long localTime) {
+		if(!state.isValid() || state.isProvisional()) return;
+
+		WallclockEntry entry = new WallclockEntry(System.currentTimeMillis(), localTime, state.getOffsetAt(localTime), state.getDrift(),
+				state.getErrorAt(localTime), state.getMaxFreqError());
+		synchronized(this) {
+			mWallclocks.put(key, entry);
+			scheduleWrite();
+		}
+	}
+
+	/**
+	 * Returns a provisional Wallclock estimate from the cache
+	 * @param key the key of the WC server
+	 * @return the provisional state or {@code null} if there is no usable entry
+	 */
+	WallclockState getWallclock(String key) {
+		WallclockEntry entry;
+		synchronized(this) {
+			entry = mWallclocks.get(key);
+		}
+		if(entry == null || isExpired(entry.savedWallTimeMillis)) return null;
+
+		return WallclockState.provisional(entry.localTime, entry.offset, entry.drift, entry.error + WARM_START_ERROR_NANOS, entry.maxFreqError);
+	}
+
+	/**
+	 * Stores the correlation of the last Control Timestamp of a timeline
+	 * @param contentId the content id
+	 * @param timelineSelector the timeline selector
+	 * @param wallclockTime the Wallclock time of the Control Timestamp
+	 * @param contentTime the content time of the Control Timestamp
+	 * @param speedMultiplier the timeline speed multiplier of the Control Timestamp
+	 */
+	void putCorrelation(String contentId, String timelineSelector, long wallclockTime, long contentTime, float speedMultiplier) {
+		if(contentId == null) return;
+
+		CorrelationEntry entry = new CorrelationEntry(System.currentTimeMillis(), wallclockTime, contentTime, speedMultiplier);
+		synchronized(this) {
+			mCorrelations.put(correlationKey(contentId, timelineSelector), entry);
+			scheduleWrite();
+		}
+	}
+
+	/**
+	 * Removes the correlation of a timeline, e.g. when the timeline became unavailable
+	 * @param contentId the content id
+	 * @param timelineSelector the timeline selector
+	 */
+	void removeCorrelation(String contentId, String timelineSelector) {
+		if(contentId == null) return;
+
+		synchronized(this) {
+			if(mCorrelations.remove(correlationKey(contentId, timelineSelector)) != null) {
+				scheduleWrite();
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached correlation of a timeline
+	 * @param contentId the content id
+	 * @param timelineSelector the timeline selector
+	 * @return the correlation or {@code null} if there is no usable entry
+	 */
+	CorrelationEntry getCorrelation(String contentId, String timelineSelector) {
+		if(contentId == null) return null;
+
+		CorrelationEntry entry;
+		synchronized(this) {
+			entry = mCorrelations.get(correlationKey(contentId, timelineSelector));
+		}
+		if(entry == null || isExpired(entry.savedWallTimeMillis)) return null;
+		return entry;
+	}
+
+	private static boolean isExpired(long savedWallTimeMillis) {
+		long age = System.currentTimeMillis() - savedWallTimeMillis;
+		return age < 0 || age > MAX_AGE_MILLIS;
+	}
+
+	private static long bootTimeMillis() {
+		return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+	}
+
+	private void scheduleWrite() {
+		if(!mWritePending) {
+			mWritePending = true;
+			mWriter.schedule(mWriteTask, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the writer and writes pending updates on the calling thread, so the file is complete when the cache is re-enabled
+	 */
+	private void close() {
+		mWriter.shutdownNow();
+		try {
+			mWriter.awaitTermination(1, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		boolean writePending;
+		synchronized(this) {
+			writePending = mWritePending;
+		}
+		if(writePending) {
+			write();
+		}
+	}
+
+	private void read() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+			if(in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+				SyncLog.w(SyncLog.Category.CACHE, TAG, "Ignoring cache file of unknown format");
+				return;
+			}
+
+			boolean rebooted = Math.abs(in.readLong() - bootTimeMillis()) > BOOT_TIME_TOLERANCE_MILLIS;
+			int wallclockCount = in.readInt();
+			for(int i = 0; i < wallclockCount; i++) {
+				String key = in.readUTF();
+				WallclockEntry entry = new WallclockEntry(in.readLong(), in.readLong(), in.readLong(), in.readDouble(), in.readLong(), in.readLong());
+				if(!rebooted) {
+					mWallclocks.put(key, entry);
+				}
+			}
+			int correlationCount = in.readInt();
+			for(int i = 0; i < correlationCount; i++) {
+				String key = in.readUTF();
+				mCorrelations.put(key, new CorrelationEntry(in.readLong(), in.readLong(), in.readLong(), in.readFloat()));
+			}
+			if(rebooted) {
+				SyncLog.d(SyncLog.Category.CACHE, TAG, "Read {} correlations, Wallclock estimates dropped after reboot", mCorrelations.size());
+			} else {
+				SyncLog.d(SyncLog.Category.CACHE, TAG, "Read {} correlations and {} Wallclock estimates", mCorrelations.size(), mWallclocks.size());
+			}
+		} catch(FileNotFoundException e) {
+			//Nothing cached yet
+		} catch(IOException e) {
+			SyncLog.w(SyncLog.Category.CACHE, TAG, "Error reading cache file: {}", e.getMessage());
+			mWallclocks.clear();
+			mCorrelations.clear();
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private void write() {
+		Map<String, WallclockEntry> wallclocks;
+		Map<String, CorrelationEntry> correlations;
+		synchronized(this) {
+			mWritePending = false;
+			evictOldest(mWallclocks);
+			evictOldest(mCorrelations);
+			wallclocks = new HashMap<String, WallclockEntry>(mWallclocks);
+			correlations = new HashMap<String, CorrelationEntry>(mCorrelations);
+		}
+
+		File tmpFile = new File(mFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(bootTimeMillis());
+			out.writeInt(wallclocks.size());
+			for(Map.Entry<String, WallclockEntry> e : wallclocks.entrySet()) {
+				WallclockEntry entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.savedWallTimeMillis);
+				out.writeLong(entry.localTime);
+				out.writeLong(entry.offset);
+				out.writeDouble(entry.drift);
+				out.writeLong(entry.error);
+				out.writeLong(entry.maxFreqError);
+			}
+			out.writeInt(correlations.size());
+			for(Map.Entry<String, CorrelationEntry> e : correlations.entrySet()) {
+				CorrelationEntry entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.savedWallTimeMillis);
+				out.writeLong(entry.wallclockTime);
+				out.writeLong(entry.contentTime);
+				out.writeFloat(entry.speedMultiplier);
+			}
+			out.close();
+			out = null;
+			if(!tmpFile.renameTo(mFile)) {
+				SyncLog.w(SyncLog.Category.CACHE, TAG, "Error replacing cache file {}", mFile);
+			}
+		} catch(IOException e) {
+			SyncLog.w(SyncLog.Category.CACHE, TAG, "Error writing cache file: {}", e.getMessage());
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	private static void evictOldest(Map<String, ? extends Entry> entries) {
+		while(entries.size() > MAX_ENTRIES) {
+			String oldestKey = null;
+			long oldestTime = Long.MAX_VALUE;
+			for(Map.Entry<String, ? extends Entry> e : entries.entrySet()) {
+				if(e.getValue().savedWallTimeMillis < oldestTime) {
+					oldestTime = e.getValue().savedWallTimeMillis;
+					oldestKey = e.getKey();
+				}
+			}
+			entries.remove(oldestKey);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if(closeable != null) {
+			try {
+				closeable.close();
+			} catch(IOException e) {
+				//nada
+			}
+		}
+	}
+}
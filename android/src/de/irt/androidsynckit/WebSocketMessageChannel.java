@@ -0,0 +1,116 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ServerHandshake;
+
+/**
+ * The default {@link MessageChannel}, a WebSocket (RFC 6455) client connection
+ */
+final class WebSocketMessageChannel implements MessageChannel {
+
+	private static final String TAG = "WebSocketMessageChannel";
+
+	static final MessageChannelFactory FACTORY = new MessageChannelFactory() {
+		@Override
+		public MessageChannel create(URI uri, int connectTimeoutMillis, MessageChannel.Listener listener) {
+			return new WebSocketMessageChannel(uri, connectTimeoutMillis, listener);
+		}
+	};
+
+	private final WebSocketClient mClient;
+
+	private WebSocketMessageChannel(URI uri, int connectTimeoutMillis, final MessageChannel.Listener listener) {
+		mClient = new WebSocketClient(uri, new Draft_17(), null, connectTimeoutMillis) {
+
+			@Override
+			public void onOpen(ServerHandshake handshakedata) {
+				listener.onOpen(WebSocketMessageChannel.this);
+			}
+
+			@Override
+			public void onMessage(String message) {
+				listener.onMessage(WebSocketMessageChannel.this, message);
+			}
+
+			@Override
+			public void onWebsocketPong(WebSocket conn, Framedata f) {
+				listener.onPong(WebSocketMessageChannel.this);
+			}
+
+			@Override
+			public void onError(Exception ex) {
+				SyncLog.w(SyncLog.Category.PLUGIN, TAG, "onError!", ex);
+			}
+
+			@Override
+			public void onClose(int code, String reason, boolean remote) {
+				listener.onClose(WebSocketMessageChannel.this, "Code: " + code + " Reason: " + reason + " fromRemote: " + remote);
+			}
+		};
+	}
+
+	@Override
+	public void connect() {
+		mClient.connect();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return mClient.isOpen();
+	}
+
+	@Override
+	public void send(String message) throws IOException {
+		try {
+			mClient.send(message);
+		} catch (WebsocketNotConnectedException e) {
+			throw new IOException("WebSocket not connected", e);
+		} catch (RuntimeException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void ping() {
+		try {
+			FramedataImpl1 ping = new FramedataImpl1(Framedata.Opcode.PING);
+			ping.setFin(true);
+			mClient.sendFrame(ping);
+		} catch (RuntimeException e) {
+			SyncLog.d(SyncLog.Category.PLUGIN, TAG, "Ping failed: {}", e.getMessage());
+		}
+	}
+
+	@Override
+	public void close() {
+		mClient.close();
+	}
+
+	@Override
+	public void abort() {
+		mClient.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Dead peer");
+	}
+}
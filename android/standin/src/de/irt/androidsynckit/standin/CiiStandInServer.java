@@ -0,0 +1,58 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+
+/**
+ * Stand-in DVB-CSS CII server. Sends the complete CII message on connect and whenever it changes.
+ */
+final class CiiStandInServer extends StandInWebSocketServer {
+
+	CiiStandInServer(InetAddress bindAddress, DvbCssStandInServer standIn, ScheduledExecutorService scheduler, long seed) {
+		super(bindAddress, standIn, scheduler, seed);
+	}
+
+	@Override
+	public void onOpen(WebSocket conn, ClientHandshake handshake) {
+		send(conn, mStandIn.toCiiMessage());
+	}
+
+	@Override
+	void onClientMessage(WebSocket conn, String message) {
+		//CII is a one way protocol
+	}
+
+	void broadcastCii() {
+		String cii = mStandIn.toCiiMessage();
+		for(WebSocket conn : copyConnections()) {
+			send(conn, cii);
+		}
+	}
+
+	private List<WebSocket> copyConnections() {
+		Collection<WebSocket> connections = connections();
+		synchronized(connections) {
+			return new ArrayList<WebSocket>(connections);
+		}
+	}
+}
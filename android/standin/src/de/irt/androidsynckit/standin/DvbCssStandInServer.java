@@ -0,0 +1,444 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embeddable, in-process stand-in for the DVB-CSS servers of an HbbTV 2.0 TV.
+ * <p>
+ * Serves the CII WebSocket, the TS WebSocket and the UDP Wallclock protocol on the loopback interface, so
+ * {@code Synchroniser} and {@code Wallclock} can be exercised on a plain JVM. Content timelines can be
+ * controlled directly or scripted, see {@link ScriptedTimeline}, and every channel can be impaired with
+ * latency, jitter, loss and reordering, see {@link NetworkImpairment}. The true Wallclock and content times
+ * are available through {@link #getWallclock()} and {@link ScriptedTimeline#getContentTimeAt(long)} to measure the
+ * accuracy of a client.
+ * <p>
+ * Usage:
+ * <pre>
+ * DvbCssStandInServer tv = new DvbCssStandInServer();
+ * tv.start();
+ * ScriptedTimeline pts = tv.addTimeline("urn:dvb:css:timeline:pts", 1, 90000);
+ * pts.setSpeedAfter(5000, 0);
+ * tv.setWallclockImpairment(new NetworkImpairment(5, 2, 0.05, 0.01));
+ * Synchroniser sync = SynchroniserFactory.createSynchroniser(tv.getCiiUrl(), "session");
+ * ...
+ * tv.stop();
+ * </pre>
+ * Errors of the servers, e.g. a failing socket or invalid client messages, are reported to the
+ * {@link ErrorListener}, see {@link #setErrorListener(ErrorListener)}.
+ */
+public final class DvbCssStandInServer {
+
+	/**
+	 * Receives the errors of the stand-in servers. Called from the server threads.
+	 */
+	public interface ErrorListener {
+
+		/**
+		 * @param message a description of the error
+		 * @param error the cause or {@code null} if there is none
+		 */
+		void onError(String message, Throwable error);
+	}
+
+	private static final long DEFAULT_SEED = 0x2157;
+
+	/** Logs to {@link java.util.logging}, used if no other {@link ErrorListener} is set */
+	private static final ErrorListener LOGGING_ERROR_LISTENER = new ErrorListener() {
+		private final Logger mLogger = Logger.getLogger(DvbCssStandInServer.class.getName());
+
+		@Override
+		public void onError(String message, Throwable error) {
+			mLogger.log(Level.WARNING, message, error);
+		}
+	};
+
+	private final InetAddress mBindAddress;
+	private final long mSeed;
+	private final StandInWallclock mWallclock;
+	private final Map<String, ScriptedTimeline> mTimelines = new ConcurrentHashMap<String, ScriptedTimeline>();
+	private final List<String> mTimelineSelectors = new ArrayList<String>();
+
+	private ScheduledExecutorService mScheduler;
+	private volatile CiiStandInServer mCiiServer;
+	private volatile TsStandInServer mTsServer;
+	private volatile WallclockStandInServer mWcServer;
+	private ScheduledFuture<?> mControlTimestampRepeat;
+
+	private volatile ErrorListener mErrorListener = LOGGING_ERROR_LISTENER;
+
+	private volatile String mContentId = "dvb://233a.1004.1044;363a~20130218T0915Z--PT00H45M";
+	private volatile String mContentIdStatus = "final";
+	private volatile String mPresentationStatus = "okay";
+
+	private ScriptedTimeline.ChangeListener mTimelineListener = new ScriptedTimeline.ChangeListener() {
+		@Override
+		public void onTimelineChanged(ScriptedTimeline timeline) {
+			TsStandInServer tsServer = mTsServer;
+			if(tsServer != null) {
+				tsServer.onTimelineChanged(timeline);
+			}
+		}
+	};
+
+	public DvbCssStandInServer() {
+		this(DEFAULT_SEED);
+	}
+
+	/**
+	 * @param seed the seed of the random generators of the network impairment, the same seed gives the same loss and jitter pattern
+	 */
+	public DvbCssStandInServer(long seed) {
+		mBindAddress = InetAddress.getLoopbackAddress();
+		mSeed = seed;
+		mWallclock = new StandInWallclock(0);
+	}
+
+	/**
+	 * Starts all servers on ephemeral loopback ports
+	 * @throws IOException if the Wallclock socket could not be bound
+	 */
+	public synchronized void start() throws IOException {
+		if(mScheduler != null) return;
+
+		mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DVB-CSS stand-in scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mWcServer = new WallclockStandInServer(mBindAddress, this, mWallclock, mScheduler, mSeed);
+		mCiiServer = new CiiStandInServer(mBindAddress, this, mScheduler, mSeed + 2);
+		mTsServer = new TsStandInServer(mBindAddress, this, mScheduler, mSeed + 4);
+		mCiiServer.startAndAwaitPort();
+		mTsServer.startAndAwaitPort();
+	}
+
+	/**
+	 * Stops all servers and closes all client connections
+	 */
+	public synchronized void stop() {
+		if(mScheduler == null) return;
+
+		mScheduler.shutdownNow();
+		mWcServer.close();
+		stopServer(mCiiServer, "CII");
+		stopServer(mTsServer, "TS");
+		mScheduler = null;
+		mWcServer = null;
+		mCiiServer = null;
+		mTsServer = null;
+		mControlTimestampRepeat = null;
+	}
+
+	private void stopServer(StandInWebSocketServer server, String name) {
+		try {
+			server.stop();
+		} catch(IOException e) {
+			//The server is abandoned anyway, one failing must not keep the other one running
+			reportError("Stand-in: error stopping the " + name + " server", e);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sets the receiver of the errors of the stand-in servers
+	 * @param listener the {@link ErrorListener} or {@code null} to log to {@link java.util.logging}
+	 */
+	public void setErrorListener(ErrorListener listener) {
+		mErrorListener = listener != null ? listener : LOGGING_ERROR_LISTENER;
+	}
+
+	/**
+	 * Reports an error of one of the servers to the {@link ErrorListener}
+	 * @param message a description of the error
+	 * @param error the cause or {@code null}
+	 */
+	void reportError(String message, Throwable error) {
+		mErrorListener.onError(message, error);
+	}
+
+	public String getCiiUrl() {
+		return "ws://" + mBindAddress.getHostAddress() + ":" + requireStarted(mCiiServer).getPort() + "/cii";
+	}
+
+	public String getTsUrl() {
+		return "ws://" + mBindAddress.getHostAddress() + ":" + requireStarted(mTsServer).getPort() + "/ts";
+	}
+
+	public String getWcUrl() {
+		return "udp://" + mBindAddress.getHostAddress() + ":" + requireStarted(mWcServer).getPort();
+	}
+
+	/**
+	 * Returns the Wallclock of the stand-in TV, e.g. to add drift or a step
+	 * @return the {@link StandInWallclock}
+	 */
+	public StandInWallclock getWallclock() {
+		return mWallclock;
+	}
+
+	/**
+	 * Adds a timeline that is announced in CII and served on TS. The timeline starts playing at content time {@code 0}.
+	 * @param selector the timeline selector
+	 * @param unitsPerTick the units per tick of the timeline
+	 * @param unitsPerSecond the units per second of the timeline
+	 * @return the {@link ScriptedTimeline} to control the timeline
+	 */
+	public ScriptedTimeline addTimeline(String selector, int unitsPerTick, int unitsPerSecond) {
+		ScheduledExecutorService scheduler = requireStarted(mScheduler);
+		ScriptedTimeline timeline = new ScriptedTimeline(selector, unitsPerTick, unitsPerSecond, mWallclock, scheduler, mTimelineListener);
+		synchronized(mTimelineSelectors) {
+			if(mTimelines.put(selector, timeline) == null) {
+				mTimelineSelectors.add(selector);
+			}
+		}
+		broadcastCii();
+		mTimelineListener.onTimelineChanged(timeline);
+		return timeline;
+	}
+
+	/**
+	 * Removes a timeline. Clients of the timeline receive a Control Timestamp announcing it unavailable.
+	 * @param selector the timeline selector
+	 */
+	public void removeTimeline(String selector) {
+		synchronized(mTimelineSelectors) {
+			mTimelines.remove(selector);
+			mTimelineSelectors.remove(selector);
+		}
+		broadcastCii();
+		TsStandInServer tsServer = mTsServer;
+		if(tsServer != null) {
+			tsServer.sendControlTimestamps();
+		}
+	}
+
+	public ScriptedTimeline getTimeline(String selector) {
+		return mTimelines.get(selector);
+	}
+
+	/**
+	 * Changes the content id. Clients whose contentIdStem no longer matches receive a Control Timestamp announcing the timeline unavailable.
+	 * @param contentId the new content id
+	 */
+	public void setContentId(String contentId) {
+		mContentId = contentId;
+		broadcastCii();
+		TsStandInServer tsServer = mTsServer;
+		if(tsServer != null) {
+			tsServer.sendControlTimestamps();
+		}
+	}
+
+	public String getContentId() {
+		return mContentId;
+	}
+
+	public void setContentIdStatus(String contentIdStatus) {
+		mContentIdStatus = contentIdStatus;
+		broadcastCii();
+	}
+
+	public void setPresentationStatus(String presentationStatus) {
+		mPresentationStatus = presentationStatus;
+		broadcastCii();
+	}
+
+	/**
+	 * Resends the current Control Timestamp to all TS clients in the given interval, as some TVs do even without changes
+	 * @param intervalMillis the interval in ms or {@code 0} to only send Control Timestamps on changes
+	 */
+	public synchronized void setControlTimestampRepeatInterval(long intervalMillis) {
+		ScheduledExecutorService scheduler = requireStarted(mScheduler);
+		if(mControlTimestampRepeat != null) {
+			mControlTimestampRepeat.cancel(false);
+			mControlTimestampRepeat = null;
+		}
+		if(intervalMillis > 0) {
+			final TsStandInServer tsServer = mTsServer;
+			mControlTimestampRepeat = scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					tsServer.sendControlTimestamps();
+				}
+			}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public synchronized void setCiiImpairment(NetworkImpairment impairment) {
+		requireStarted(mCiiServer).setImpairment(impairment);
+	}
+
+	public synchronized void setTsImpairment(NetworkImpairment impairment) {
+		requireStarted(mTsServer).setImpairment(impairment);
+	}
+
+	/**
+	 * Impairs Wallclock requests and responses alike
+	 * @param impairment the impairment of both directions
+	 */
+	public synchronized void setWallclockImpairment(NetworkImpairment impairment) {
+		setWallclockImpairment(impairment, impairment);
+	}
+
+	/**
+	 * Impairs Wallclock requests and responses independently, e.g. to create an asymmetric path
+	 * @param requests the impairment of the requests
+	 * @param responses the impairment of the responses
+	 */
+	public synchronized void setWallclockImpairment(NetworkImpairment requests, NetworkImpairment responses) {
+		requireStarted(mWcServer).setImpairment(requests, responses);
+	}
+
+	/**
+	 * Configures the Wallclock responses
+	 * @param precision log base 2 of the announced measurement precision in seconds
+	 * @param maxFreqError the announced maximum frequency error in 1/256ths of ppm
+	 * @param useFollowUp {@code true} to answer with a response and a follow-up response
+	 */
+	public synchronized void configureWallclock(int precision, long maxFreqError, boolean useFollowUp) {
+		WallclockStandInServer wcServer = requireStarted(mWcServer);
+		wcServer.setPrecision(precision);
+		wcServer.setMaxFreqError(maxFreqError);
+		wcServer.setUseFollowUp(useFollowUp);
+	}
+
+	public synchronized long getWallclockRequestCount() {
+		return mWcServer == null ? 0 : mWcServer.getRequestCount();
+	}
+
+	/**
+	 * Returns the number of messages dropped on all channels so far
+	 * @return the number of dropped messages
+	 */
+	public synchronized long getDroppedMessageCount() {
+		if(mScheduler == null) return 0;
+		return mWcServer.getDroppedCount() + mCiiServer.getDroppedCount() + mTsServer.getDroppedCount();
+	}
+
+	public synchronized int getTsClientCount() {
+		return mTsServer == null ? 0 : mTsServer.getClientCount();
+	}
+
+	/**
+	 * Returns the number of AptEptLpt messages the TS clients sent after their setup-data
+	 * @return the number of received AptEptLpt messages
+	 */
+	public synchronized long getAptEptLptCount() {
+		return mTsServer == null ? 0 : mTsServer.getAptEptLptCount();
+	}
+
+	/**
+	 * Returns the last AptEptLpt message received from any TS client
+	 * @return the raw message or {@code null} if none was received yet
+	 */
+	public synchronized String getLastAptEptLpt() {
+		return mTsServer == null ? null : mTsServer.getLastAptEptLpt();
+	}
+
+	String toCiiMessage() {
+		StringBuilder cii = new StringBuilder(256);
+		cii.append("{\"protocolVersion\":\"1.1\"");
+		cii.append(",\"contentId\":").append(quote(mContentId));
+		cii.append(",\"contentIdStatus\":").append(quote(mContentIdStatus));
+		cii.append(",\"presentationStatus\":").append(quote(mPresentationStatus));
+		cii.append(",\"mrsUrl\":null");
+		cii.append(",\"wcUrl\":").append(quote(getWcUrl()));
+		cii.append(",\"tsUrl\":").append(quote(getTsUrl()));
+		cii.append(",\"teUrl\":null");
+		cii.append(",\"timelines\":[");
+		synchronized(mTimelineSelectors) {
+			for(int i = 0; i < mTimelineSelectors.size(); i++) {
+				ScriptedTimeline timeline = mTimelines.get(mTimelineSelectors.get(i));
+				if(i > 0) cii.append(',');
+				cii.append("{\"timelineSelector\":").append(quote(timeline.getSelector()));
+				cii.append(",\"timelineProperties\":{\"unitsPerTick\":").append(timeline.getUnitsPerTick());
+				cii.append(",\"unitsPerSecond\":").append(timeline.getUnitsPerSecond()).append("}}");
+			}
+		}
+		cii.append("]}");
+		return cii.toString();
+	}
+
+	private void broadcastCii() {
+		CiiStandInServer ciiServer = mCiiServer;
+		if(ciiServer != null) {
+			ciiServer.broadcastCii();
+		}
+	}
+
+	private static String quote(String value) {
+		if(value == null) return "null";
+
+		StringBuilder quoted = new StringBuilder(value.length() + 2);
+		quoted.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if(c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static <T> T requireStarted(T server) {
+		if(server == null) throw new IllegalStateException("DVB-CSS stand-in is not started");
+		return server;
+	}
+
+	/**
+	 * Runs a stand-in with a PTS timeline until the process is terminated
+	 * @param args optional: latency, jitter in ms and loss, reorder probability applied to all channels
+	 * @throws Exception on startup failure
+	 */
+	public static void main(String[] args) throws Exception {
+		DvbCssStandInServer standIn = new DvbCssStandInServer();
+		standIn.start();
+		standIn.addTimeline("urn:dvb:css:timeline:pts", 1, 90000);
+		standIn.addTimeline("urn:dvb:css:timeline:temi:1:1", 1, 1000);
+		if(args.length == 4) {
+			NetworkImpairment impairment = new NetworkImpairment(Long.parseLong(args[0]), Long.parseLong(args[1]), Double.parseDouble(args[2]), Double.parseDouble(args[3]));
+			standIn.setCiiImpairment(impairment);
+			standIn.setTsImpairment(impairment);
+			standIn.setWallclockImpairment(impairment);
+			System.out.println("Impairment: " + impairment);
+		}
+		System.out.println("CII: " + standIn.getCiiUrl());
+		System.out.println("TS:  " + standIn.getTsUrl());
+		System.out.println("WC:  " + standIn.getWcUrl());
+		Thread.sleep(Long.MAX_VALUE);
+	}
+}
@@ -0,0 +1,112 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One direction of a stand-in channel that delivers messages according to a {@link NetworkImpairment}.
+ * <p>
+ * Delayed messages are delivered on the shared scheduler thread of the {@link DvbCssStandInServer}. Messages that are not
+ * picked for reordering are never delivered before a message handed in earlier, even if their random jitter is smaller.
+ */
+final class ImpairedLink {
+
+	private final ScheduledExecutorService mScheduler;
+	private final Random mRandom;
+
+	private volatile NetworkImpairment mImpairment = NetworkImpairment.NONE;
+
+	private long mLastDueTime = 0;
+	private long mDeliveredCount = 0;
+	private long mDroppedCount = 0;
+	private long mReorderedCount = 0;
+
+	ImpairedLink(ScheduledExecutorService scheduler, long seed) {
+		mScheduler = scheduler;
+		mRandom = new Random(seed);
+	}
+
+	void setImpairment(NetworkImpairment impairment) {
+		mImpairment = impairment == null ? NetworkImpairment.NONE : impairment;
+	}
+
+	NetworkImpairment getImpairment() {
+		return mImpairment;
+	}
+
+	/**
+	 * Delivers a message, runs the delivery immediately if the link is not impaired
+	 * @param delivery performs the actual delivery of the message
+	 */
+	void deliver(Runnable delivery) {
+		NetworkImpairment impairment = mImpairment;
+		if(impairment.isNone()) {
+			synchronized(this) {
+				mDeliveredCount++;
+			}
+			delivery.run();
+			return;
+		}
+
+		long delayNanos;
+		synchronized(this) {
+			if(mRandom.nextDouble() < impairment.getLossProbability()) {
+				mDroppedCount++;
+				return;
+			}
+
+			long now = System.nanoTime();
+			long delayMillis = impairment.getLatencyMillis();
+			if(impairment.getJitterMillis() > 0) {
+				delayMillis += (long)(mRandom.nextDouble() * impairment.getJitterMillis());
+			}
+			long dueTime = now + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+			if(mRandom.nextDouble() < impairment.getReorderProbability()) {
+				dueTime += TimeUnit.MILLISECONDS.toNanos(impairment.getReorderDelayMillis());
+				mReorderedCount++;
+			} else {
+				//Keep the order of messages that are not reordered
+				if(dueTime < mLastDueTime) {
+					dueTime = mLastDueTime;
+				}
+				mLastDueTime = dueTime;
+			}
+			mDeliveredCount++;
+			delayNanos = dueTime - now;
+		}
+
+		try {
+			mScheduler.schedule(delivery, delayNanos, TimeUnit.NANOSECONDS);
+		} catch(RejectedExecutionException e) {
+			//Stand-in is stopping
+		}
+	}
+
+	synchronized long getDeliveredCount() {
+		return mDeliveredCount;
+	}
+
+	synchronized long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	synchronized long getReorderedCount() {
+		return mReorderedCount;
+	}
+}
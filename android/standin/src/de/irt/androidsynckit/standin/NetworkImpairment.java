@@ -0,0 +1,83 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+/**
+ * Immutable description of the impairment applied to the messages of one stand-in channel.
+ * <p>
+ * Every message is delayed by {@code latencyMillis} plus a uniformly distributed random jitter of up to
+ * {@code jitterMillis}. Messages keep their order unless they are picked for reordering, in which case they
+ * are held back long enough to be overtaken by the messages sent after them. Dropped messages are never delivered.
+ */
+public final class NetworkImpairment {
+
+	/** No latency, jitter, loss or reordering. Messages are delivered synchronously. */
+	public static final NetworkImpairment NONE = new NetworkImpairment(0, 0, 0, 0);
+
+	private final long mLatencyMillis;
+	private final long mJitterMillis;
+	private final double mLossProbability;
+	private final double mReorderProbability;
+
+	/**
+	 * @param latencyMillis constant one way delay in ms
+	 * @param jitterMillis maximum additional random delay in ms
+	 * @param lossProbability probability in the range [0, 1] that a message is dropped
+	 * @param reorderProbability probability in the range [0, 1] that a message is overtaken by later messages
+	 */
+	public NetworkImpairment(long latencyMillis, long jitterMillis, double lossProbability, double reorderProbability) {
+		if(latencyMillis < 0 || jitterMillis < 0) throw new IllegalArgumentException("Latency and jitter must not be negative");
+		if(lossProbability < 0 || lossProbability > 1 || reorderProbability < 0 || reorderProbability > 1) {
+			throw new IllegalArgumentException("Probabilities must be in the range [0, 1]");
+		}
+		mLatencyMillis = latencyMillis;
+		mJitterMillis = jitterMillis;
+		mLossProbability = lossProbability;
+		mReorderProbability = reorderProbability;
+	}
+
+	public long getLatencyMillis() {
+		return mLatencyMillis;
+	}
+
+	public long getJitterMillis() {
+		return mJitterMillis;
+	}
+
+	public double getLossProbability() {
+		return mLossProbability;
+	}
+
+	public double getReorderProbability() {
+		return mReorderProbability;
+	}
+
+	/**
+	 * Returns the extra delay a reordered message is held back by
+	 * @return the extra delay in ms
+	 */
+	long getReorderDelayMillis() {
+		return Math.max(10, 2 * mJitterMillis);
+	}
+
+	boolean isNone() {
+		return mLatencyMillis == 0 && mJitterMillis == 0 && mLossProbability == 0 && mReorderProbability == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "NetworkImpairment[latency=" + mLatencyMillis + "ms, jitter=" + mJitterMillis + "ms, loss=" + mLossProbability + ", reorder=" + mReorderProbability + "]";
+	}
+}
@@ -0,0 +1,220 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A content timeline of the stand-in TV that can be controlled directly or by a script of timed steps.
+ * <p>
+ * The timeline is described by a correlation between a Wallclock time and a content time together with a speed,
+ * exactly as it is announced in DVB-CSS Control Timestamps. Every change is pushed to the connected TS clients.
+ * Content times are in ticks of {@code unitsPerSecond / unitsPerTick} per second.
+ */
+public final class ScriptedTimeline {
+
+	interface ChangeListener {
+		void onTimelineChanged(ScriptedTimeline timeline);
+	}
+
+	private final String mSelector;
+	private final int mUnitsPerTick;
+	private final int mUnitsPerSecond;
+	private final StandInWallclock mWallclock;
+	private final ScheduledExecutorService mScheduler;
+	private final ChangeListener mListener;
+
+	private boolean mAvailable = true;
+	private long mCorrelationWallclock;
+	private long mCorrelationContentTime;
+	private double mSpeed;
+
+	ScriptedTimeline(String selector, int unitsPerTick, int unitsPerSecond, StandInWallclock wallclock, ScheduledExecutorService scheduler, ChangeListener listener) {
+		if(unitsPerTick <= 0 || unitsPerSecond <= 0) throw new IllegalArgumentException("Timeline units must be positive");
+		mSelector = selector;
+		mUnitsPerTick = unitsPerTick;
+		mUnitsPerSecond = unitsPerSecond;
+		mWallclock = wallclock;
+		mScheduler = scheduler;
+		mListener = listener;
+
+		mCorrelationWallclock = wallclock.getTime();
+		mCorrelationContentTime = 0;
+		mSpeed = 1.0;
+	}
+
+	public String getSelector() {
+		return mSelector;
+	}
+
+	public int getUnitsPerTick() {
+		return mUnitsPerTick;
+	}
+
+	public int getUnitsPerSecond() {
+		return mUnitsPerSecond;
+	}
+
+	/**
+	 * Sets the content time and speed of the timeline, taking effect at the current Wallclock time
+	 * @param contentTime the content time in ticks
+	 * @param speed the timeline speed multiplier, {@code 0} for paused
+	 */
+	public void set(long contentTime, double speed) {
+		synchronized(this) {
+			mCorrelationWallclock = mWallclock.getTime();
+			mCorrelationContentTime = contentTime;
+			mSpeed = speed;
+			mAvailable = true;
+		}
+		mListener.onTimelineChanged(this);
+	}
+
+	/**
+	 * Changes the speed of the timeline without a jump of the content time
+	 * @param speed the timeline speed multiplier, {@code 0} for paused
+	 */
+	public void setSpeed(double speed) {
+		synchronized(this) {
+			long now = mWallclock.getTime();
+			mCorrelationContentTime = getContentTimeAt(now);
+			mCorrelationWallclock = now;
+			mSpeed = speed;
+		}
+		mListener.onTimelineChanged(this);
+	}
+
+	public void pause() {
+		setSpeed(0);
+	}
+
+	public void play() {
+		setSpeed(1.0);
+	}
+
+	/**
+	 * Jumps to the given content time, keeping the current speed
+	 * @param contentTime the content time in ticks
+	 */
+	public void seek(long contentTime) {
+		double speed;
+		synchronized(this) {
+			speed = mSpeed;
+		}
+		set(contentTime, speed);
+	}
+
+	/**
+	 * Sets whether the timeline is currently available. An unavailable timeline is announced with a {@code null} content time.
+	 * @param available {@code true} if the timeline is available
+	 */
+	public void setAvailable(boolean available) {
+		synchronized(this) {
+			mAvailable = available;
+		}
+		mListener.onTimelineChanged(this);
+	}
+
+	/**
+	 * Script step: sets content time and speed after the given delay, see {@link #set(long, double)}
+	 * @param delayMillis the delay from now in ms
+	 * @param contentTime the content time in ticks
+	 * @param speed the timeline speed multiplier
+	 */
+	public void setAfter(long delayMillis, final long contentTime, final double speed) {
+		after(delayMillis, new Runnable() {
+			@Override
+			public void run() {
+				set(contentTime, speed);
+			}
+		});
+	}
+
+	/**
+	 * Script step: changes the speed after the given delay, see {@link #setSpeed(double)}
+	 * @param delayMillis the delay from now in ms
+	 * @param speed the timeline speed multiplier
+	 */
+	public void setSpeedAfter(long delayMillis, final double speed) {
+		after(delayMillis, new Runnable() {
+			@Override
+			public void run() {
+				setSpeed(speed);
+			}
+		});
+	}
+
+	/**
+	 * Script step: jumps to the given content time after the given delay, see {@link #seek(long)}
+	 * @param delayMillis the delay from now in ms
+	 * @param contentTime the content time in ticks
+	 */
+	public void seekAfter(long delayMillis, final long contentTime) {
+		after(delayMillis, new Runnable() {
+			@Override
+			public void run() {
+				seek(contentTime);
+			}
+		});
+	}
+
+	/**
+	 * Script step: changes the availability after the given delay, see {@link #setAvailable(boolean)}
+	 * @param delayMillis the delay from now in ms
+	 * @param available {@code true} if the timeline is available
+	 */
+	public void setAvailableAfter(long delayMillis, final boolean available) {
+		after(delayMillis, new Runnable() {
+			@Override
+			public void run() {
+				setAvailable(available);
+			}
+		});
+	}
+
+	private void after(long delayMillis, Runnable step) {
+		mScheduler.schedule(step, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized boolean isAvailable() {
+		return mAvailable;
+	}
+
+	public synchronized double getSpeed() {
+		return mSpeed;
+	}
+
+	/**
+	 * Returns the content time at the given Wallclock time. This is the reference the client side content time can be compared against.
+	 * @param wallclockNanos the Wallclock time in ns
+	 * @return the content time in ticks
+	 */
+	public synchronized long getContentTimeAt(long wallclockNanos) {
+		double ticksPerNano = (double) mUnitsPerSecond / mUnitsPerTick / 1e9;
+		return mCorrelationContentTime + Math.round((wallclockNanos - mCorrelationWallclock) * mSpeed * ticksPerNano);
+	}
+
+	/**
+	 * Returns the current Control Timestamp of this timeline as a DVB-CSS TS message
+	 * @return the JSON encoded Control Timestamp
+	 */
+	synchronized String toControlTimestamp() {
+		if(!mAvailable) {
+			return "{\"contentTime\":null,\"wallClockTime\":\"" + mWallclock.getTime() + "\",\"timelineSpeedMultiplier\":null}";
+		}
+		return "{\"contentTime\":\"" + mCorrelationContentTime + "\",\"wallClockTime\":\"" + mCorrelationWallclock + "\",\"timelineSpeedMultiplier\":" + mSpeed + "}";
+	}
+}
@@ -0,0 +1,79 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+/**
+ * The Wallclock of the stand-in TV, derived from {@link System#nanoTime()} with a configurable offset and drift.
+ * <p>
+ * Because it is derived from the same clock the {@code Wallclock} client uses on a plain JVM, the true remote
+ * Wallclock is known exactly at any local time and the accuracy of the client estimate can be measured.
+ */
+public final class StandInWallclock {
+
+	private long mBaseLocalTime;
+	private long mBaseWallclock;
+	private double mDriftPpm = 0;
+
+	StandInWallclock(long initialOffsetNanos) {
+		mBaseLocalTime = System.nanoTime();
+		mBaseWallclock = mBaseLocalTime + initialOffsetNanos;
+	}
+
+	/**
+	 * Returns the current Wallclock time
+	 * @return the Wallclock time in ns
+	 */
+	public long getTime() {
+		return getTimeAt(System.nanoTime());
+	}
+
+	/**
+	 * Returns the Wallclock time at the given local time
+	 * @param localNanos a {@link System#nanoTime()} value
+	 * @return the Wallclock time in ns
+	 */
+	public synchronized long getTimeAt(long localNanos) {
+		long elapsed = localNanos - mBaseLocalTime;
+		return mBaseWallclock + elapsed + (long)(elapsed * mDriftPpm * 1e-6);
+	}
+
+	/**
+	 * Sets the frequency error of the Wallclock relative to the local clock. The Wallclock stays continuous.
+	 * @param driftPpm the frequency error in ppm
+	 */
+	public synchronized void setDriftPpm(double driftPpm) {
+		rebase();
+		mDriftPpm = driftPpm;
+	}
+
+	public synchronized double getDriftPpm() {
+		return mDriftPpm;
+	}
+
+	/**
+	 * Steps the Wallclock
+	 * @param stepNanos the step in ns, may be negative
+	 */
+	public synchronized void step(long stepNanos) {
+		rebase();
+		mBaseWallclock += stepNanos;
+	}
+
+	private void rebase() {
+		long now = System.nanoTime();
+		mBaseWallclock = getTimeAt(now);
+		mBaseLocalTime = now;
+	}
+}
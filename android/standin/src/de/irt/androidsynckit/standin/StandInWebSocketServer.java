@@ -0,0 +1,123 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+/**
+ * Base of the stand-in WebSocket servers. Messages in both directions pass through an {@link ImpairedLink}.
+ */
+abstract class StandInWebSocketServer extends WebSocketServer {
+
+	private static final long START_TIMEOUT_MILLIS = 5000;
+
+	final DvbCssStandInServer mStandIn;
+	private final ImpairedLink mIncomingLink;
+	private final ImpairedLink mOutgoingLink;
+
+	StandInWebSocketServer(InetAddress bindAddress, DvbCssStandInServer standIn, ScheduledExecutorService scheduler, long seed) {
+		super(new InetSocketAddress(bindAddress, 0));
+		mStandIn = standIn;
+		mIncomingLink = new ImpairedLink(scheduler, seed);
+		mOutgoingLink = new ImpairedLink(scheduler, seed + 1);
+	}
+
+	/**
+	 * Starts the server and waits until it is bound to its port
+	 * @throws IllegalStateException if the server could not be started in time
+	 */
+	void startAndAwaitPort() {
+		start();
+		long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		while(getPort() <= 0) {
+			if(System.currentTimeMillis() > deadline) {
+				throw new IllegalStateException(getClass().getSimpleName() + " did not start");
+			}
+			try {
+				Thread.sleep(5);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(getClass().getSimpleName() + " start interrupted");
+			}
+		}
+	}
+
+	void setImpairment(NetworkImpairment impairment) {
+		mIncomingLink.setImpairment(impairment);
+		mOutgoingLink.setImpairment(impairment);
+	}
+
+	long getDroppedCount() {
+		return mIncomingLink.getDroppedCount() + mOutgoingLink.getDroppedCount();
+	}
+
+	/**
+	 * Sends a message to a client through the outgoing link
+	 * @param conn the client connection
+	 * @param message the message
+	 */
+	void send(final WebSocket conn, final String message) {
+		mOutgoingLink.deliver(new Runnable() {
+			@Override
+			public void run() {
+				if(!conn.isOpen()) return;
+				try {
+					conn.send(message);
+				} catch(WebsocketNotConnectedException e) {
+					//Client went away while the message was delayed
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called for every client message after it passed the incoming link
+	 * @param conn the client connection
+	 * @param message the message
+	 */
+	abstract void onClientMessage(WebSocket conn, String message);
+
+	@Override
+	public void onMessage(final WebSocket conn, final String message) {
+		mIncomingLink.deliver(new Runnable() {
+			@Override
+			public void run() {
+				onClientMessage(conn, message);
+			}
+		});
+	}
+
+	@Override
+	public void onOpen(WebSocket conn, ClientHandshake handshake) {
+		//nada
+	}
+
+	@Override
+	public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+		//nada
+	}
+
+	@Override
+	public void onError(WebSocket conn, Exception ex) {
+		mStandIn.reportError(getClass().getSimpleName() + ": WebSocket error", ex);
+	}
+}
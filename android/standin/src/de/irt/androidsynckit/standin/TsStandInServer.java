@@ -0,0 +1,160 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Stand-in DVB-CSS TS server.
+ * <p>
+ * Waits for the setup-data of each client and answers with a Control Timestamp for the requested timeline.
+ * Further Control Timestamps are sent whenever the timeline changes and, optionally, periodically.
+ */
+final class TsStandInServer extends StandInWebSocketServer {
+
+	private static final Pattern CONTENT_ID_STEM = Pattern.compile("\"contentIdStem\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+	private static final Pattern TIMELINE_SELECTOR = Pattern.compile("\"timelineSelector\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+	//Client connection to its setup-data
+	private final Map<WebSocket, SetupData> mClients = new ConcurrentHashMap<WebSocket, SetupData>();
+
+	private final AtomicLong mAptEptLptCount = new AtomicLong();
+	private volatile String mLastAptEptLpt = null;
+
+	private static final class SetupData {
+		final String contentIdStem;
+		final String timelineSelector;
+
+		SetupData(String contentIdStem, String timelineSelector) {
+			this.contentIdStem = contentIdStem;
+			this.timelineSelector = timelineSelector;
+		}
+	}
+
+	TsStandInServer(InetAddress bindAddress, DvbCssStandInServer standIn, ScheduledExecutorService scheduler, long seed) {
+		super(bindAddress, standIn, scheduler, seed);
+	}
+
+	@Override
+	void onClientMessage(WebSocket conn, String message) {
+		if(mClients.containsKey(conn)) {
+			//Only the first message is setup-data, the following ones are AptEptLpt messages
+			mAptEptLptCount.incrementAndGet();
+			mLastAptEptLpt = message;
+			return;
+		}
+
+		Matcher stem = CONTENT_ID_STEM.matcher(message);
+		Matcher selector = TIMELINE_SELECTOR.matcher(message);
+		if(!selector.find()) {
+			mStandIn.reportError("TS stand-in: ignoring invalid setup-data " + message, null);
+			return;
+		}
+
+		SetupData setup = new SetupData(stem.find() ? unescape(stem.group(1)) : "", unescape(selector.group(1)));
+		mClients.put(conn, setup);
+		sendControlTimestamp(conn, setup);
+	}
+
+	@Override
+	public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+		mClients.remove(conn);
+	}
+
+	/**
+	 * Sends the current Control Timestamp of the given timeline to every client that asked for it
+	 * @param timeline the changed timeline
+	 */
+	void onTimelineChanged(ScriptedTimeline timeline) {
+		for(Map.Entry<WebSocket, SetupData> client : mClients.entrySet()) {
+			if(client.getValue().timelineSelector.equals(timeline.getSelector())) {
+				sendControlTimestamp(client.getKey(), client.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Sends the current Control Timestamp to every client, e.g. after the content id changed
+	 */
+	void sendControlTimestamps() {
+		for(Map.Entry<WebSocket, SetupData> client : mClients.entrySet()) {
+			sendControlTimestamp(client.getKey(), client.getValue());
+		}
+	}
+
+	int getClientCount() {
+		return mClients.size();
+	}
+
+	long getAptEptLptCount() {
+		return mAptEptLptCount.get();
+	}
+
+	String getLastAptEptLpt() {
+		return mLastAptEptLpt;
+	}
+
+	/**
+	 * Resolves the escape sequences of a JSON string value, e.g. the {@code \/} Android's org.json writes for every slash
+	 * @param value the raw string value between the quotes
+	 * @return the unescaped value
+	 */
+	private static String unescape(String value) {
+		if(value.indexOf('\\') < 0) return value;
+
+		StringBuilder unescaped = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c != '\\' || i + 1 >= value.length()) {
+				unescaped.append(c);
+				continue;
+			}
+			char escaped = value.charAt(++i);
+			switch(escaped) {
+				case 'b': unescaped.append('\b'); break;
+				case 'f': unescaped.append('\f'); break;
+				case 'n': unescaped.append('\n'); break;
+				case 'r': unescaped.append('\r'); break;
+				case 't': unescaped.append('\t'); break;
+				case 'u':
+					if(i + 4 < value.length()) {
+						unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+						i += 4;
+					}
+					break;
+				default: unescaped.append(escaped); break;
+			}
+		}
+		return unescaped.toString();
+	}
+
+	private void sendControlTimestamp(WebSocket conn, SetupData setup) {
+		ScriptedTimeline timeline = mStandIn.getTimeline(setup.timelineSelector);
+		String contentId = mStandIn.getContentId();
+		if(timeline == null || contentId == null || !contentId.startsWith(setup.contentIdStem)) {
+			send(conn, "{\"contentTime\":null,\"wallClockTime\":\"" + mStandIn.getWallclock().getTime() + "\",\"timelineSpeedMultiplier\":null}");
+		} else {
+			send(conn, timeline.toControlTimestamp());
+		}
+	}
+}
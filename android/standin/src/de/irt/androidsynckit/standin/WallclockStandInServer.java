@@ -0,0 +1,198 @@
+/************************************************************************/
+/*                COPYRIGHT Institut für Rundfunktechnik 2016           */
+/*                                                                      */
+/*	 Licensed under the Apache License, Version 2.0 (the "License");	*/
+/*   you may not use this file except in compliance with the License.	*/
+/*   You may obtain a copy of the License at							*/
+/*       	     http://www.apache.org/licenses/LICENSE-2.0             */
+/*  Unless required by applicable law or agreed to in writing, software */
+/*  distributed under the License is distributed on an "AS IS" BASIS,	*/
+/*	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or 	*/
+/*	implied.															*/
+/*  See the License for the specific language governing permissions and	*/
+/*  limitations under the License.										*/
+/************************************************************************/
+package de.irt.androidsynckit.standin;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Stand-in DVB-CSS Wallclock server on UDP.
+ * <p>
+ * Requests and responses pass through separate {@link ImpairedLink}s. The receive timestamp is taken when a
+ * request leaves the request link and the transmit timestamp when the response enters the response link, so
+ * the configured impairment is seen by the client as network delay.
+ */
+final class WallclockStandInServer {
+
+	private static final int MESSAGE_SIZE = 32;
+	private static final int PROTOCOL_VERSION = 0;
+	private static final int MSGTYPE_REQUEST = 0;
+	private static final int MSGTYPE_RESPONSE = 1;
+	private static final int MSGTYPE_RESPONSE_WITH_FOLLOWUP = 2;
+	private static final int MSGTYPE_FOLLOWUP = 3;
+	private static final long NANOPART = 1000000000L;
+
+	private final DvbCssStandInServer mStandIn;
+	private final StandInWallclock mWallclock;
+	private final DatagramSocket mSocket;
+	private final ImpairedLink mRequestLink;
+	private final ImpairedLink mResponseLink;
+	private final Thread mReceiveThread;
+
+	private volatile int mPrecision = -20;
+	private volatile long mMaxFreqError = 50 * 256;
+	private volatile boolean mUseFollowUp = false;
+	private volatile boolean mIsRunning = true;
+
+	private long mRequestCount = 0;
+
+	WallclockStandInServer(InetAddress bindAddress, DvbCssStandInServer standIn, StandInWallclock wallclock, ScheduledExecutorService scheduler, long seed) throws SocketException {
+		mStandIn = standIn;
+		mWallclock = wallclock;
+		mSocket = new DatagramSocket(new InetSocketAddress(bindAddress, 0));
+		mRequestLink = new ImpairedLink(scheduler, seed);
+		mResponseLink = new ImpairedLink(scheduler, seed + 1);
+
+		mReceiveThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				receiveLoop();
+			}
+		}, "WC stand-in");
+		mReceiveThread.setDaemon(true);
+		mReceiveThread.start();
+	}
+
+	int getPort() {
+		return mSocket.getLocalPort();
+	}
+
+	void setImpairment(NetworkImpairment requests, NetworkImpairment responses) {
+		mRequestLink.setImpairment(requests);
+		mResponseLink.setImpairment(responses);
+	}
+
+	/**
+	 * @param precision log base 2 of the measurement precision in seconds, announced in every response
+	 */
+	void setPrecision(int precision) {
+		mPrecision = precision;
+	}
+
+	/**
+	 * @param maxFreqError the maximum frequency error in 1/256ths of ppm, announced in every response
+	 */
+	void setMaxFreqError(long maxFreqError) {
+		mMaxFreqError = maxFreqError;
+	}
+
+	/**
+	 * @param useFollowUp {@code true} to answer with a response carrying a millisecond rounded transmit time followed by a follow-up with the exact one
+	 */
+	void setUseFollowUp(boolean useFollowUp) {
+		mUseFollowUp = useFollowUp;
+	}
+
+	synchronized long getRequestCount() {
+		return mRequestCount;
+	}
+
+	long getDroppedCount() {
+		return mRequestLink.getDroppedCount() + mResponseLink.getDroppedCount();
+	}
+
+	void close() {
+		mIsRunning = false;
+		mSocket.close();
+	}
+
+	private void receiveLoop() {
+		byte[] buffer = new byte[MESSAGE_SIZE * 2];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(mIsRunning) {
+			try {
+				packet.setLength(buffer.length);
+				mSocket.receive(packet);
+			} catch(IOException e) {
+				if(mIsRunning) {
+					mStandIn.reportError("WC stand-in: receiving failed, stopped answering requests", e);
+				}
+				return;
+			}
+
+			if(packet.getLength() < MESSAGE_SIZE || buffer[0] != PROTOCOL_VERSION || buffer[1] != MSGTYPE_REQUEST) {
+				continue;
+			}
+			synchronized(this) {
+				mRequestCount++;
+			}
+
+			final byte[] request = new byte[MESSAGE_SIZE];
+			System.arraycopy(buffer, 0, request, 0, MESSAGE_SIZE);
+			final SocketAddress sender = packet.getSocketAddress();
+			mRequestLink.deliver(new Runnable() {
+				@Override
+				public void run() {
+					respond(request, sender);
+				}
+			});
+		}
+	}
+
+	private void respond(byte[] request, SocketAddress sender) {
+		long receiveTime = mWallclock.getTime();
+		ByteBuffer req = ByteBuffer.wrap(request);
+		long originSecs = req.getInt(8) & 0xFFFFFFFFL;
+		long originNanos = req.getInt(12) & 0xFFFFFFFFL;
+
+		long transmitTime = mWallclock.getTime();
+		if(mUseFollowUp) {
+			long roundedTransmitTime = transmitTime - transmitTime % 1000000L;
+			send(encode(MSGTYPE_RESPONSE_WITH_FOLLOWUP, originSecs, originNanos, receiveTime, roundedTransmitTime), sender);
+			send(encode(MSGTYPE_FOLLOWUP, originSecs, originNanos, receiveTime, transmitTime), sender);
+		} else {
+			send(encode(MSGTYPE_RESPONSE, originSecs, originNanos, receiveTime, transmitTime), sender);
+		}
+	}
+
+	private byte[] encode(int messageType, long originSecs, long originNanos, long receiveTime, long transmitTime) {
+		ByteBuffer buf = ByteBuffer.allocate(MESSAGE_SIZE);
+		buf.put((byte) PROTOCOL_VERSION);
+		buf.put((byte) messageType);
+		buf.put((byte) mPrecision);
+		buf.put((byte) 0x00); //Reserved
+		buf.putInt((int) mMaxFreqError);
+		//The originate time is echoed unchanged
+		buf.putInt((int) originSecs);
+		buf.putInt((int) originNanos);
+		buf.putInt((int) (receiveTime / NANOPART));
+		buf.putInt((int) (receiveTime % NANOPART));
+		buf.putInt((int) (transmitTime / NANOPART));
+		buf.putInt((int) (transmitTime % NANOPART));
+		return buf.array();
+	}
+
+	private void send(final byte[] response, final SocketAddress recipient) {
+		mResponseLink.deliver(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mSocket.send(new DatagramPacket(response, response.length, recipient));
+				} catch(IOException e) {
+					if(mIsRunning) {
+						mStandIn.reportError("WC stand-in: sending a response failed", e);
+					}
+				}
+			}
+		});
+	}
+}
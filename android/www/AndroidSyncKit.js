@@ -25,7 +25,7 @@ var exec = require('cordova/exec');
 
 /**
  * @callback Synchroniser~ContentCallback
- * @param {string} contentId
+ * @param {?string} contentId the new content ID or null if the content ID was withdrawn
  */
 /**
  * Timeline info
@@ -35,6 +35,9 @@ var exec = require('cordova/exec');
  * @property {string} selector Timeline selector string
  */
 /**
+ * Called whenever the announced timelines or their properties change. The id of a timeline stays the same for as
+ * long as it is announced.
+ *
  * @callback Synchroniser~TimelinesAvailableCallback
  * @param {Synchroniser~Timeline[]} timelines
  */
@@ -54,7 +57,7 @@ var exec = require('cordova/exec');
  * @param {string=} params.name optional name
  * @param {Function=} params.initCallback optional construction completion callback
  * @param {Synchroniser~ErrorCallback=} params.errorCallback optional error callback
- * @param {number=} params.wallclockUpdatePeriodMillis optional wallclock update period in ms
+ * @param {number=} params.wallclockUpdatePeriodMillis optional fixed wallclock update period in ms, if omitted the update period is adaptive
  */
 function Synchroniser(params) {
 	var self = this;
@@ -83,7 +86,7 @@ Synchroniser.prototype.destroy = function() {
  * @param {!Object} params
  * @param {Function=} params.obtainStartedCallback optional obtain started notification callback
  * @param {Synchroniser~ContentCallback=} params.contentCallback optional content ID change callback
- * @param {Synchroniser~TimelinesAvailableCallback=} params.timelinesAvailableCallback optional timelines available notification callback
+ * @param {Synchroniser~TimelinesAvailableCallback=} params.timelinesAvailableCallback optional timelines available and changed notification callback
  * @param {Synchroniser~ErrorCallback=} params.errorCallback optional error callback
  */
 Synchroniser.prototype.obtainSynchronisationInformation = function(params) {
@@ -117,6 +120,9 @@ Synchroniser.prototype.obtainSynchronisationInformation = function(params) {
  * @callback Synchroniser~PropertiesChangedCallback
  * @param {number} timestamp Current time in seconds
  * @param {Object} properties
+ * @param {?number} timestampError Maximum error of timestamp in seconds, or null if not available
+ * @param {?boolean} timestampProvisional True if timestamp is a provisional estimate from the warm start cache, or null if not available
+ * @param {?number} timestampResidual Correction in seconds a smoothed timestamp still has to make, 0 if not smoothed, or null if not available
  */
 
 /**
@@ -127,9 +133,13 @@ Synchroniser.prototype.obtainSynchronisationInformation = function(params) {
  * @param {Function=} params.startedCallback optional started completion callback
  * @param {Function=} params.wallclockSyncedCallback optional wall clock synced notification callback
  * @param {Synchroniser~TimestampCallback=} params.wallclockUpdatedCallback optional wall clock updated notification callback
- * @param {Function=} params.availableCallback optional synchronised timeline available (socket connected) callback
- * @param {Function=} params.unavailableCallback optional synchronised timeline unavailable (socket disconnected) callback
- * @param {Synchroniser~PropertiesChangedCallback=} params.propertiesChangedCallback optional properties changed callback
+ * @param {Function=} params.availableCallback optional synchronised timeline available (socket connected or reconnected) callback
+ * @param {Function=} params.unavailableCallback optional synchronised timeline unavailable (stopped or TV not reachable) callback
+ * @param {Function=} params.reconnectingCallback optional socket lost callback, the synchroniser reconnects by itself and
+ *                    the current time stays available as a provisional value with a growing error until then
+ * @param {Synchroniser~PropertiesChangedCallback=} params.propertiesChangedCallback optional properties changed callback,
+ *        not called again for a Control Timestamp equivalent to the last one
+ * @param {boolean=} params.reportAllControlTimestamps optional, true to call propertiesChangedCallback for every Control Timestamp
  * @param {Synchroniser~ErrorCallback=} params.errorCallback optional error callback
  */
 Synchroniser.prototype.start = function(params) {
@@ -140,11 +150,15 @@ Synchroniser.prototype.start = function(params) {
 			params.wallclockSyncedCallback();
 		}
 		if (result.type === "wallclockUpdated" && params.wallclockUpdatedCallback) {
-			params.wallclockUpdatedCallback(self.have_properties ? result.timestamp : null);
+			params.wallclockUpdatedCallback(self.have_properties ? result.timestamp : null, self.have_properties ? result.timestampError : null,
+					self.have_properties ? result.timestampProvisional : null, self.have_properties ? result.timestampResidual : null);
 		}
 		if (result.type === "available" && params.availableCallback) {
 			params.availableCallback();
 		}
+		if (result.type === "reconnecting" && params.reconnectingCallback) {
+			params.reconnectingCallback();
+		}
 		if (result.type === "unavailable") {
 			self.have_properties = false;
 			if (params.unavailableCallback) {
@@ -154,7 +168,8 @@ Synchroniser.prototype.start = function(params) {
 		if (result.type === "propertiesChanged") {
 			self.have_properties = true;
 			if (params.propertiesChangedCallback) {
-				params.propertiesChangedCallback(result.timestamp, result.properties);
+				params.propertiesChangedCallback(result.timestamp, result.properties, result.timestampError, result.timestampProvisional,
+						result.timestampResidual);
 			}
 		}
 		if (result.type === "started" && params.startedCallback) {
@@ -166,7 +181,7 @@ Synchroniser.prototype.start = function(params) {
 			params.errorCallback("Cordova error: " + code);
 		}
 	};
-	exec(success, error, "AndroidSyncKit", "startSynchroniser", [this.id, params.timelineId]);
+	exec(success, error, "AndroidSyncKit", "startSynchroniser", [this.id, params.timelineId, !!params.reportAllControlTimestamps]);
 };
 
 /**
@@ -189,6 +204,11 @@ Synchroniser.prototype.stop = function(callback) {
 /**
  * @callback Synchroniser~TimestampCallback
  * @param {?number} timestamp Current time in seconds, or null if not available
+ * @param {?number} timestampError Maximum error of timestamp in seconds, the current time is within timestamp +/- timestampError, or null if not available
+ * @param {?boolean} timestampProvisional True if timestamp is a provisional estimate from the warm start cache or from
+ *                   before a lost TS connection, which is replaced once the TV answered, or null if not available
+ * @param {?number} timestampResidual Correction in seconds a smoothed timestamp still has to make, i.e. the current
+ *                  estimate is timestamp + timestampResidual, 0 if not smoothed, or null if not available
  */
 /**
  * Get current time
@@ -198,11 +218,11 @@ Synchroniser.prototype.stop = function(callback) {
  */
 Synchroniser.prototype.getCurrentTime = function(callback, errorCallback) {
 	if (!this.have_properties) {
-		callback(null);
+		callback(null, null, null, null);
 		return;
 	}
 	var success = function(result) {
-		if (callback) callback(result.timestamp);
+		if (callback) callback(result.timestamp, result.timestampError, result.timestampProvisional, result.timestampResidual);
 	};
 	var error = function(code) {
 		if (errorCallback) {
@@ -212,6 +232,53 @@ Synchroniser.prototype.getCurrentTime = function(callback, errorCallback) {
 	exec(success, error, "AndroidSyncKit", "getSynchroniserCurrentTime", [this.id]);
 };
 
+/**
+ * Smooth the current time: instead of jumping on every correction, it deviates from the timeline speed by at most
+ * maxSlewPpm to follow it, and only jumps if it is off by more than stepThreshold, e.g. after a seek on the TV.
+ * The timestamps then carry the outstanding correction as timestampResidual.
+ *
+ * @param {!{maxSlewPpm: number, stepThreshold: number}} params maximum slew rate in ppm, 0 to disable smoothing,
+ *        and the step threshold in seconds
+ * @param {Function=} callback optional completion callback
+ * @param {Synchroniser~ErrorCallback=} errorCallback optional error callback
+ */
+Synchroniser.prototype.setContentTimeSlewing = function(params, callback, errorCallback) {
+	var success = function(result) {
+		if (callback) callback();
+	};
+	var error = function(code) {
+		if (errorCallback) {
+			errorCallback("Cordova error: " + code);
+		}
+	};
+	exec(success, error, "AndroidSyncKit", "setContentTimeSlewing", [this.id, params.maxSlewPpm, params.stepThreshold]);
+};
+
+/**
+ * Report when the companion presents its own content, so that the TV can adjust its presentation (AptEptLpt).
+ * The times refer to now: the given content time is presented now, and could have been presented up to
+ * earliestOffset seconds earlier and up to latestOffset seconds later. May be called for every frame, reports
+ * are rate limited and only sent if the timing changed.
+ *
+ * @param {!{contentTime: number, earliestOffset: ?number, latestOffset: ?number}} params content time in seconds
+ *        on the synchronised timeline, and the offsets in seconds or null if unbounded
+ * @param {Function=} callback optional completion callback
+ * @param {Synchroniser~ErrorCallback=} errorCallback optional error callback
+ */
+Synchroniser.prototype.reportPresentationTimestamps = function(params, callback, errorCallback) {
+	var success = function(result) {
+		if (callback) callback();
+	};
+	var error = function(code) {
+		if (errorCallback) {
+			errorCallback("Cordova error: " + code);
+		}
+	};
+	var earliestOffset = params.earliestOffset === undefined ? null : params.earliestOffset;
+	var latestOffset = params.latestOffset === undefined ? null : params.latestOffset;
+	exec(success, error, "AndroidSyncKit", "reportPresentationTimestamps", [this.id, params.contentTime, earliestOffset, latestOffset]);
+};
+
 /**
  * Override wallclock URL
  *
@@ -234,6 +301,19 @@ Synchroniser.prototype.overrideWallclockUrl = function(url, callback, errorCallb
 	return this._overrideUrl("overrideWallclockUrl", url, callback, errorCallback);
 };
 
+/**
+ * Add an alternative wallclock URL. Alternative wallclock servers are probed at a low rate, the wallclock follows
+ * whichever server currently gives the most precise estimate and fails over when a server stops answering.
+ * All servers must serve the same wallclock.
+ *
+ * @param {!string} url Wallclock URL
+ * @param {Function=} callback optional completion callback
+ * @param {Synchroniser~ErrorCallback=} errorCallback optional error callback
+ */
+Synchroniser.prototype.addAlternativeWallclockUrl = function(url, callback, errorCallback) {
+	return this._overrideUrl("addAlternativeWallclockUrl", url, callback, errorCallback);
+};
+
 Synchroniser.prototype._overrideUrl = function(cmd, url, callback, errorCallback) {
 	var success = function(result) {
 		if (callback) callback();
@@ -246,4 +326,80 @@ Synchroniser.prototype._overrideUrl = function(cmd, url, callback, errorCallback
 	exec(success, error, "AndroidSyncKit", cmd, [this.id, url]);
 };
 
+/**
+ * Enable or disable the warm start cache. When enabled, the last wallclock estimate and timeline correlation are
+ * kept in the app cache directory, so that a provisional timestamp is available right after a restart.
+ * Disabled by default.
+ *
+ * @param {!boolean} enabled true to enable the cache
+ * @param {Function=} callback optional completion callback
+ * @param {Synchroniser~ErrorCallback=} errorCallback optional error callback
+ */
+Synchroniser.setWarmStartCacheEnabled = function(enabled, callback, errorCallback) {
+	var success = function(result) {
+		if (callback) callback();
+	};
+	var error = function(code) {
+		if (errorCallback) {
+			errorCallback("Cordova error: " + code);
+		}
+	};
+	exec(success, error, "AndroidSyncKit", "setWarmStartCacheEnabled", [!!enabled]);
+};
+
+/**
+ * Set options of the wallclock client, shared by all synchronisers. Socket options apply to synchronisers started afterwards.
+ *
+ * @param {!Object} options
+ * @param {number=} options.receiveThreadPriority optional Linux priority of the thread receiving wallclock responses, from -20 (highest) to 19 (lowest), default -16
+ * @param {number=} options.trafficClass optional IP traffic class of wallclock requests, e.g. 0xB8 for expedited forwarding, 0 leaves it unchanged
+ * @param {number=} options.receiveBufferSize optional socket receive buffer size in bytes, 0 leaves it unchanged
+ * @param {Function=} callback optional completion callback
+ * @param {Synchroniser~ErrorCallback=} errorCallback optional error callback
+ */
+Synchroniser.setWallclockOptions = function(options, callback, errorCallback) {
+	var success = function(result) {
+		if (callback) callback();
+	};
+	var error = function(code) {
+		if (errorCallback) {
+			errorCallback("Cordova error: " + code);
+		}
+	};
+	exec(success, error, "AndroidSyncKit", "setWallclockOptions", [options]);
+};
+
+/**
+ * Log levels for {@link Synchroniser.setLogLevel}, matching android.util.Log
+ * @enum {number}
+ */
+Synchroniser.LogLevel = {
+	VERBOSE: 2,
+	DEBUG: 3,
+	INFO: 4,
+	WARN: 5,
+	ERROR: 6,
+	OFF: 8,
+};
+
+/**
+ * Set the native log level, for all categories or a single one. The default is INFO.
+ *
+ * @param {!number} level minimum level that is logged, see {@link Synchroniser.LogLevel}
+ * @param {string=} category optional category: "plugin", "cii", "ts", "wallclock" or "cache", all if omitted
+ * @param {Function=} callback optional completion callback
+ * @param {Synchroniser~ErrorCallback=} errorCallback optional error callback
+ */
+Synchroniser.setLogLevel = function(level, category, callback, errorCallback) {
+	var success = function(result) {
+		if (callback) callback();
+	};
+	var error = function(code) {
+		if (errorCallback) {
+			errorCallback("Cordova error: " + code);
+		}
+	};
+	exec(success, error, "AndroidSyncKit", "setLogLevel", [level, category || null]);
+};
+
 exports.Synchroniser = Synchroniser;